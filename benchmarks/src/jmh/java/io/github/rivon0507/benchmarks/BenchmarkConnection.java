@@ -0,0 +1,81 @@
+package io.github.rivon0507.benchmarks;
+
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.WireCodec;
+import io.github.rivon0507.server.ClientConnection;
+import io.github.rivon0507.server.EncodedFrame;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+// Stands in for a socket connection: encodes whatever it is sent, as a real connection would, and
+// keeps only the byte count
+class BenchmarkConnection implements ClientConnection {
+    private final String clientName;
+    private final WireCodec codec;
+    private long bytesSent;
+
+    BenchmarkConnection(String clientName, WireCodec codec) {
+        this.clientName = clientName;
+        this.codec = codec;
+    }
+
+    @Override
+    public String getClientName() {
+        return clientName;
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+        sendFrame(new EncodedFrame(message));
+    }
+
+    @Override
+    public void sendConnectionResponse(boolean success, String message, List<String> clients) {
+        sendFrame(new EncodedFrame(new ConnectionResponse(success, message, clients)));
+    }
+
+    @Override
+    public void sendFrame(EncodedFrame frame) {
+        try {
+            bytesSent += frame.bufferFor(codec).remaining();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean isCompressionEnabled() {
+        return false;
+    }
+
+    @Override
+    public void disconnect(String reason) {
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return 0;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return 0;
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return 0;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return 0;
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.rivon0507.benchmarks;
+
+import io.github.rivon0507.common.ConnectionRequest;
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.FrameCompressor;
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.WireCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Encoding and decoding cost of each protocol object, per wire codec
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"BINARY", "SERIALIZATION"})
+    public String codecName;
+
+    @Param({"64", "4096"})
+    public int contentLength;
+
+    @Param({"100"})
+    public int rosterSize;
+
+    private WireCodec codec;
+    private Message message;
+    private ConnectionRequest request;
+    private ConnectionResponse response;
+    private ByteBuffer messagePayload;
+    private ByteBuffer requestPayload;
+    private ByteBuffer responsePayload;
+    private FrameCompressor compressor;
+    private ByteBuffer messageFrame;
+    private ByteBuffer compressedMessagePayload;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = "BINARY".equals(codecName) ? WireCodec.BINARY : WireCodec.SERIALIZATION;
+
+        message = new Message("client-1", "client-2", "x".repeat(contentLength));
+        request = new ConnectionRequest("client-1");
+        List<String> clients = new ArrayList<>(rosterSize);
+        for (int i = 0; i < rosterSize; i++) {
+            clients.add("client-" + i);
+        }
+        response = new ConnectionResponse(true, "Connected successfully", clients, 1);
+
+        messagePayload = payloadOf(codec.encode(message));
+        requestPayload = payloadOf(codec.encode(request));
+        responsePayload = payloadOf(codec.encode(response));
+
+        // Threshold 0 so that both content sizes go through the deflater
+        compressor = new FrameCompressor(0);
+        messageFrame = codec.encode(message);
+        compressedMessagePayload = payloadOf(compressor.compress(messageFrame));
+    }
+
+    private static ByteBuffer payloadOf(ByteBuffer frame) {
+        return frame.position(Frames.HEADER_LENGTH).slice();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeMessage() throws IOException {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Object decodeMessage() throws IOException {
+        return codec.decode(messagePayload.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer encodeConnectionRequest() throws IOException {
+        return codec.encode(request);
+    }
+
+    @Benchmark
+    public Object decodeConnectionRequest() throws IOException {
+        return codec.decode(requestPayload.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer encodeConnectionResponse() throws IOException {
+        return codec.encode(response);
+    }
+
+    @Benchmark
+    public Object decodeConnectionResponse() throws IOException {
+        return codec.decode(responsePayload.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer compressMessage() {
+        return compressor.compress(messageFrame);
+    }
+
+    @Benchmark
+    public ByteBuffer inflateMessage() throws IOException {
+        return compressor.inflate(compressedMessagePayload.duplicate());
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.rivon0507.benchmarks;
+
+import io.github.rivon0507.common.WireCodec;
+import io.github.rivon0507.server.MessageServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// registerClient/removeClient throughput with several threads joining and leaving at once
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RegistryBenchmark {
+    // Clients already connected, which every roster change is fanned out to
+    @Param({"0", "1000"})
+    public int rosterSize;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private MessageServer server;
+    private PrintStream originalOut;
+
+    @State(Scope.Thread)
+    public static class Joiner {
+        private String name;
+        private BenchmarkConnection connection;
+
+        @Setup
+        public void setup(RegistryBenchmark benchmark) {
+            name = "joiner-" + benchmark.threadIds.incrementAndGet();
+            connection = new BenchmarkConnection(name, WireCodec.BINARY);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        server = new MessageServer(0);
+        for (int i = 0; i < rosterSize; i++) {
+            String name = "client-" + i;
+            server.registerClient(name, new BenchmarkConnection(name, WireCodec.BINARY));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public boolean registerAndRemove(Joiner joiner) {
+        boolean registered = server.registerClient(joiner.name, joiner.connection);
+        server.removeClient(joiner.connection);
+        return registered;
+    }
+
+    // As a client handshake does it: the roster snapshot is served from the view shared until
+    // the next presence delta
+    @Benchmark
+    public boolean registerWithSnapshotAndRemove(Joiner joiner) {
+        boolean registered = server.registerClient(joiner.name, joiner.connection);
+        server.sendRoster(joiner.connection, "Connected successfully");
+        server.removeClient(joiner.connection);
+        return registered;
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.rivon0507.benchmarks;
+
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.WireCodec;
+import io.github.rivon0507.server.MessageServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+// MessageServer routing and roster fan-out against in-memory connections, across roster sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+    // Members of the room used by roomMessage, whatever the roster size
+    private static final int ROOM_SIZE = 10;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int rosterSize;
+
+    private MessageServer server;
+    // The connection every benchmarked message arrives on
+    private BenchmarkConnection sender;
+    private Message privateMessage;
+    private Message broadcastMessage;
+    private Message roomMessage;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setup() {
+        // The server logs every routed message; keep the console out of the measurement
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        server = new MessageServer(0);
+        for (int i = 0; i < rosterSize; i++) {
+            String name = "client-" + i;
+            BenchmarkConnection connection = new BenchmarkConnection(name, WireCodec.BINARY);
+            server.registerClient(name, connection);
+            if (i == 0) {
+                sender = connection;
+            }
+            if (i < ROOM_SIZE) {
+                server.joinRoom(connection, "#room");
+            }
+        }
+        privateMessage = new Message("client-0", "client-" + (rosterSize - 1), "Hello there");
+        broadcastMessage = new Message("client-0", "ALL", "Hello everyone");
+        roomMessage = new Message("client-0", "#room", "Hello room");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public void privateMessage() {
+        server.handleMessage(sender, privateMessage);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        server.handleMessage(sender, broadcastMessage);
+    }
+
+    // Fans out to the room's members only, so it should stay flat as the roster grows
+    @Benchmark
+    public void roomMessage() {
+        server.handleMessage(sender, roomMessage);
+    }
+
+    @Benchmark
+    public void broadcastClientList() {
+        server.broadcastClientList();
+    }
+}
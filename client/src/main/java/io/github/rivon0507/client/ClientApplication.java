@@ -1,21 +1,52 @@
 package io.github.rivon0507.client;
 
+import io.github.rivon0507.common.HistoryRequest;
+import io.github.rivon0507.common.HistoryResponse;
 import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.MessageAck;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
 public class ClientApplication extends Application {
+    // Messages kept in the display; override with -Dsocketmessage.messageHistory
+    private static final int MESSAGE_HISTORY = Math.max(1, Integer.getInteger("socketmessage.messageHistory", 1000));
+    // Messages fetched per click of the history button
+    private static final int HISTORY_PAGE = 50;
+
+    // The listener thread only enqueues; the FX thread drains everything once per pulse. Holds no
+    // more than the display keeps, so a stalled FX thread costs the oldest messages, not memory.
+    private final BlockingQueue<String> inbox = new ArrayBlockingQueue<>(MESSAGE_HISTORY);
+    // Messages pushed out of the full inbox before they were shown
+    private final LongAdder inboxDropped = new LongAdder();
+    private final List<String> inboxBatch = new ArrayList<>();
+    // Only touched on the FX thread
+    private long droppedTotal;
+    // Offset of the oldest history message shown per conversation; only touched on the FX thread
+    private final Map<String, Long> historyCursors = new HashMap<>();
     private TextField serverField;
     private TextField portField;
     private TextField nameField;
@@ -23,8 +54,10 @@ public class ClientApplication extends Application {
     private Button disconnectButton;
     private TextField destinationField;
     private TextArea messageInput;
-    private TextArea messageDisplay;
+    private ListView<String> messageDisplay;
+    private ListView<String> rosterList;
     private Label statusLabel;
+    private Label droppedLabel;
 
     private MessageClient client;
     private Stage primaryStage;
@@ -67,15 +100,39 @@ public class ClientApplication extends Application {
         disconnectButton.setDisable(true);
         connectionPanel.add(disconnectButton, 3, 1);
 
-        // Center message display area
-        messageDisplay = new TextArea();
-        messageDisplay.setEditable(false);
-        messageDisplay.setWrapText(true);
+        // Center message display area; a ListView only lays out the visible messages
+        messageDisplay = new ListView<>();
+        messageDisplay.setCellFactory(_ -> new ListCell<>() {
+            {
+                setWrapText(true);
+                // Lets the cell follow the list width so long messages wrap instead of scrolling
+                setPrefWidth(0);
+            }
+
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+            }
+        });
+        VBox.setVgrow(messageDisplay, Priority.ALWAYS);
         VBox displayPanel = new VBox(5);
         displayPanel.setPadding(new Insets(10));
         Label displayLabel = new Label("Received Messages:");
         displayPanel.getChildren().addAll(displayLabel, messageDisplay);
 
+        // Right panel listing connected clients; clicking a name addresses it
+        rosterList = new ListView<>();
+        rosterList.setPrefWidth(140);
+        rosterList.getSelectionModel().selectedItemProperty().addListener((_, _, name) -> {
+            if (name != null) {
+                destinationField.setText(name);
+            }
+        });
+        VBox rosterPanel = new VBox(5);
+        rosterPanel.setPadding(new Insets(10));
+        rosterPanel.getChildren().addAll(new Label("Online:"), rosterList);
+
         // Bottom message input area
         VBox inputPanel = new VBox(10);
         inputPanel.setPadding(new Insets(10));
@@ -85,10 +142,22 @@ public class ClientApplication extends Application {
 
         destinationField = new TextField();
         destinationField.setPrefWidth(150);
-        destinationField.setPromptText("Enter recipient name or 'ALL' for broadcast");
+        destinationField.setPromptText("Enter recipient name, #room or 'ALL' for broadcast");
         destinationField.setText("ALL");
         destinationPanel.getChildren().add(destinationField);
 
+        // Each click loads the previous page of the conversation with the destination
+        Button historyButton = new Button("Load History");
+        historyButton.setOnAction(_ -> requestHistory());
+        destinationPanel.getChildren().add(historyButton);
+
+        // Rooms are joined and left by name, e.g. #general, and then used as a destination
+        Button joinRoomButton = new Button("Join Room");
+        joinRoomButton.setOnAction(_ -> changeRoom(true));
+        Button leaveRoomButton = new Button("Leave Room");
+        leaveRoomButton.setOnAction(_ -> changeRoom(false));
+        destinationPanel.getChildren().addAll(joinRoomButton, leaveRoomButton);
+
         messageInput = new TextArea();
         messageInput.setWrapText(true);
         messageInput.setPrefHeight(100);
@@ -100,12 +169,14 @@ public class ClientApplication extends Application {
 
         // Status bar
         statusLabel = new Label("Disconnected");
-        HBox statusBar = new HBox(statusLabel);
+        droppedLabel = new Label();
+        HBox statusBar = new HBox(20, statusLabel, droppedLabel);
         statusBar.setPadding(new Insets(5));
 
         // Assemble layout
         root.setTop(connectionPanel);
         root.setCenter(displayPanel);
+        root.setRight(rosterPanel);
         root.setBottom(inputPanel);
         root.setBottom(new VBox(inputPanel, statusBar));
 
@@ -113,6 +184,14 @@ public class ClientApplication extends Application {
         connectButton.setOnAction(_ -> connect());
         disconnectButton.setOnAction(_ -> disconnect());
 
+        // Render incoming messages in one batch per pulse
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drainInbox();
+            }
+        }.start();
+
         // Create scene
         Scene scene = new Scene(root, 600, 500);
         primaryStage.setScene(scene);
@@ -120,7 +199,8 @@ public class ClientApplication extends Application {
 
         // Handle application close
         primaryStage.setOnCloseRequest(_ -> {
-            if (client != null && client.isConnected()) {
+            // Also stops a client trying to reconnect
+            if (client != null) {
                 client.disconnect("Application closed");
                 primaryStage.setTitle("Message Client");
             }
@@ -142,6 +222,9 @@ public class ClientApplication extends Application {
             client = new MessageClient(serverHost, port, clientName);
             client.setMessageHandler(this::handleMessage);
             client.setConnectionStatusHandler(this::updateStatus);
+            client.setRosterHandler(this::updateRoster);
+            client.setHistoryHandler(this::handleHistory);
+            client.setAutoReconnect(true);
 
             if (client.connect()) {
                 // Update UI state
@@ -176,7 +259,11 @@ public class ClientApplication extends Application {
         nameField.setDisable(false);
 
         // Reset destination field to ALL
-        Platform.runLater(() -> destinationField.setText("ALL"));
+        Platform.runLater(() -> {
+            historyCursors.clear();
+            rosterList.getItems().clear();
+            destinationField.setText("ALL");
+        });
     }
 
     private void sendMessage() {
@@ -197,16 +284,103 @@ public class ClientApplication extends Application {
             return;
         }
 
-        if (client.sendMessage(destination, content)) {
-            messageInput.clear();
-            // Show our sent message in the display area
-            String prefix = destination.equals("ALL") ? "[To: EVERYONE]" : "[To: " + destination + "]";
-            displayMessage(prefix + "\n" + content);
+        // Queued without waiting on the network; the status bar follows the server's acknowledgement
+        client.sendMessageAsync(destination, content).whenComplete((ack, error) -> {
+            if (error != null) {
+                updateStatus("Message not sent: " + error.getMessage());
+            } else if (ack.getStatus() == MessageAck.Status.STORED) {
+                updateStatus("Message stored until " + destination + " connects");
+            } else if (ack.getStatus() == MessageAck.Status.REJECTED) {
+                updateStatus("Message to " + destination + " was not delivered");
+            } else {
+                updateStatus("Message delivered");
+            }
+        });
+        messageInput.clear();
+        // Show our sent message in the display area
+        String prefix = destination.equals("ALL") ? "[To: EVERYONE]" : "[To: " + destination + "]";
+        displayMessage(prefix + "\n" + content);
+    }
+
+    private void changeRoom(boolean join) {
+        if (client == null || !client.isConnected()) {
+            updateStatus("Not connected to server");
+            return;
+        }
+        String room = destinationField.getText().trim();
+        if (!Message.isRoomName(room) || room.length() == Message.ROOM_PREFIX.length()) {
+            updateStatus("Room names start with " + Message.ROOM_PREFIX);
+            return;
+        }
+        if (join) {
+            client.joinRoom(room);
+        } else {
+            client.leaveRoom(room);
         }
     }
 
+    private void requestHistory() {
+        if (client == null || !client.isConnected()) {
+            updateStatus("Not connected to server");
+            return;
+        }
+        String peer = destinationField.getText().trim();
+        if (peer.isEmpty()) {
+            updateStatus("Please enter a destination");
+            return;
+        }
+        long before = historyCursors.getOrDefault(peer, HistoryRequest.LATEST);
+        if (before == 0) {
+            updateStatus("No earlier messages with " + peer);
+            return;
+        }
+        client.requestHistory(peer, before, HISTORY_PAGE);
+    }
+
+    private void handleHistory(HistoryResponse page) {
+        Platform.runLater(() -> {
+            historyCursors.put(page.getPeer(), page.getStartOffset());
+            if (page.getMessages().isEmpty()) {
+                updateStatus("No earlier messages with " + page.getPeer());
+                return;
+            }
+            List<String> lines = new ArrayList<>(page.getMessages().size() + 1);
+            lines.add("--- History with " + page.getPeer() + ", messages " + page.getStartOffset()
+                    + " to " + (page.getStartOffset() + page.getMessages().size() - 1) + " ---");
+            for (Message message : page.getMessages()) {
+                lines.add(message.toString());
+            }
+            appendMessages(lines);
+        });
+    }
+
     private void handleMessage(Message message) {
-        Platform.runLater(() -> displayMessage(message.toString()));
+        String line = message.toString();
+        // Full while the FX thread is behind: the oldest message makes room, as the display would
+        // have trimmed it anyway
+        while (!inbox.offer(line)) {
+            if (inbox.poll() != null) {
+                inboxDropped.increment();
+            }
+        }
+    }
+
+    private void drainInbox() {
+        long dropped = inboxDropped.sumThenReset();
+        if (dropped > 0) {
+            droppedTotal += dropped;
+            droppedLabel.setText(droppedTotal + " messages dropped while the window was busy");
+        }
+        inbox.drainTo(inboxBatch);
+        if (inboxBatch.isEmpty()) {
+            return;
+        }
+        appendMessages(inboxBatch);
+        inboxBatch.clear();
+    }
+
+    private void updateRoster(List<String> clients) {
+        Platform.runLater(() -> rosterList.getItems().setAll(clients));
     }
 
     private void updateStatus(String status) {
@@ -214,6 +388,15 @@ public class ClientApplication extends Application {
     }
 
     private void displayMessage(String message) {
-        messageDisplay.appendText(message + "\n\n");
+        appendMessages(List.of(message));
+    }
+
+    private void appendMessages(List<String> messages) {
+        ObservableList<String> items = messageDisplay.getItems();
+        items.addAll(messages);
+        if (items.size() > MESSAGE_HISTORY) {
+            items.remove(0, items.size() - MESSAGE_HISTORY);
+        }
+        messageDisplay.scrollTo(items.size() - 1);
     }
 }
@@ -2,25 +2,124 @@ package io.github.rivon0507.client;
 
 import io.github.rivon0507.common.ConnectionRequest;
 import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.DisconnectRequest;
+import io.github.rivon0507.common.FlowCredit;
+import io.github.rivon0507.common.FrameCompressor;
+import io.github.rivon0507.common.FrameReader;
+import io.github.rivon0507.common.FrameWriter;
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.Heartbeat;
+import io.github.rivon0507.common.HistoryRequest;
+import io.github.rivon0507.common.HistoryResponse;
 import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.MessageAck;
+import io.github.rivon0507.common.PresenceUpdate;
+import io.github.rivon0507.common.RoomRequest;
+import io.github.rivon0507.common.RosterRequest;
+import io.github.rivon0507.common.WireCodec;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 public class MessageClient {
+    private static final int OUTBOUND_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    // Queued after the last frame when disconnecting on purpose; the writer stops once it is reached
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+    private static final long GOODBYE_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_BASE_DELAY_MILLIS = 100;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 10_000;
+    private static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 15_000;
+    // Heartbeat intervals the server may stay silent, probed, before the connection counts as lost
+    private static final int HEARTBEAT_MISSES = 3;
+
     private final String serverHost;
     private final int serverPort;
     private final String clientName;
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    // Guards replacing the connection, which the caller, the listener, the writer and the reconnect
+    // thread may all attempt
+    private final ReentrantLock connectionLock = new ReentrantLock();
+    private volatile Socket socket;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private FrameReader frameReader;
+    private WireCodec codec = WireCodec.BINARY;
+    private boolean compression = true;
+    private int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD;
+    // Inflates server frames whenever compression was offered; outbound frames are only
+    // compressed once the server accepted the offer
+    private FrameCompressor compressor;
+    private volatile boolean compressOutbound;
+    // Frames from the caller and the listener thread, written in batches by the writer thread
+    private final BlockingQueue<ByteBuffer> outbound = new LinkedBlockingQueue<>(OUTBOUND_QUEUE_CAPACITY);
+    private long maxFlushDelayMicros = 1000;
+    private long heartbeatIntervalMillis = DEFAULT_HEARTBEAT_INTERVAL_MILLIS;
+    // When the listener last read a frame
+    private volatile long lastReceivedNanos;
+    private Thread writerThread;
+    private ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    };
+    private final Set<String> roster = new ConcurrentSkipListSet<>();
+    private long rosterVersion;
+    private boolean awaitingRoster;
+    // Session ids pushed by the server with the roster; messages to these clients carry ids
+    // instead of names. Clients of other cluster nodes have none and are addressed by name.
+    private final Map<String, Integer> directory = new ConcurrentHashMap<>();
+    private volatile int sessionId;
+    // The server numbers the messages of a connection in arrival order, so messages are numbered
+    // under sendLock in the order they are queued for the writer. Acknowledgements come back in
+    // the same order, which keeps inFlight sorted.
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private long messagesSent;
+    // Messages the server lets this connection send, see FlowCredit; unlimited when the server
+    // grants no credit. Guarded by sendLock, which senders wait on for more.
+    private long creditLimit;
+    private final Condition creditGranted = sendLock.newCondition();
+    private final Queue<PendingSend> inFlight = new ConcurrentLinkedQueue<>();
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private Semaphore inFlightPermits;
     private Thread listenerThread;
-    private boolean connected = false;
+    private volatile boolean connected = false;
+    private boolean autoReconnect;
+    private Thread reconnectThread;
+    // Given by the server at handshake to resume the session on a new connection, 0 when it has none
+    private volatile long resumeToken;
+    // Frames of the session read so far, except acknowledgements, credit and the answer to a
+    // resume; the server resends the ones after this count when the session is resumed
+    private volatile long framesReceived;
+    // Whether the last handshake resumed the session
+    private boolean resumed;
     private Consumer<Message> messageHandler;
     private Consumer<String> connectionStatusHandler;
+    private Consumer<List<String>> rosterHandler;
+    private Consumer<HistoryResponse> historyHandler;
 
     public MessageClient(String serverHost, int serverPort, String clientName) {
         this.serverHost = serverHost;
@@ -29,49 +128,201 @@ public class MessageClient {
     }
 
     public boolean connect() {
+        String refusal;
+        connectionLock.lock();
         try {
-            socket = new Socket(serverHost, serverPort);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
-
-            // Send connection request with client name
-            out.writeObject(new ConnectionRequest(clientName));
-            out.flush();
-
-            // Read response
-            Object response = in.readObject();
-            if (!(response instanceof ConnectionResponse connResponse)) {
-                disconnect("Invalid response from server");
-                return false;
+            // A new session, whatever the previous connection left behind
+            resumeToken = 0;
+            refusal = openConnection();
+        } catch (IOException e) {
+            if (connectionStatusHandler != null) {
+                connectionStatusHandler.accept("Connection error: " + e.getMessage());
             }
+            disconnect("Error connecting to server");
+            return false;
+        } finally {
+            connectionLock.unlock();
+        }
+        if (refusal != null) {
+            disconnect(refusal);
+            return false;
+        }
 
-            if (!connResponse.isSuccess()) {
-                disconnect(connResponse.getMessage());
-                return false;
+        // Notify status
+        if (connectionStatusHandler != null) {
+            connectionStatusHandler.accept("Connected to server");
+        }
+        return true;
+    }
+
+    // Connects and performs the handshake, resuming the session when the server gave a token.
+    // Returns null once connected, otherwise why the server refused. Called under connectionLock.
+    private String openConnection() throws IOException {
+        socket = new Socket(serverHost, serverPort);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        frameReader = new FrameReader(in);
+
+        // Announce the codec, then send connection request with client name
+        compressor = compression ? new FrameCompressor(compressionThreshold) : null;
+        out.writeByte(codec.getId());
+        Frames.write(out, codec.encode(new ConnectionRequest(clientName, compression, resumeToken, framesReceived)));
+        out.flush();
+
+        // Read response; frames the server routed to us before answering are replayed after it,
+        // and the first credit comes ahead of it
+        List<Object> early = new ArrayList<>();
+        long credit = Long.MAX_VALUE;
+        Object response = frameReader.read(codec, compressor);
+        while (response instanceof Message || response instanceof PresenceUpdate || response instanceof FlowCredit) {
+            if (response instanceof FlowCredit grant) {
+                credit = grant.getLimit();
+            } else {
+                early.add(response);
             }
+            response = frameReader.read(codec, compressor);
+        }
+        if (!(response instanceof ConnectionResponse connResponse)) {
+            return "Invalid response from server";
+        }
+        if (!connResponse.isSuccess()) {
+            return connResponse.getMessage();
+        }
 
-            // Connection successful
+        // Connection successful
+        compressOutbound = compressor != null && connResponse.isCompression();
+        resumed = connResponse.isResumed();
+        // A resumed session keeps its roster; the frames missed meanwhile follow the response
+        if (!resumed) {
+            framesReceived = early.size() + 1;
+            applyRoster(connResponse);
+            for (Object frame : early) {
+                handleFrame(frame);
+            }
+        }
+        resumeToken = connResponse.getResumeToken();
 
-            // Start listener thread
-            connected = true;
-            startListener();
+        // Start listener and writer threads; the server numbers messages and grants credit per
+        // connection
+        sendLock.lock();
+        try {
+            messagesSent = 0;
+            creditLimit = credit;
+        } finally {
+            sendLock.unlock();
+        }
+        inFlightPermits = new Semaphore(maxInFlight);
+        lastReceivedNanos = System.nanoTime();
+        connected = true;
+        startListener();
+        startWriter();
+        return null;
+    }
 
-            // Notify status
-            if (connectionStatusHandler != null) {
-                connectionStatusHandler.accept("Connected to server");
+    public void disconnect(String reason) {
+        // Lets the server end the session at once rather than keep it for a resume
+        sayGoodbye();
+        connectionLock.lock();
+        try {
+            if (reconnectThread != null) {
+                reconnectThread.interrupt();
+                reconnectThread = null;
             }
+            closeConnection();
+        } finally {
+            connectionLock.unlock();
+        }
+        failInFlight(reason);
 
-            return true;
-        } catch (IOException | ClassNotFoundException e) {
+        if (connectionStatusHandler != null) {
+            connectionStatusHandler.accept("Disconnected: " + reason);
+        }
+    }
+
+    // Called by the listener or the writer when the connection they serve fails
+    private void connectionLost(Socket lost, String reason) {
+        connectionLock.lock();
+        try {
+            // Already handled, or the connection has been replaced since
+            if (socket != lost || !connected) {
+                return;
+            }
+            closeConnection();
+            if (autoReconnect) {
+                reconnectThread = threadFactory.newThread(this::reconnect);
+                reconnectThread.start();
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+        // Messages may or may not have reached the server, so they are not sent again
+        failInFlight(reason);
+
+        if (connectionStatusHandler != null) {
+            connectionStatusHandler.accept(autoReconnect ? reason + ", reconnecting" : "Disconnected: " + reason);
+        }
+    }
+
+    // Retries with exponential backoff and full jitter, so clients dropped together by a server
+    // restart do not all come back at the same moment
+    private void reconnect() {
+        for (int attempt = 0; ; attempt++) {
+            long ceiling = Math.min(RECONNECT_MAX_DELAY_MILLIS, RECONNECT_BASE_DELAY_MILLIS << Math.min(attempt, 16));
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            String status;
+            connectionLock.lock();
+            try {
+                // disconnect() was called meanwhile
+                if (reconnectThread != Thread.currentThread()) {
+                    return;
+                }
+                String refusal = openConnection();
+                reconnectThread = null;
+                if (refusal != null) {
+                    closeConnection();
+                    status = "Disconnected: " + refusal;
+                } else {
+                    status = resumed ? "Reconnected, session resumed" : "Reconnected to server";
+                }
+            } catch (IOException e) {
+                closeConnection();
+                status = "Reconnect attempt " + (attempt + 1) + " failed: " + e.getMessage();
+            } finally {
+                connectionLock.unlock();
+            }
             if (connectionStatusHandler != null) {
-                connectionStatusHandler.accept("Connection error: " + e.getMessage());
+                connectionStatusHandler.accept(status);
+            }
+            if (reconnectThread == null) {
+                return;
             }
-            disconnect("Error connecting to server");
-            return false;
         }
     }
 
-    public void disconnect(String reason) {
+    // Queues a DisconnectRequest behind the pending frames and waits a little for the writer to
+    // send them all
+    private void sayGoodbye() {
+        Thread writer = writerThread;
+        if (!connected || writer == null || writer == Thread.currentThread()) {
+            return;
+        }
+        try {
+            if (outbound.offer(encode(new DisconnectRequest())) && outbound.offer(END_OF_STREAM)) {
+                writer.join(GOODBYE_TIMEOUT_MILLIS);
+            }
+        } catch (IOException e) {
+            System.out.println("Error disconnecting: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called under connectionLock
+    private void closeConnection() {
         connected = false;
 
         try {
@@ -79,16 +330,17 @@ public class MessageClient {
                 listenerThread.interrupt();
                 listenerThread = null;
             }
+            if (writerThread != null) {
+                writerThread.interrupt();
+                writerThread = null;
+            }
+            outbound.clear();
             if (in != null) in.close();
             if (out != null) out.close();
             if (socket != null && !socket.isClosed()) socket.close();
         } catch (IOException e) {
             System.out.println("Error disconnecting: " + e.getMessage());
         }
-
-        if (connectionStatusHandler != null) {
-            connectionStatusHandler.accept("Disconnected: " + reason);
-        }
     }
 
     public boolean sendMessage(String destination, String content) {
@@ -96,46 +348,401 @@ public class MessageClient {
             return false;
         }
 
+        sendLock.lock();
         try {
-            Message message = new Message(clientName, destination, content);
-            out.writeObject(message);
-            out.flush();
+            if (!awaitCredit()) {
+                return false;
+            }
+            write(encode(address(destination, content)));
+            messagesSent++;
             return true;
         } catch (IOException e) {
             System.out.println("Error sending message: " + e.getMessage());
             disconnect("Error sending message");
             return false;
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a message and returns at once with a future completed by the server's
+     * acknowledgement, so many messages can be in flight on the connection. Once the in-flight
+     * window is full this waits for the oldest acknowledgement. The future fails with an
+     * IOException when the connection is lost before the acknowledgement arrives.
+     */
+    public CompletableFuture<MessageAck> sendMessageAsync(String destination, String content) {
+        Semaphore permits = inFlightPermits;
+        if (!connected || permits == null) {
+            return CompletableFuture.failedFuture(new IOException("Not connected"));
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new InterruptedIOException("Interrupted while waiting for the send window"));
+        }
+
+        CompletableFuture<MessageAck> future = new CompletableFuture<>();
+        sendLock.lock();
+        try {
+            // Waits for credit; connected is checked under the lock since disconnect() fails what
+            // is in flight after taking it
+            if (!awaitCredit()) {
+                permits.release();
+                future.completeExceptionally(new IOException("Not connected"));
+                return future;
+            }
+            ByteBuffer frame = encode(address(destination, content));
+            inFlight.add(new PendingSend(++messagesSent, future, permits));
+            write(frame);
+        } catch (IOException e) {
+            System.out.println("Error sending message: " + e.getMessage());
+            // Fails everything in flight, this message too once it was queued
+            disconnect("Error sending message");
+            if (!future.isDone()) {
+                permits.release();
+                future.completeExceptionally(e);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Asks for up to limit messages exchanged with peer ("ALL" for broadcasts) before the given
+     * offset, HistoryRequest.LATEST for the most recent ones. The page is handed to the history
+     * handler.
+     */
+    public boolean requestHistory(String peer, long beforeOffset, int limit) {
+        if (!connected) {
+            return false;
+        }
+
+        try {
+            write(encode(new HistoryRequest(peer, beforeOffset, limit)));
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error requesting history: " + e.getMessage());
+            disconnect("Error requesting history");
+            return false;
         }
     }
 
+    // Messages sent to a room reach its members only; the server confirms with a SERVER message
+    public boolean joinRoom(String room) {
+        return sendRoomRequest(room, true);
+    }
+
+    public boolean leaveRoom(String room) {
+        return sendRoomRequest(room, false);
+    }
+
+    private boolean sendRoomRequest(String room, boolean join) {
+        if (!connected) {
+            return false;
+        }
+
+        try {
+            write(encode(new RoomRequest(room, join)));
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error sending room request: " + e.getMessage());
+            disconnect("Error sending room request");
+            return false;
+        }
+    }
+
+    private Message address(String destination, String content) {
+        Integer destinationId = "ALL".equals(destination) ? Integer.valueOf(Message.ALL_ID) : directory.get(destination);
+        if (sessionId == 0 || destinationId == null) {
+            return new Message(clientName, destination, content);
+        }
+        return new Message(sessionId, destinationId, content);
+    }
+
     private void startListener() {
-        listenerThread = new Thread(() -> {
+        Socket socket = this.socket;
+        FrameReader frameReader = this.frameReader;
+        FrameCompressor compressor = this.compressor;
+        listenerThread = threadFactory.newThread(() -> {
             try {
                 while (connected) {
-                    Object received = in.readObject();
+                    Object frame = frameReader.read(codec, compressor);
+                    lastReceivedNanos = System.nanoTime();
+                    if (!(frame instanceof MessageAck || frame instanceof FlowCredit || frame instanceof Heartbeat)) {
+                        framesReceived++;
+                    }
+                    handleFrame(frame);
+                }
+            } catch (IOException e) {
+                connectionLost(socket, "Connection lost: " + e.getMessage());
+            }
+        });
 
-                    if (received instanceof Message message) {
-                        if (messageHandler != null) {
-                            messageHandler.accept(message);
-                        }
-                    }  // Handle connection response if needed in the future
+        listenerThread.start();
+    }
 
+    private void startWriter() {
+        Socket socket = this.socket;
+        FrameWriter frameWriter = new FrameWriter(out, maxFlushDelayMicros * 1000);
+        long heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMillis);
+        writerThread = threadFactory.newThread(() -> {
+            try {
+                long probeSent = System.nanoTime();
+                ByteBuffer first;
+                while (connected && (first = heartbeatNanos > 0 ? outbound.poll(heartbeatNanos, TimeUnit.NANOSECONDS) : outbound.take()) != END_OF_STREAM) {
+                    if (first != null) {
+                        // Everything queued behind the first frame goes out with the same flush
+                        frameWriter.writeBatch(first, this::nextQueued);
+                    }
+                    if (heartbeatNanos == 0) {
+                        continue;
+                    }
+                    // A server silent for an interval is probed; one that stays silent is gone,
+                    // however healthy the socket looks
+                    long now = System.nanoTime();
+                    long silent = now - lastReceivedNanos;
+                    if (silent >= heartbeatNanos * HEARTBEAT_MISSES) {
+                        connectionLost(socket, "Server not responding");
+                        return;
+                    }
+                    if (silent >= heartbeatNanos && now - probeSent >= heartbeatNanos) {
+                        frameWriter.writeBatch(encode(new Heartbeat(false)), this::nextQueued);
+                        probeSent = now;
+                    }
                 }
-            } catch (IOException | ClassNotFoundException e) {
-                if (connected) {
-                    disconnect("Connection lost: " + e.getMessage());
-                }
+            } catch (InterruptedException e) {
+                // Disconnected
+            } catch (IOException e) {
+                connectionLost(socket, "Error sending message: " + e.getMessage());
             }
         });
 
-        listenerThread.setDaemon(true);
-        listenerThread.start();
+        writerThread.start();
+    }
+
+    // Waits under sendLock until the server's credit covers one more message; false once
+    // disconnected
+    private boolean awaitCredit() throws IOException {
+        try {
+            while (connected && messagesSent >= creditLimit) {
+                creditGranted.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for credit");
+        }
+        return connected;
+    }
+
+    // The frame that may join the current batch, null when none is queued or the stream ends;
+    // only the writer thread takes frames off the queue
+    private ByteBuffer nextQueued() {
+        ByteBuffer next = outbound.peek();
+        return next == null || next == END_OF_STREAM ? null : outbound.poll();
+    }
+
+    private ByteBuffer encode(Object object) throws IOException {
+        ByteBuffer frame = codec.encode(object);
+        return compressOutbound ? compressor.compress(frame) : frame;
+    }
+
+    // Queues a frame for the writer thread, waiting for room when the queue is full
+    private void write(ByteBuffer frame) throws IOException {
+        try {
+            outbound.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing frame");
+        }
+    }
+
+    private void handleFrame(Object received) throws IOException {
+        if (received instanceof Message message) {
+            if (messageHandler != null) {
+                messageHandler.accept(message);
+            }
+        } else if (received instanceof PresenceUpdate update) {
+            applyPresence(update);
+        } else if (received instanceof ConnectionResponse snapshot) {
+            applyRoster(snapshot);
+        } else if (received instanceof MessageAck ack) {
+            acknowledge(ack);
+        } else if (received instanceof FlowCredit grant) {
+            applyCredit(grant);
+        } else if (received instanceof Heartbeat heartbeat) {
+            // Not worth waiting for room: a client with a full queue is clearly still there
+            if (!heartbeat.isReply()) {
+                outbound.offer(encode(new Heartbeat(true)));
+            }
+        } else if (received instanceof HistoryResponse page) {
+            if (historyHandler != null) {
+                historyHandler.accept(page);
+            }
+        }
+    }
+
+    private void acknowledge(MessageAck ack) {
+        PendingSend pending;
+        while ((pending = inFlight.peek()) != null && pending.sequence() <= ack.getSequence()) {
+            inFlight.poll();
+            pending.permits().release();
+            // Earlier messages still in flight were delivered, see MessageAck
+            pending.future().complete(pending.sequence() == ack.getSequence()
+                    ? ack : new MessageAck(pending.sequence(), MessageAck.Status.DELIVERED));
+        }
+    }
+
+    private void applyCredit(FlowCredit grant) {
+        sendLock.lock();
+        try {
+            creditLimit = Math.max(creditLimit, grant.getLimit());
+            creditGranted.signalAll();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void failInFlight(String reason) {
+        sendLock.lock();
+        try {
+            // Senders waiting for credit give up
+            creditGranted.signalAll();
+            PendingSend pending;
+            while ((pending = inFlight.poll()) != null) {
+                pending.permits().release();
+                pending.future().completeExceptionally(new IOException("Disconnected: " + reason));
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void applyRoster(ConnectionResponse snapshot) {
+        if (snapshot.getConnectedClients() == null) {
+            return;
+        }
+        roster.clear();
+        roster.addAll(snapshot.getConnectedClients());
+        directory.clear();
+        int[] ids = snapshot.getSessionIds();
+        for (int i = 0; ids != null && i < ids.length; i++) {
+            if (ids[i] != 0) {
+                directory.put(snapshot.getConnectedClients().get(i), ids[i]);
+            }
+        }
+        // Only the snapshots sent to this client alone carry its own id
+        if (snapshot.getSessionId() != 0) {
+            sessionId = snapshot.getSessionId();
+        }
+        rosterVersion = snapshot.getRosterVersion();
+        awaitingRoster = false;
+        notifyRoster();
+    }
+
+    private void applyPresence(PresenceUpdate update) throws IOException {
+        // Already covered by the snapshot, or a snapshot is on its way
+        if (update.getVersion() <= rosterVersion || awaitingRoster) {
+            return;
+        }
+        if (update.getVersion() != rosterVersion + 1) {
+            awaitingRoster = true;
+            write(encode(new RosterRequest()));
+            return;
+        }
+        update.getLeft().forEach(roster::remove);
+        update.getLeft().forEach(directory::remove);
+        roster.addAll(update.getJoined());
+        int[] ids = update.getJoinedIds();
+        for (int i = 0; i < update.getJoined().size(); i++) {
+            if (ids != null && ids[i] != 0) {
+                directory.put(update.getJoined().get(i), ids[i]);
+            } else {
+                directory.remove(update.getJoined().get(i));
+            }
+        }
+        rosterVersion = update.getVersion();
+        notifyRoster();
+    }
+
+    private void notifyRoster() {
+        if (rosterHandler != null) {
+            rosterHandler.accept(getRoster());
+        }
+    }
+
+    // Names of the connected clients, sorted, as last reported by the server
+    public List<String> getRoster() {
+        return List.copyOf(roster);
+    }
+
+    // Upper bound on how long a frame may wait for more frames to share its flush; must be
+    // called before connect()
+    public void setMaxFlushDelayMicros(long maxFlushDelayMicros) {
+        this.maxFlushDelayMicros = maxFlushDelayMicros;
+    }
+
+    // How long the server may stay silent before it is sent a heartbeat; the connection counts as
+    // lost after HEARTBEAT_MISSES such intervals without a frame from it, so a dead peer is noticed
+    // even when the socket never fails. 0 turns heartbeats off. Must be called before connect().
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+        if (heartbeatIntervalMillis < 0) {
+            throw new IllegalArgumentException("heartbeatIntervalMillis must not be negative");
+        }
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    // Reconnects after the connection drops, resuming the session if the server still holds it.
+    // Messages in flight at that moment fail rather than risk being delivered twice.
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    // Messages sent with sendMessageAsync() that may await their acknowledgement at once; must be
+    // called before connect()
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    // Creates the listener and writer threads, e.g. Thread.ofVirtual().factory() when running
+    // thousands of clients in one JVM; must be called before connect()
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    public void setRosterHandler(Consumer<List<String>> handler) {
+        this.rosterHandler = handler;
+    }
+
+    public void setHistoryHandler(Consumer<HistoryResponse> handler) {
+        this.historyHandler = handler;
     }
 
     public void setMessageHandler(Consumer<Message> handler) {
         this.messageHandler = handler;
     }
 
+    // Must be called before connect(); the codec is fixed for the lifetime of the connection
+    public void setCodec(WireCodec codec) {
+        this.codec = codec;
+    }
+
+    // Offers compression to the server at handshake; must be called before connect()
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    // Frames whose payload is smaller than this many bytes are never compressed; must be called
+    // before connect()
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     public void setConnectionStatusHandler(Consumer<String> handler) {
         this.connectionStatusHandler = handler;
     }
@@ -147,4 +754,7 @@ public class MessageClient {
     public String getClientName() {
         return clientName;
     }
+
+    private record PendingSend(long sequence, CompletableFuture<MessageAck> future, Semaphore permits) {
+    }
 }
@@ -0,0 +1,438 @@
+package io.github.rivon0507.common;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact hand-written encoding. A payload is a one-byte type tag followed by the fields of that
+ * type. Strings are a varint of (UTF-8 length + 1), 0 standing for null, followed by the UTF-8
+ * bytes; byte arrays and lists use the same scheme for their length and element count. Session
+ * ids are varints, shifted by one where the value may be {@link Message#ALL_ID}.
+ * <p>
+ * Encoding sizes the frame up front and writes it into a single exact-size buffer. Decoding reads
+ * straight from the frame buffer, so the only allocations are the resulting objects and strings.
+ */
+public class BinaryCodec implements WireCodec {
+    public static final byte ID = 1;
+
+    private static final byte CONNECTION_REQUEST = 1;
+    private static final byte CONNECTION_RESPONSE = 2;
+    private static final byte MESSAGE = 3;
+    private static final byte PRESENCE_UPDATE = 4;
+    private static final byte ROSTER_REQUEST = 5;
+    private static final byte HISTORY_REQUEST = 6;
+    private static final byte HISTORY_RESPONSE = 7;
+    private static final byte NAME_CLAIM = 8;
+    private static final byte NAME_CLAIM_REPLY = 9;
+    private static final byte ROOM_REQUEST = 10;
+    private static final byte MESSAGE_BY_ID = 11;
+    private static final byte MESSAGE_ACK = 12;
+    private static final byte DISCONNECT_REQUEST = 13;
+    private static final byte FLOW_CREDIT = 14;
+    private static final byte HEARTBEAT = 15;
+    private static final byte PEER_HELLO = 16;
+    private static final byte PEER_PROOF = 17;
+    private static final MessageAck.Status[] ACK_STATUSES = MessageAck.Status.values();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public ByteBuffer encode(Object object) throws IOException {
+        ByteBuffer frame;
+        switch (object) {
+            case Message message when message.isAddressedById() -> {
+                frame = allocate(MESSAGE_BY_ID, varintSize(message.getSenderId())
+                        + varintSize(message.getDestinationId() + 1) + sizeOf(message.getContent()));
+                putVarint(frame, message.getSenderId());
+                putVarint(frame, message.getDestinationId() + 1);
+                putString(frame, message.getContent());
+            }
+            case Message message -> {
+                frame = allocate(MESSAGE, sizeOf(message.getSender())
+                        + sizeOf(message.getDestination()) + sizeOf(message.getContent()));
+                putString(frame, message.getSender());
+                putString(frame, message.getDestination());
+                putString(frame, message.getContent());
+            }
+            case ConnectionRequest request -> {
+                frame = allocate(CONNECTION_REQUEST, sizeOf(request.getClientName()) + 1 + 2 * Long.BYTES);
+                putString(frame, request.getClientName());
+                frame.put((byte) (request.isCompression() ? 1 : 0));
+                frame.putLong(request.getResumeToken());
+                frame.putLong(request.getFramesReceived());
+            }
+            case ConnectionResponse response -> {
+                frame = allocate(CONNECTION_RESPONSE, 1 + sizeOf(response.getMessage())
+                        + sizeOf(response.getConnectedClients()) + Long.BYTES + 1
+                        + varintSize(response.getSessionId()) + sizeOf(response.getSessionIds()) + Long.BYTES);
+                frame.put((byte) (response.isSuccess() ? 1 : 0));
+                putString(frame, response.getMessage());
+                putStrings(frame, response.getConnectedClients());
+                frame.putLong(response.getRosterVersion());
+                frame.put((byte) (response.isCompression() ? 1 : 0));
+                putVarint(frame, response.getSessionId());
+                putInts(frame, response.getSessionIds());
+                frame.putLong(response.getResumeToken());
+            }
+            case PresenceUpdate update -> {
+                frame = allocate(PRESENCE_UPDATE, Long.BYTES + sizeOf(update.getJoined()) + sizeOf(update.getLeft())
+                        + sizeOf(update.getJoinedIds()));
+                frame.putLong(update.getVersion());
+                putStrings(frame, update.getJoined());
+                putStrings(frame, update.getLeft());
+                putInts(frame, update.getJoinedIds());
+            }
+            case RosterRequest _ -> frame = allocate(ROSTER_REQUEST, 0);
+            case DisconnectRequest _ -> frame = allocate(DISCONNECT_REQUEST, 0);
+            case HistoryRequest request -> {
+                frame = allocate(HISTORY_REQUEST, sizeOf(request.getPeer()) + Long.BYTES + Integer.BYTES);
+                putString(frame, request.getPeer());
+                frame.putLong(request.getBeforeOffset());
+                frame.putInt(request.getLimit());
+            }
+            case HistoryResponse response -> {
+                int messagesSize = varintSize(response.getMessages().size() + 1);
+                for (Message message : response.getMessages()) {
+                    messagesSize += sizeOf(message.getSender()) + sizeOf(message.getDestination()) + sizeOf(message.getContent());
+                }
+                frame = allocate(HISTORY_RESPONSE, sizeOf(response.getPeer()) + Long.BYTES + messagesSize);
+                putString(frame, response.getPeer());
+                frame.putLong(response.getStartOffset());
+                putVarint(frame, response.getMessages().size() + 1);
+                for (Message message : response.getMessages()) {
+                    putString(frame, message.getSender());
+                    putString(frame, message.getDestination());
+                    putString(frame, message.getContent());
+                }
+            }
+            case NameClaim claim -> {
+                frame = allocate(NAME_CLAIM, Long.BYTES + sizeOf(claim.getName()));
+                frame.putLong(claim.getClaimId());
+                putString(frame, claim.getName());
+            }
+            case NameClaimReply reply -> {
+                frame = allocate(NAME_CLAIM_REPLY, Long.BYTES + 1);
+                frame.putLong(reply.getClaimId());
+                frame.put((byte) (reply.isGranted() ? 1 : 0));
+            }
+            case RoomRequest request -> {
+                frame = allocate(ROOM_REQUEST, sizeOf(request.getRoom()) + 1);
+                putString(frame, request.getRoom());
+                frame.put((byte) (request.isJoin() ? 1 : 0));
+            }
+            case MessageAck ack -> {
+                frame = allocate(MESSAGE_ACK, Long.BYTES + 1);
+                frame.putLong(ack.getSequence());
+                frame.put((byte) ack.getStatus().ordinal());
+            }
+            case FlowCredit credit -> {
+                frame = allocate(FLOW_CREDIT, Long.BYTES);
+                frame.putLong(credit.getLimit());
+            }
+            case Heartbeat heartbeat -> {
+                frame = allocate(HEARTBEAT, 1);
+                frame.put((byte) (heartbeat.isReply() ? 1 : 0));
+            }
+            case PeerHello hello -> {
+                frame = allocate(PEER_HELLO, sizeOf(hello.getNodeId()) + sizeOf(hello.getNonce()));
+                putString(frame, hello.getNodeId());
+                putBytes(frame, hello.getNonce());
+            }
+            case PeerProof proof -> {
+                frame = allocate(PEER_PROOF, sizeOf(proof.getMac()));
+                putBytes(frame, proof.getMac());
+            }
+            default -> throw new NotSerializableException(object.getClass().getName());
+        }
+        return frame.flip();
+    }
+
+    @Override
+    public Object decode(ByteBuffer payload) throws IOException {
+        try {
+            byte type = payload.get();
+            return switch (type) {
+                case MESSAGE -> new Message(getString(payload), getString(payload), getString(payload));
+                case MESSAGE_BY_ID -> new Message(getVarint(payload), getVarint(payload) - 1, getString(payload));
+                case CONNECTION_REQUEST -> new ConnectionRequest(getString(payload), payload.get() != 0,
+                        payload.getLong(), payload.getLong());
+                case CONNECTION_RESPONSE -> new ConnectionResponse(payload.get() != 0, getString(payload),
+                        getStrings(payload), payload.getLong(), payload.get() != 0, getVarint(payload), getInts(payload),
+                        payload.getLong());
+                case PRESENCE_UPDATE -> new PresenceUpdate(payload.getLong(), getStrings(payload), getStrings(payload),
+                        getInts(payload));
+                case ROSTER_REQUEST -> new RosterRequest();
+                case DISCONNECT_REQUEST -> new DisconnectRequest();
+                case HISTORY_REQUEST -> new HistoryRequest(getString(payload), payload.getLong(), payload.getInt());
+                case HISTORY_RESPONSE -> new HistoryResponse(getString(payload), payload.getLong(), getMessages(payload));
+                case NAME_CLAIM -> new NameClaim(payload.getLong(), getString(payload));
+                case NAME_CLAIM_REPLY -> new NameClaimReply(payload.getLong(), payload.get() != 0);
+                case ROOM_REQUEST -> new RoomRequest(getString(payload), payload.get() != 0);
+                case MESSAGE_ACK -> new MessageAck(payload.getLong(), getAckStatus(payload));
+                case FLOW_CREDIT -> new FlowCredit(payload.getLong());
+                case HEARTBEAT -> new Heartbeat(payload.get() != 0);
+                case PEER_HELLO -> new PeerHello(getString(payload), getBytes(payload));
+                case PEER_PROOF -> new PeerProof(getBytes(payload));
+                default -> throw new StreamCorruptedException("Unknown frame type: " + type);
+            };
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new StreamCorruptedException("Truncated frame");
+        }
+    }
+
+    private static MessageAck.Status getAckStatus(ByteBuffer buffer) throws IOException {
+        int status = buffer.get();
+        if (status < 0 || status >= ACK_STATUSES.length) {
+            throw new StreamCorruptedException("Unknown acknowledgement status: " + status);
+        }
+        return ACK_STATUSES[status];
+    }
+
+    private static ByteBuffer allocate(byte type, int bodyLength) throws IOException {
+        int payloadLength = 1 + bodyLength;
+        if (payloadLength > Frames.MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too large: " + payloadLength + " bytes");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(Frames.HEADER_LENGTH + payloadLength);
+        frame.putInt(payloadLength);
+        frame.put(type);
+        return frame;
+    }
+
+    static int sizeOf(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varintSize(length + 1) + length;
+    }
+
+    static int sizeOf(List<String> values) {
+        if (values == null) {
+            return 1;
+        }
+        int size = varintSize(values.size() + 1);
+        for (String value : values) {
+            size += sizeOf(value);
+        }
+        return size;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, utf8Length(value) + 1);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    // Unpaired surrogate, replaced like String.getBytes(UTF_8) does
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static void putStrings(ByteBuffer buffer, List<String> values) {
+        if (values == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, values.size() + 1);
+        for (String value : values) {
+            putString(buffer, value);
+        }
+    }
+
+    static int sizeOf(int[] values) {
+        if (values == null) {
+            return 1;
+        }
+        int size = varintSize(values.length + 1);
+        for (int value : values) {
+            size += varintSize(value);
+        }
+        return size;
+    }
+
+    static void putInts(ByteBuffer buffer, int[] values) {
+        if (values == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, values.length + 1);
+        for (int value : values) {
+            putVarint(buffer, value);
+        }
+    }
+
+    static int sizeOf(byte[] value) {
+        return value == null ? 1 : varintSize(value.length + 1) + value.length;
+    }
+
+    static void putBytes(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, value.length + 1);
+        buffer.put(value);
+    }
+
+    static byte[] getBytes(ByteBuffer buffer) throws IOException {
+        int length = getVarint(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new StreamCorruptedException("Truncated bytes");
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    static int[] getInts(ByteBuffer buffer) throws IOException {
+        int count = getVarint(buffer) - 1;
+        if (count < 0) {
+            return null;
+        }
+        if (count > buffer.remaining()) {
+            throw new StreamCorruptedException("Truncated list");
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = getVarint(buffer);
+        }
+        return values;
+    }
+
+    static String getString(ByteBuffer buffer) throws IOException {
+        int length = getVarint(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new StreamCorruptedException("Truncated string");
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    static List<String> getStrings(ByteBuffer buffer) throws IOException {
+        int count = getVarint(buffer) - 1;
+        if (count < 0) {
+            return null;
+        }
+        // Every element takes at least one byte, which bounds the list before allocating it
+        if (count > buffer.remaining()) {
+            throw new StreamCorruptedException("Truncated list");
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(getString(buffer));
+        }
+        return values;
+    }
+
+    private static List<Message> getMessages(ByteBuffer buffer) throws IOException {
+        int count = getVarint(buffer) - 1;
+        // Every message takes at least three bytes, which bounds the list before allocating it
+        if (count < 0 || count > buffer.remaining() / 3) {
+            throw new StreamCorruptedException("Invalid message count");
+        }
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message(getString(buffer), getString(buffer), getString(buffer)));
+        }
+        return messages;
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 1;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+}
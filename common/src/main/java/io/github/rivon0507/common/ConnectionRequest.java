@@ -6,12 +6,41 @@ public class ConnectionRequest implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final String clientName;
+    // Whether the client can inflate compressed frames and would like to use them
+    private final boolean compression;
+    // Set by a reconnecting client: the token of the session to resume, 0 for a new one, and the
+    // number of frames it read from the server over that session
+    private final long resumeToken;
+    private final long framesReceived;
 
     public ConnectionRequest(String clientName) {
+        this(clientName, false);
+    }
+
+    public ConnectionRequest(String clientName, boolean compression) {
+        this(clientName, compression, 0, 0);
+    }
+
+    public ConnectionRequest(String clientName, boolean compression, long resumeToken, long framesReceived) {
         this.clientName = clientName;
+        this.compression = compression;
+        this.resumeToken = resumeToken;
+        this.framesReceived = framesReceived;
     }
 
     public String getClientName() {
         return clientName;
     }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public long getResumeToken() {
+        return resumeToken;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
 }
@@ -9,11 +9,46 @@ public class ConnectionResponse implements Serializable {
     private final boolean success;
     private final String message;
     private final List<String> connectedClients;
+    // Roster version the client list corresponds to, 0 when unversioned
+    private final long rosterVersion;
+    // Whether the server accepted the client's compression offer; only meaningful at handshake
+    private final boolean compression;
+    // Session id of the receiving client, and the ids of connectedClients in the same order; 0 for
+    // a client without one here, e.g. one connected to another cluster node. Null ids when unknown.
+    private final int sessionId;
+    private final int[] sessionIds;
+    // Token the client presents to resume its session after losing the connection, 0 when the
+    // server does not keep sessions. Only meaningful at handshake, like sessionId.
+    private final long resumeToken;
 
     public ConnectionResponse(boolean success, String message, List<String> connectedClients) {
+        this(success, message, connectedClients, 0);
+    }
+
+    public ConnectionResponse(boolean success, String message, List<String> connectedClients, long rosterVersion) {
+        this(success, message, connectedClients, rosterVersion, false);
+    }
+
+    public ConnectionResponse(boolean success, String message, List<String> connectedClients, long rosterVersion,
+                              boolean compression) {
+        this(success, message, connectedClients, rosterVersion, compression, 0, null);
+    }
+
+    public ConnectionResponse(boolean success, String message, List<String> connectedClients, long rosterVersion,
+                              boolean compression, int sessionId, int[] sessionIds) {
+        this(success, message, connectedClients, rosterVersion, compression, sessionId, sessionIds, 0);
+    }
+
+    public ConnectionResponse(boolean success, String message, List<String> connectedClients, long rosterVersion,
+                              boolean compression, int sessionId, int[] sessionIds, long resumeToken) {
         this.success = success;
         this.message = message;
         this.connectedClients = connectedClients;
+        this.rosterVersion = rosterVersion;
+        this.compression = compression;
+        this.sessionId = sessionId;
+        this.sessionIds = sessionIds;
+        this.resumeToken = resumeToken;
     }
 
     public boolean isSuccess() {
@@ -27,4 +62,30 @@ public class ConnectionResponse implements Serializable {
     public List<String> getConnectedClients() {
         return connectedClients;
     }
+
+    public long getRosterVersion() {
+        return rosterVersion;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public int[] getSessionIds() {
+        return sessionIds;
+    }
+
+    public long getResumeToken() {
+        return resumeToken;
+    }
+
+    // A resumed session carries no client list: the frames the client missed, roster changes
+    // included, were sent again ahead of this response
+    public boolean isResumed() {
+        return success && connectedClients == null;
+    }
 }
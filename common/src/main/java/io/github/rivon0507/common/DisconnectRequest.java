@@ -0,0 +1,9 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Sent by a client that is leaving on purpose, so the server ends its session at once instead of
+// keeping it for a resume
+public class DisconnectRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+}
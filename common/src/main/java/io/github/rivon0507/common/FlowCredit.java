@@ -0,0 +1,25 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Credit granted by the server: the client may send messages up to this limit, counted like the
+// sequence numbers of MessageAck. Each grant replaces the previous one, so a late or repeated
+// grant never takes credit back.
+public class FlowCredit implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    public FlowCredit(long limit) {
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "Credit up to message " + limit;
+    }
+}
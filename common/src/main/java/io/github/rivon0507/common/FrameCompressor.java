@@ -0,0 +1,119 @@
+package io.github.rivon0507.common;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-connection frame compression, used once both peers agreed to it during the handshake.
+ * <p>
+ * A compressed frame sets {@link Frames#COMPRESSED} in its length header; its payload is the
+ * 4-byte length of the original payload followed by the deflated original payload. Frames below
+ * the threshold, or that deflate would not shrink, are sent as they are.
+ * <p>
+ * The Deflater, the Inflater and their scratch buffers are reused for every frame. Compression
+ * may be requested by any thread and is serialized by a lock; inflation is only ever done by the
+ * connection's reading thread.
+ */
+public class FrameCompressor {
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private final int threshold;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    // A ReentrantLock rather than synchronized, which would pin the carrier of a virtual thread
+    private final ReentrantLock deflateLock = new ReentrantLock();
+    private byte[] deflated = new byte[DEFAULT_THRESHOLD];
+    private byte[] inflated = new byte[DEFAULT_THRESHOLD];
+
+    public FrameCompressor(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns a compressed copy of a complete frame as produced by {@link WireCodec#encode}, or the
+     * frame itself when it is below the threshold or does not compress. The frame is not consumed.
+     */
+    public ByteBuffer compress(ByteBuffer frame) {
+        int payloadLength = frame.remaining() - Frames.HEADER_LENGTH;
+        // The original length takes 4 bytes, so smaller output is required to be worth it
+        int limit = payloadLength - Integer.BYTES - 1;
+        if (payloadLength < threshold || limit <= 0) {
+            return frame;
+        }
+        deflateLock.lock();
+        try {
+            deflater.reset();
+            int payloadStart = frame.position() + Frames.HEADER_LENGTH;
+            if (frame.hasArray()) {
+                deflater.setInput(frame.array(), frame.arrayOffset() + payloadStart, payloadLength);
+            } else {
+                deflater.setInput(frame.duplicate().position(payloadStart));
+            }
+            deflater.finish();
+            if (deflated.length < limit) {
+                deflated = new byte[limit];
+            }
+            int length = 0;
+            while (!deflater.finished() && length < limit) {
+                length += deflater.deflate(deflated, length, limit - length);
+            }
+            if (!deflater.finished()) {
+                return frame;
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(Frames.HEADER_LENGTH + Integer.BYTES + length);
+            compressed.putInt(Frames.COMPRESSED | (Integer.BYTES + length));
+            compressed.putInt(payloadLength);
+            compressed.put(deflated, 0, length);
+            return compressed.flip();
+        } finally {
+            deflateLock.unlock();
+        }
+    }
+
+    /**
+     * Inflates the payload of a compressed frame. The result is backed by a buffer reused by the
+     * next call, so it must be decoded before the next frame is read.
+     */
+    public ByteBuffer inflate(ByteBuffer payload) throws IOException {
+        if (payload.remaining() < Integer.BYTES) {
+            throw new StreamCorruptedException("Truncated compressed frame");
+        }
+        int length = payload.getInt();
+        if (length < 0 || length > Frames.MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        if (inflated.length < length) {
+            inflated = new byte[length];
+        }
+        inflater.reset();
+        inflater.setInput(payload);
+        try {
+            int inflatedLength = 0;
+            while (inflatedLength < length && !inflater.finished()) {
+                int count = inflater.inflate(inflated, inflatedLength, length - inflatedLength);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedLength += count;
+            }
+            if (inflatedLength != length || !inflater.finished()) {
+                throw new StreamCorruptedException("Compressed frame does not match its length");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        }
+        return ByteBuffer.wrap(inflated, 0, length);
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.rivon0507.common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads frames from a blocking stream into one payload buffer reused from frame to frame, so the
+ * decoded objects and their strings are all a read allocates.
+ * <p>
+ * The buffer grows with the frames read, up to {@code MAX_RETAINED_LENGTH}. A larger frame is
+ * read into a buffer of its own, so a single huge frame does not hold its size for the rest of
+ * the connection.
+ */
+public class FrameReader {
+    private static final int INITIAL_LENGTH = 1024;
+    static final int MAX_RETAINED_LENGTH = 64 * 1024;
+
+    private final DataInputStream in;
+    private byte[] payload = new byte[INITIAL_LENGTH];
+    private ByteBuffer view = ByteBuffer.wrap(payload);
+
+    public FrameReader(DataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads and decodes the next frame, which may be compressed; the compressor is null when
+     * compression is off. Called from a single reader thread.
+     */
+    public Object read(WireCodec codec, FrameCompressor compressor) throws IOException {
+        int header = in.readInt();
+        int length = Frames.checkLength(header, compressor);
+        ByteBuffer buffer;
+        if (length > MAX_RETAINED_LENGTH) {
+            byte[] large = new byte[length];
+            in.readFully(large);
+            buffer = ByteBuffer.wrap(large);
+        } else {
+            if (length > payload.length) {
+                payload = new byte[Math.min(MAX_RETAINED_LENGTH, Math.max(length, payload.length * 2))];
+                view = ByteBuffer.wrap(payload);
+            }
+            in.readFully(payload, 0, length);
+            buffer = view.clear().limit(length);
+        }
+        return codec.decode(Frames.isCompressed(header) ? compressor.inflate(buffer) : buffer);
+    }
+}
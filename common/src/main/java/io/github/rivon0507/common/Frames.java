@@ -0,0 +1,93 @@
+package io.github.rivon0507.common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing shared by the client and both server engines.
+ * <p>
+ * Every frame is a 4-byte big-endian payload length followed by the payload produced by the
+ * connection's {@link WireCodec}. Frames can be decoded independently of one another, which is
+ * what the non-blocking server needs to find message boundaries in its read buffers.
+ * <p>
+ * When compression was negotiated, the high bit of the length marks a frame whose payload was
+ * deflated by a {@link FrameCompressor}; frame lengths never reach that bit.
+ */
+public final class Frames {
+    public static final int HEADER_LENGTH = 4;
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    public static final int COMPRESSED = 0x8000_0000;
+
+    private Frames() {
+    }
+
+    public static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        if (frame.hasArray()) {
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } else {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    public static Object read(DataInputStream in, WireCodec codec) throws IOException {
+        return read(in, codec, null);
+    }
+
+    // Reads a frame that may be compressed; the compressor is null when compression is off. Allocates
+    // the payload of every frame: a connection reading many uses a FrameReader instead.
+    public static Object read(DataInputStream in, WireCodec codec, FrameCompressor compressor) throws IOException {
+        int header = in.readInt();
+        int length = checkLength(header, compressor);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        return codec.decode(isCompressed(header) ? compressor.inflate(buffer) : buffer);
+    }
+
+    /**
+     * Extracts the next complete frame payload from a buffer in read mode, advancing its position
+     * past the frame. Returns null, leaving the buffer untouched, when the frame is still incomplete.
+     */
+    public static ByteBuffer next(ByteBuffer buffer) throws IOException {
+        return next(buffer, null);
+    }
+
+    // Same as next(ByteBuffer), inflating compressed frames into the compressor's scratch buffer
+    public static ByteBuffer next(ByteBuffer buffer, FrameCompressor compressor) throws IOException {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            return null;
+        }
+        int header = buffer.getInt(buffer.position());
+        int length = checkLength(header, compressor);
+        if (buffer.remaining() < HEADER_LENGTH + length) {
+            return null;
+        }
+        int start = buffer.position() + HEADER_LENGTH;
+        ByteBuffer payload = buffer.slice(start, length);
+        buffer.position(start + length);
+        return isCompressed(header) ? compressor.inflate(payload) : payload;
+    }
+
+    static boolean isCompressed(int header) {
+        return (header & COMPRESSED) != 0;
+    }
+
+    static int checkLength(int header, FrameCompressor compressor) throws IOException {
+        if (isCompressed(header) && compressor == null) {
+            throw new StreamCorruptedException("Compressed frame but compression was not negotiated");
+        }
+        return checkLength(header & ~COMPRESSED);
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Proof that the other side is still there. Either side sends a probe after hearing nothing for a
+// while and the other answers it with a reply. Heartbeats belong to the connection: like
+// acknowledgements they are not counted for a resume nor sent again.
+public class Heartbeat implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean reply;
+
+    public Heartbeat(boolean reply) {
+        this.reply = reply;
+    }
+
+    public boolean isReply() {
+        return reply;
+    }
+
+    @Override
+    public String toString() {
+        return reply ? "Heartbeat reply" : "Heartbeat probe";
+    }
+}
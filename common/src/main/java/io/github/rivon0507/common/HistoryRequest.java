@@ -0,0 +1,34 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Asks for up to limit messages of the conversation with peer ("ALL" for the broadcast channel, or a room)
+// whose offsets are below beforeOffset. Answered with a HistoryResponse.
+public class HistoryRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Requests the most recent page
+    public static final long LATEST = Long.MAX_VALUE;
+
+    private final String peer;
+    private final long beforeOffset;
+    private final int limit;
+
+    public HistoryRequest(String peer, long beforeOffset, int limit) {
+        this.peer = peer;
+        this.beforeOffset = beforeOffset;
+        this.limit = limit;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public long getBeforeOffset() {
+        return beforeOffset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
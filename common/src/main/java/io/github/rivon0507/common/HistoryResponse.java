@@ -0,0 +1,36 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+import java.util.List;
+
+// A page of a conversation, oldest first. Message i has offset startOffset + i, so the previous
+// page is requested with beforeOffset = startOffset; a startOffset of 0 means there is none.
+public class HistoryResponse implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String peer;
+    private final long startOffset;
+    private final List<Message> messages;
+
+    public HistoryResponse(String peer, long startOffset, List<Message> messages) {
+        this.peer = peer;
+        this.startOffset = startOffset;
+        this.messages = messages;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public boolean hasEarlier() {
+        return startOffset > 0;
+    }
+}
@@ -5,14 +5,34 @@ import java.io.Serializable;
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    // Destinations starting with it name a room rather than a client
+    public static final String ROOM_PREFIX = "#";
+    // Destination id of a broadcast; session ids themselves are always positive
+    public static final int ALL_ID = -1;
+
     private final String sender;
-    private final String destination; // can be a specific client name or "ALL" for broadcast
+    private final String destination; // can be a specific client name, a "#room" or "ALL" for broadcast
     private final String content;
+    // Session ids assigned by the server at handshake, 0 when unknown
+    private final int senderId;
+    private final int destinationId;
 
     public Message(String sender, String destination, String content) {
+        this(sender, destination, content, 0, 0);
+    }
+
+    // Addressed by session ids only, as clients send it once they know the ids; the server
+    // resolves the names before routing it
+    public Message(int senderId, int destinationId, String content) {
+        this(null, null, content, senderId, destinationId);
+    }
+
+    public Message(String sender, String destination, String content, int senderId, int destinationId) {
         this.sender = sender;
         this.destination = destination;
         this.content = content;
+        this.senderId = senderId;
+        this.destinationId = destinationId;
     }
 
     public String getSender() {
@@ -27,14 +47,35 @@ public class Message implements Serializable {
         return content;
     }
 
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public int getDestinationId() {
+        return destinationId;
+    }
+
+    // True when the sender and destination are only known by their session ids
+    public boolean isAddressedById() {
+        return sender == null && destination == null && senderId != 0 && destinationId != 0;
+    }
+
     public boolean isBroadcast() {
-        return "ALL".equals(destination);
+        return destinationId == ALL_ID || "ALL".equals(destination);
+    }
+
+    public boolean isRoom() {
+        return isRoomName(destination);
+    }
+
+    public static boolean isRoomName(String name) {
+        return name != null && name.startsWith(ROOM_PREFIX);
     }
 
     @Override
     public String toString() {
         return "From: " + sender + 
-               (isBroadcast() ? " [BROADCAST]" : " [To: " + destination + "]") + 
+               (isBroadcast() ? " [BROADCAST]" : isRoom() ? " [" + destination + "]" : " [To: " + destination + "]") + 
                "\n" + content;
     }
 }
@@ -0,0 +1,46 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// The server's answer to the messages a client sends. Messages are numbered from 1 in the order
+// they arrive on the connection, so the sequence number is implied on the way in and only the
+// acknowledgement carries it. An acknowledgement also covers every earlier message not
+// acknowledged yet, which were all delivered: the server reports a stored or rejected message
+// at once but acknowledges a run of delivered ones with a single frame.
+public class MessageAck implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        // Handed to the recipient's connection, to a room or to everyone, or to the recipient's node
+        DELIVERED,
+        // Journaled for a recipient who is offline
+        STORED,
+        // Not routed; the server explains why in a SERVER message
+        REJECTED
+    }
+
+    private final long sequence;
+    private final Status status;
+
+    public MessageAck(long sequence, Status status) {
+        this.sequence = sequence;
+        this.status = status;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isDelivered() {
+        return status != Status.REJECTED;
+    }
+
+    @Override
+    public String toString() {
+        return "Message " + sequence + " " + status.name().toLowerCase();
+    }
+}
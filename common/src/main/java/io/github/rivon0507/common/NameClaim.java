@@ -0,0 +1,25 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Sent between cluster nodes before a client is registered: asks every peer whether the name is
+// free. Answered with a NameClaimReply carrying the same claim id.
+public class NameClaim implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long claimId;
+    private final String name;
+
+    public NameClaim(long claimId, String name) {
+        this.claimId = claimId;
+        this.name = name;
+    }
+
+    public long getClaimId() {
+        return claimId;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+public class NameClaimReply implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long claimId;
+    private final boolean granted;
+
+    public NameClaimReply(long claimId, boolean granted) {
+        this.claimId = claimId;
+        this.granted = granted;
+    }
+
+    public long getClaimId() {
+        return claimId;
+    }
+
+    public boolean isGranted() {
+        return granted;
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// First frame each side of a cluster link sends: its node id and a fresh random challenge. Each
+// side then answers the other's challenge with a PeerProof before anything else is exchanged.
+public class PeerHello implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String nodeId;
+    private final byte[] nonce;
+
+    public PeerHello(String nodeId, byte[] nonce) {
+        this.nodeId = nodeId;
+        this.nonce = nonce;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public byte[] getNonce() {
+        return nonce;
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Answer to the other node's PeerHello: a MAC over both challenges, keyed with the cluster's shared
+// secret, showing the sender holds the secret without sending it
+public class PeerProof implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] mac;
+
+    public PeerProof(byte[] mac) {
+        this.mac = mac;
+    }
+
+    public byte[] getMac() {
+        return mac;
+    }
+}
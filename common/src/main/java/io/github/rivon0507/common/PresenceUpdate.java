@@ -0,0 +1,42 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Roster changes since the previous version. Clients apply "left" before "joined".
+public class PresenceUpdate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final List<String> joined;
+    private final List<String> left;
+    // Session ids of the joined clients, in the same order; null when unknown
+    private final int[] joinedIds;
+
+    public PresenceUpdate(long version, List<String> joined, List<String> left) {
+        this(version, joined, left, null);
+    }
+
+    public PresenceUpdate(long version, List<String> joined, List<String> left, int[] joinedIds) {
+        this.version = version;
+        this.joined = joined;
+        this.left = left;
+        this.joinedIds = joinedIds;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    public List<String> getLeft() {
+        return left;
+    }
+
+    public int[] getJoinedIds() {
+        return joinedIds;
+    }
+}
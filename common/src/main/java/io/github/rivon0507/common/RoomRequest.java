@@ -0,0 +1,25 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Joins or leaves a room; messages addressed to a room name reach only its members. The server
+// confirms with a SERVER message.
+public class RoomRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String room;
+    private final boolean join;
+
+    public RoomRequest(String room, boolean join) {
+        this.room = room;
+        this.join = join;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public boolean isJoin() {
+        return join;
+    }
+}
@@ -0,0 +1,8 @@
+package io.github.rivon0507.common;
+
+import java.io.Serializable;
+
+// Sent by a client that missed a roster version; answered with a full ConnectionResponse snapshot
+public class RosterRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,32 @@
+package io.github.rivon0507.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns protocol objects into frames and back. The client announces the codec it wants with a
+ * single id byte sent before its {@link ConnectionRequest}; both sides then use that codec for
+ * every frame of the connection.
+ */
+public interface WireCodec {
+    WireCodec SERIALIZATION = new SerializationCodec();
+    WireCodec BINARY = new BinaryCodec();
+
+    byte getId();
+
+    // Returns a complete frame, length prefix included, ready to be written
+    ByteBuffer encode(Object object) throws IOException;
+
+    Object decode(ByteBuffer payload) throws IOException;
+
+    // Returns null when the id is unknown
+    static WireCodec forId(byte id) {
+        if (id == SERIALIZATION.getId()) {
+            return SERIALIZATION;
+        }
+        if (id == BINARY.getId()) {
+            return BINARY;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,260 @@
+package io.github.rivon0507.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCodecTest {
+    private static final WireCodec CODEC = WireCodec.BINARY;
+    // Type tags as written on the wire, see BinaryCodec
+    private static final byte MESSAGE = 3;
+    private static final byte PRESENCE_UPDATE = 4;
+    private static final byte HISTORY_RESPONSE = 7;
+    private static final byte MESSAGE_ACK = 12;
+
+    @Test
+    void roundTripsMessage() throws IOException {
+        Message message = roundTrip(new Message("alice", "bob", "Hello, été 你好 😀"));
+        assertEquals("alice", message.getSender());
+        assertEquals("bob", message.getDestination());
+        assertEquals("Hello, été 你好 😀", message.getContent());
+    }
+
+    @Test
+    void roundTripsMessageWithNullFields() throws IOException {
+        Message message = roundTrip(new Message("alice", "ALL", null));
+        assertNull(message.getContent());
+    }
+
+    @Test
+    void roundTripsMessageById() throws IOException {
+        Message message = roundTrip(new Message(42, 7, "by id"));
+        assertTrue(message.isAddressedById());
+        assertEquals(42, message.getSenderId());
+        assertEquals(7, message.getDestinationId());
+        assertEquals("by id", message.getContent());
+    }
+
+    @Test
+    void roundTripsBroadcastById() throws IOException {
+        Message message = roundTrip(new Message(42, Message.ALL_ID, "everyone"));
+        assertEquals(Message.ALL_ID, message.getDestinationId());
+        assertTrue(message.isBroadcast());
+    }
+
+    @Test
+    void roundTripsConnectionRequest() throws IOException {
+        ConnectionRequest request = roundTrip(new ConnectionRequest("alice", true, 0x1234_5678_9abcL, 99));
+        assertEquals("alice", request.getClientName());
+        assertTrue(request.isCompression());
+        assertEquals(0x1234_5678_9abcL, request.getResumeToken());
+        assertEquals(99, request.getFramesReceived());
+    }
+
+    @Test
+    void roundTripsConnectionResponse() throws IOException {
+        ConnectionResponse response = roundTrip(new ConnectionResponse(true, "Welcome", List.of("alice", "bob"),
+                12, true, 300, new int[]{1, 300, 1 << 29}, -5));
+        assertTrue(response.isSuccess());
+        assertEquals("Welcome", response.getMessage());
+        assertEquals(List.of("alice", "bob"), response.getConnectedClients());
+        assertEquals(12, response.getRosterVersion());
+        assertTrue(response.isCompression());
+        assertEquals(300, response.getSessionId());
+        assertArrayEquals(new int[]{1, 300, 1 << 29}, response.getSessionIds());
+        assertEquals(-5, response.getResumeToken());
+    }
+
+    @Test
+    void roundTripsConnectionResponseWithoutLists() throws IOException {
+        ConnectionResponse response = roundTrip(new ConnectionResponse(false, "Name taken", null));
+        assertFalse(response.isSuccess());
+        assertNull(response.getConnectedClients());
+        assertNull(response.getSessionIds());
+    }
+
+    @Test
+    void roundTripsPresenceUpdate() throws IOException {
+        PresenceUpdate update = roundTrip(new PresenceUpdate(7, List.of("carol"), List.of("dave", "erin"), new int[]{5}));
+        assertEquals(7, update.getVersion());
+        assertEquals(List.of("carol"), update.getJoined());
+        assertEquals(List.of("dave", "erin"), update.getLeft());
+        assertArrayEquals(new int[]{5}, update.getJoinedIds());
+    }
+
+    @Test
+    void roundTripsRosterRequest() throws IOException {
+        roundTrip(new RosterRequest());
+    }
+
+    @Test
+    void roundTripsDisconnectRequest() throws IOException {
+        roundTrip(new DisconnectRequest());
+    }
+
+    @Test
+    void roundTripsHistoryRequest() throws IOException {
+        HistoryRequest request = roundTrip(new HistoryRequest("bob", 1000, 50));
+        assertEquals("bob", request.getPeer());
+        assertEquals(1000, request.getBeforeOffset());
+        assertEquals(50, request.getLimit());
+    }
+
+    @Test
+    void roundTripsHistoryResponse() throws IOException {
+        HistoryResponse response = roundTrip(new HistoryResponse("bob", 950,
+                List.of(new Message("alice", "bob", "one"), new Message("bob", "alice", "two"))));
+        assertEquals("bob", response.getPeer());
+        assertEquals(950, response.getStartOffset());
+        assertEquals(2, response.getMessages().size());
+        assertEquals("two", response.getMessages().get(1).getContent());
+        assertEquals("alice", response.getMessages().get(1).getDestination());
+    }
+
+    @Test
+    void roundTripsNameClaim() throws IOException {
+        NameClaim claim = roundTrip(new NameClaim(77, "alice"));
+        assertEquals(77, claim.getClaimId());
+        assertEquals("alice", claim.getName());
+    }
+
+    @Test
+    void roundTripsNameClaimReply() throws IOException {
+        NameClaimReply reply = roundTrip(new NameClaimReply(77, true));
+        assertEquals(77, reply.getClaimId());
+        assertTrue(reply.isGranted());
+    }
+
+    @Test
+    void roundTripsRoomRequest() throws IOException {
+        RoomRequest request = roundTrip(new RoomRequest("#general", false));
+        assertEquals("#general", request.getRoom());
+        assertFalse(request.isJoin());
+    }
+
+    @Test
+    void roundTripsMessageAck() throws IOException {
+        for (MessageAck.Status status : MessageAck.Status.values()) {
+            MessageAck ack = roundTrip(new MessageAck(123, status));
+            assertEquals(123, ack.getSequence());
+            assertEquals(status, ack.getStatus());
+        }
+    }
+
+    @Test
+    void roundTripsFlowCredit() throws IOException {
+        assertEquals(512, roundTrip(new FlowCredit(512)).getLimit());
+    }
+
+    @Test
+    void roundTripsHeartbeat() throws IOException {
+        assertTrue(roundTrip(new Heartbeat(true)).isReply());
+        assertFalse(roundTrip(new Heartbeat(false)).isReply());
+    }
+
+    @Test
+    void roundTripsPeerHello() throws IOException {
+        PeerHello hello = roundTrip(new PeerHello("node-1", new byte[]{1, 2, 3, -1}));
+        assertEquals("node-1", hello.getNodeId());
+        assertArrayEquals(new byte[]{1, 2, 3, -1}, hello.getNonce());
+    }
+
+    @Test
+    void roundTripsPeerProof() throws IOException {
+        byte[] mac = new byte[32];
+        Arrays.fill(mac, (byte) 0x5a);
+        assertArrayEquals(mac, roundTrip(new PeerProof(mac)).getMac());
+    }
+
+    @Test
+    void rejectsUnknownTag() {
+        assertThrows(IOException.class, () -> decode(99));
+        assertThrows(IOException.class, () -> decode(0));
+    }
+
+    @Test
+    void rejectsEmptyPayload() {
+        assertThrows(IOException.class, () -> CODEC.decode(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void rejectsTruncatedFrames() throws IOException {
+        Object[] frames = {new Message("alice", "bob", "Hello"), new ConnectionRequest("alice", true, 1, 2),
+                new MessageAck(1, MessageAck.Status.STORED), new PeerHello("node-1", new byte[8])};
+        for (Object frame : frames) {
+            ByteBuffer payload = payload(frame);
+            for (int length = 0; length < payload.remaining(); length++) {
+                ByteBuffer truncated = payload.slice(payload.position(), length);
+                assertThrows(IOException.class, () -> CODEC.decode(truncated),
+                        frame.getClass().getSimpleName() + " cut to " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void rejectsNegativeVarint() {
+        // 0xFFFFFFFF as a varint: the string length would be negative
+        assertThrows(IOException.class, () -> decode(MESSAGE, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F));
+    }
+
+    @Test
+    void rejectsOverlongVarint() {
+        // Six bytes, still continued past 32 bits
+        assertThrows(IOException.class, () -> decode(MESSAGE, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01));
+    }
+
+    @Test
+    void rejectsStringLongerThanFrame() {
+        assertThrows(IOException.class, () -> decode(MESSAGE, 100, 'a', 'b'));
+    }
+
+    @Test
+    void rejectsListLongerThanFrame() {
+        // A million elements announced in a frame of a few bytes, refused before allocating them
+        assertThrows(IOException.class, () -> decode(PRESENCE_UPDATE, 0, 0, 0, 0, 0, 0, 0, 1, 0xC1, 0x84, 0x3D));
+        assertThrows(IOException.class, () -> decode(HISTORY_RESPONSE, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0xC1, 0x84, 0x3D));
+    }
+
+    @Test
+    void rejectsUnknownAckStatus() {
+        assertThrows(IOException.class, () -> decode(MESSAGE_ACK, 0, 0, 0, 0, 0, 0, 0, 1, MessageAck.Status.values().length));
+    }
+
+    @Test
+    void refusesToEncodeUnknownObject() {
+        assertThrows(IOException.class, () -> CODEC.encode("not a frame"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T object) throws IOException {
+        Object decoded = CODEC.decode(payload(object));
+        return (T) assertInstanceOf(object.getClass(), decoded);
+    }
+
+    // The payload of the encoded frame, as the engines hand it to decode()
+    private static ByteBuffer payload(Object object) throws IOException {
+        ByteBuffer frame = CODEC.encode(object);
+        ByteBuffer payload = Frames.next(frame);
+        assertEquals(0, frame.remaining());
+        return payload;
+    }
+
+    private static Object decode(int... bytes) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(bytes.length);
+        for (int b : bytes) {
+            payload.put((byte) b);
+        }
+        return CODEC.decode(payload.flip());
+    }
+}
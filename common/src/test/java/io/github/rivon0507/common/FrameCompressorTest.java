@@ -0,0 +1,111 @@
+package io.github.rivon0507.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameCompressorTest {
+    private static final WireCodec CODEC = WireCodec.BINARY;
+
+    @Test
+    void roundTripsLargeFrame() throws IOException {
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        String content = "All work and no play makes Jack a dull boy. ".repeat(200);
+        ByteBuffer frame = CODEC.encode(new Message("alice", "bob", content));
+        int originalLength = frame.remaining();
+
+        ByteBuffer compressed = compressor.compress(frame);
+        assertNotSame(frame, compressed);
+        assertEquals(Frames.COMPRESSED, compressed.getInt(0) & Frames.COMPRESSED);
+        assertEquals(originalLength, frame.remaining(), "the original frame is not consumed");
+
+        Message message = assertInstanceOf(Message.class, CODEC.decode(Frames.next(compressed, compressor)));
+        assertEquals(content, message.getContent());
+    }
+
+    @Test
+    void leavesSmallFrameAsIs() throws IOException {
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        ByteBuffer frame = CODEC.encode(new Message("alice", "bob", "short"));
+        assertSame(frame, compressor.compress(frame));
+    }
+
+    @Test
+    void leavesIncompressibleFrameAsIs() throws IOException {
+        FrameCompressor compressor = new FrameCompressor(16);
+        byte[] noise = new byte[4096];
+        new Random(1).nextBytes(noise);
+        ByteBuffer frame = CODEC.encode(new PeerProof(noise));
+        assertSame(frame, compressor.compress(frame));
+    }
+
+    @Test
+    void refusesDeflateBomb() {
+        // 64 MiB of zeros deflate to a few kilobytes but claim to be a 1 KiB payload
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        ByteBuffer payload = compressedPayload(1024, new byte[64 * 1024 * 1024]);
+        assertThrows(IOException.class, () -> compressor.inflate(payload));
+    }
+
+    @Test
+    void refusesDeflateBombClaimingMaximumLength() {
+        // Inflation stops at the largest frame allowed instead of following the data
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        ByteBuffer payload = compressedPayload(Frames.MAX_FRAME_LENGTH, new byte[Frames.MAX_FRAME_LENGTH + 1024]);
+        assertThrows(IOException.class, () -> compressor.inflate(payload));
+    }
+
+    @Test
+    void refusesLengthAboveMaximum() {
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        ByteBuffer payload = compressedPayload(Frames.MAX_FRAME_LENGTH + 1, new byte[16]);
+        assertThrows(IOException.class, () -> compressor.inflate(payload));
+        ByteBuffer negative = compressedPayload(-1, new byte[16]);
+        assertThrows(IOException.class, () -> compressor.inflate(negative));
+    }
+
+    @Test
+    void refusesDataShorterThanItsLength() {
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        ByteBuffer payload = compressedPayload(2048, new byte[1024]);
+        assertThrows(IOException.class, () -> compressor.inflate(payload));
+    }
+
+    @Test
+    void refusesCorruptData() {
+        FrameCompressor compressor = new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD);
+        ByteBuffer payload = ByteBuffer.allocate(Integer.BYTES + 8).putInt(64).put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}).flip();
+        assertThrows(IOException.class, () -> compressor.inflate(payload));
+        assertThrows(IOException.class, () -> compressor.inflate(ByteBuffer.allocate(2)));
+    }
+
+    @Test
+    void refusesCompressedFrameWhenNotNegotiated() throws IOException {
+        FrameCompressor compressor = new FrameCompressor(16);
+        ByteBuffer compressed = compressor.compress(CODEC.encode(new Message("alice", "bob", "x".repeat(1000))));
+        assertThrows(IOException.class, () -> Frames.next(compressed));
+    }
+
+    // A compressed payload announcing length bytes once inflated, holding the deflated data
+    private static ByteBuffer compressedPayload(int length, byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] deflated = new byte[data.length / 100 + 1024];
+        int deflatedLength = 0;
+        while (!deflater.finished()) {
+            deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+        }
+        deflater.end();
+        return ByteBuffer.allocate(Integer.BYTES + deflatedLength).putInt(length).put(deflated, 0, deflatedLength).flip();
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.rivon0507.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameReaderTest {
+    private static final WireCodec CODEC = WireCodec.BINARY;
+
+    @Test
+    void readsFramesOfGrowingAndShrinkingSizes() throws IOException {
+        String[] contents = {"short", "x".repeat(5000), "", "y".repeat(200_000), "after the large one", "z".repeat(40_000)};
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (String content : contents) {
+            Frames.write(stream, CODEC.encode(new Message("alice", "bob", content)));
+        }
+        FrameReader reader = reader(stream);
+        for (String content : contents) {
+            Message message = assertInstanceOf(Message.class, reader.read(CODEC, null));
+            assertEquals(content, message.getContent());
+        }
+        assertThrows(EOFException.class, () -> reader.read(CODEC, null));
+    }
+
+    @Test
+    void decodedFramesDoNotShareTheBuffer() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Frames.write(stream, CODEC.encode(new PeerHello("node-1", new byte[]{1, 2, 3})));
+        Frames.write(stream, CODEC.encode(new PeerHello("node-2", new byte[]{4, 5, 6})));
+        FrameReader reader = reader(stream);
+        PeerHello first = assertInstanceOf(PeerHello.class, reader.read(CODEC, null));
+        reader.read(CODEC, null);
+        assertEquals("node-1", first.getNodeId());
+        assertEquals(1, first.getNonce()[0]);
+    }
+
+    @Test
+    void readsCompressedFrames() throws IOException {
+        FrameCompressor compressor = new FrameCompressor(16);
+        String content = "compress me ".repeat(1000);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteBuffer compressed = compressor.compress(CODEC.encode(new Message("alice", "bob", content)));
+        Frames.write(stream, compressed);
+        Frames.write(stream, CODEC.encode(new Message("alice", "bob", "plain")));
+
+        FrameReader reader = reader(stream);
+        assertEquals(content, assertInstanceOf(Message.class, reader.read(CODEC, compressor)).getContent());
+        assertEquals("plain", assertInstanceOf(Message.class, reader.read(CODEC, compressor)).getContent());
+    }
+
+    @Test
+    void refusesInvalidLengths() {
+        FrameReader negative = reader(new byte[]{(byte) 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+        assertThrows(IOException.class, () -> negative.read(CODEC, null));
+        FrameReader compressed = reader(new byte[]{(byte) 0x80, 0, 0, 8});
+        assertThrows(IOException.class, () -> compressed.read(CODEC, null));
+    }
+
+    private static FrameReader reader(ByteArrayOutputStream stream) {
+        return reader(stream.toByteArray());
+    }
+
+    private static FrameReader reader(byte[] bytes) {
+        return new FrameReader(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
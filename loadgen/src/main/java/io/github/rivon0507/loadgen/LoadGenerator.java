@@ -0,0 +1,261 @@
+package io.github.rivon0507.loadgen;
+
+import io.github.rivon0507.client.MessageClient;
+import io.github.rivon0507.common.LatencyHistogram;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.server.EngineType;
+import io.github.rivon0507.server.LogLevel;
+import io.github.rivon0507.server.MessageServer;
+import io.github.rivon0507.server.ServerConfig;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator. Opens many {@link MessageClient}s against a server on loopback, drives a
+ * mix of private and broadcast traffic and reports throughput and send-to-receive latency.
+ * <p>
+ * Each message carries its {@link System#nanoTime()} send timestamp, so latency is only meaningful
+ * when the generator and the server share a host clock, which is the case on loopback.
+ * <p>
+ * Options, all optional, are passed as {@code --name=value}:
+ * <pre>
+ *   --host=localhost      server to connect to; without it a server is embedded in this JVM
+ *   --port=9090           server port
+ *   --engine=threaded     engine of the embedded server (threaded, virtual, nio)
+ *   --clients=1000        simulated clients
+ *   --rate=1              messages per second sent by each client
+ *   --broadcast=0.1       fraction of messages sent to ALL instead of a random client
+ *   --size=64             message content size in characters
+ *   --async=false         send with sendMessageAsync() and count rejected or unacknowledged messages
+ *                         as failures
+ *   --warmup=5            seconds of traffic before recording starts
+ *   --duration=30         seconds of recorded traffic
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final String CLIENT_PREFIX = "load-";
+
+    private final Options options;
+    // Captured before the embedded server's per-message logging is silenced
+    private final PrintStream report = System.out;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final ThreadFactory virtualThreads = Thread.ofVirtual().factory();
+    private volatile boolean recording = false;
+    private volatile boolean running = true;
+    private String padding;
+
+    public LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(Options.parse(args)).run();
+    }
+
+    public void run() throws Exception {
+        MessageServer server = null;
+        if (options.host == null) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            // Per-message lines would only be built to be discarded
+            server = new MessageServer(options.port, new ServerConfig()
+                    .setEngine(options.engine)
+                    .setLogLevel(LogLevel.ERROR));
+            Thread serverThread = new Thread(server::start, "embedded-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            // The engines do not report readiness; give the listener a moment to bind
+            Thread.sleep(500);
+        }
+        String host = options.host != null ? options.host : "localhost";
+        // Leaves room for the timestamp prefix so content stays close to the requested size
+        padding = "x".repeat(Math.max(0, options.size - 21));
+
+        List<MessageClient> clients = connectAll(host);
+        report.printf("Connected %d/%d clients%n", clients.size(), options.clients);
+        if (clients.size() < 2) {
+            report.println("Not enough clients connected, aborting");
+            shutdown(clients, server);
+            return;
+        }
+
+        List<Thread> senders = new ArrayList<>(clients.size());
+        for (MessageClient client : clients) {
+            senders.add(virtualThreads.newThread(() -> sendLoop(client, clients.size())));
+        }
+        senders.forEach(Thread::start);
+
+        report.printf("Warming up for %d s%n", options.warmupSeconds);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds));
+
+        recording = true;
+        long start = System.nanoTime();
+        long previousReceived = 0;
+        for (int second = 1; second <= options.durationSeconds; second++) {
+            Thread.sleep(1000);
+            long total = received.sum();
+            report.printf("[%3d s] delivered %8d msg/s, p99 %6d us%n",
+                    second, total - previousReceived, latencies.percentile(99));
+            previousReceived = total;
+        }
+        recording = false;
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        running = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        report(elapsedSeconds);
+        shutdown(clients, server);
+    }
+
+    private List<MessageClient> connectAll(String host) throws Exception {
+        List<Future<MessageClient>> pending = new ArrayList<>(options.clients);
+        try (ExecutorService connectors = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < options.clients; i++) {
+                String name = CLIENT_PREFIX + i;
+                pending.add(connectors.submit(() -> connect(host, name)));
+            }
+        }
+        List<MessageClient> clients = new ArrayList<>(pending.size());
+        for (Future<MessageClient> future : pending) {
+            MessageClient client = future.get();
+            if (client != null) {
+                clients.add(client);
+            }
+        }
+        return clients;
+    }
+
+    private MessageClient connect(String host, String name) {
+        MessageClient client = new MessageClient(host, options.port, name);
+        client.setThreadFactory(virtualThreads);
+        client.setMessageHandler(this::onMessage);
+        return client.connect() ? client : null;
+    }
+
+    private void sendLoop(MessageClient client, int clientCount) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long intervalNanos = (long) (1e9 / options.rate);
+        // Spread the clients over the first interval so they don't all fire together
+        long next = System.nanoTime() + random.nextLong(intervalNanos);
+        while (running && client.isConnected()) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            next += intervalNanos;
+
+            String destination = random.nextDouble() < options.broadcastRatio
+                    ? "ALL" : CLIENT_PREFIX + random.nextInt(clientCount);
+            if (options.async) {
+                client.sendMessageAsync(destination, System.nanoTime() + ":" + padding).whenComplete((ack, error) -> {
+                    if (error != null || !ack.isDelivered()) {
+                        sendFailures.increment();
+                    } else if (recording) {
+                        sent.increment();
+                    }
+                });
+            } else if (client.sendMessage(destination, System.nanoTime() + ":" + padding)) {
+                if (recording) {
+                    sent.increment();
+                }
+            } else {
+                sendFailures.increment();
+            }
+        }
+    }
+
+    private void onMessage(Message message) {
+        if (!recording || !message.getSender().startsWith(CLIENT_PREFIX)) {
+            return;
+        }
+        String content = message.getContent();
+        int separator = content.indexOf(':');
+        if (separator < 0) {
+            return;
+        }
+        long sentAt = Long.parseLong(content, 0, separator, 10);
+        latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt));
+        received.increment();
+    }
+
+    private void report(double elapsedSeconds) {
+        report.println();
+        report.printf("Clients            %d (%s engine)%n", options.clients,
+                options.host == null ? options.engine.name().toLowerCase() : "remote");
+        report.printf("Messages sent      %d (%.0f msg/s)%n", sent.sum(), sent.sum() / elapsedSeconds);
+        report.printf("Messages delivered %d (%.0f msg/s)%n", received.sum(), received.sum() / elapsedSeconds);
+        report.printf("Send failures      %d%n", sendFailures.sum());
+        report.printf("Latency p50        %d us%n", latencies.percentile(50));
+        report.printf("Latency p99        %d us%n", latencies.percentile(99));
+        report.printf("Latency p99.9      %d us%n", latencies.percentile(99.9));
+        report.printf("Latency max        %d us%n", latencies.getMax());
+    }
+
+    private void shutdown(List<MessageClient> clients, MessageServer server) {
+        clients.forEach(client -> client.disconnect("Load test finished"));
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    public static class Options {
+        private String host;
+        private int port = 9090;
+        private EngineType engine = EngineType.THREADED;
+        private int clients = 1000;
+        private double rate = 1;
+        private double broadcastRatio = 0.1;
+        private int size = 64;
+        private boolean async = false;
+        private int warmupSeconds = 5;
+        private int durationSeconds = 30;
+
+        public static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+                }
+                int separator = arg.indexOf('=');
+                values.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+
+            Options options = new Options();
+            options.host = values.remove("host");
+            options.port = Integer.parseInt(values.getOrDefault("port", String.valueOf(options.port)));
+            if (values.containsKey("engine")) {
+                options.engine = EngineType.valueOf(values.get("engine").trim().toUpperCase());
+            }
+            values.remove("engine");
+            options.clients = Integer.parseInt(values.getOrDefault("clients", String.valueOf(options.clients)));
+            options.rate = Double.parseDouble(values.getOrDefault("rate", String.valueOf(options.rate)));
+            options.broadcastRatio = Double.parseDouble(values.getOrDefault("broadcast", String.valueOf(options.broadcastRatio)));
+            options.size = Integer.parseInt(values.getOrDefault("size", String.valueOf(options.size)));
+            options.async = Boolean.parseBoolean(values.getOrDefault("async", String.valueOf(options.async)));
+            options.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", String.valueOf(options.warmupSeconds)));
+            options.durationSeconds = Integer.parseInt(values.getOrDefault("duration", String.valueOf(options.durationSeconds)));
+            values.keySet().removeAll(List.of("port", "clients", "rate", "broadcast", "size", "async", "warmup", "duration"));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options: " + values.keySet());
+            }
+            if (options.clients < 2 || options.rate <= 0 || options.broadcastRatio < 0 || options.broadcastRatio > 1) {
+                throw new IllegalArgumentException("Need at least 2 clients, a positive rate and a broadcast ratio in [0, 1]");
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.Message;
+
+import java.util.List;
+
+// A registered client as seen by MessageServer, independent of the engine that serves it
+public interface ClientConnection {
+    String getClientName();
+
+    void sendMessage(Message message);
+
+    void sendConnectionResponse(boolean success, String message, List<String> clients);
+
+    // Queues a frame that may be shared with other recipients
+    void sendFrame(EncodedFrame frame);
+
+    // Whether frames to and from this client may be compressed, as agreed at handshake
+    boolean isCompressionEnabled();
+
+    // Closes the connection from another thread, e.g. when another cluster node owns the name
+    void disconnect(String reason);
+
+    // Frames queued but not yet written to the socket
+    int getOutboundQueueDepth();
+
+    // Frames discarded because the outbound queue was full
+    long getDroppedFrames();
+
+    long getFramesWritten();
+
+    // Flushes or channel writes issued for those frames; lower than getFramesWritten() when batching
+    long getWriteCalls();
+}
@@ -2,108 +2,397 @@ package io.github.rivon0507.server;
 
 import io.github.rivon0507.common.ConnectionRequest;
 import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.DisconnectRequest;
+import io.github.rivon0507.common.FrameCompressor;
+import io.github.rivon0507.common.FrameReader;
+import io.github.rivon0507.common.FrameWriter;
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.Heartbeat;
+import io.github.rivon0507.common.HistoryRequest;
 import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.MessageAck;
+import io.github.rivon0507.common.RoomRequest;
+import io.github.rivon0507.common.RosterRequest;
+import io.github.rivon0507.common.WireCodec;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, ClientConnection {
     private final Socket clientSocket;
     private final MessageServer server;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    // Other clients' threads only enqueue; the writer thread is the only one touching the stream
+    private final OutboundQueue outbound;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Null when the connection was not admitted through a HandshakeGate
+    private final HandshakeGate.Handshake handshake;
+    private DataOutputStream out;
+    private FrameWriter frameWriter;
+    private DataInputStream in;
+    private FrameReader frameReader;
+    private WireCodec codec;
+    // Set at handshake when both sides agreed to compression, null otherwise
+    private volatile FrameCompressor compressor;
     private String clientName;
-    private boolean running = true;
+    private Thread writerThread;
+    private volatile boolean running = true;
+    // Messages read from the client and the sequence number last acknowledged; only the reading
+    // thread touches them
+    private long messagesReceived;
+    private long messagesAcknowledged;
+    // Records and counts the frames sent when the session can be resumed, null otherwise
+    private volatile SessionReplay replay;
+    // The client said goodbye or the server closed the session, so it is not kept for resuming
+    private volatile boolean sessionEnded;
+    // Null when flow control is off
+    private volatile CreditWindow credit;
+    // Set once registered, null when heartbeats are off
+    private volatile IdleWheel.Watch idleWatch;
 
     public ClientHandler(Socket socket, MessageServer server) {
+        this(socket, server, null);
+    }
+
+    ClientHandler(Socket socket, MessageServer server, HandshakeGate.Handshake handshake) {
         this.clientSocket = socket;
         this.server = server;
+        this.handshake = handshake;
+        ServerConfig config = server.getConfig();
+        // See ServerConfig.getResumeGraceMillis()
+        OverflowPolicy policy = config.getResumeGraceMillis() > 0 ? OverflowPolicy.DISCONNECT : config.getOverflowPolicy();
+        this.outbound = new OutboundQueue(config.getOutboundQueueCapacity(), policy,
+                config.getOverflowBlockTimeoutMillis(), server.getMetrics());
+        server.getMetrics().connectionOpened();
     }
 
     @Override
     public void run() {
         try {
             // Set up input and output streams
-            out = new ObjectOutputStream(clientSocket.getOutputStream());
-            in = new ObjectInputStream(clientSocket.getInputStream());
+            ServerMetrics metrics = server.getMetrics();
+            BufferedOutputStream buffered = new BufferedOutputStream(new MeteredOutputStream(clientSocket.getOutputStream(), metrics));
+            out = new DataOutputStream(buffered);
+            in = new DataInputStream(new BufferedInputStream(new MeteredInputStream(clientSocket.getInputStream(), metrics)));
+            frameReader = new FrameReader(in);
+            // Not through out, whose writes hold a monitor and would pin a virtual writer blocked
+            // on a client that stopped reading
+            frameWriter = new FrameWriter(buffered, server.getConfig().getMaxFlushDelayMicros() * 1000);
+
+            // The client opens with the id of the codec it will use for every frame
+            codec = WireCodec.forId(in.readByte());
+            if (codec == null) {
+                closeConnection("Unsupported codec");
+                return;
+            }
 
             // Read connection request with client name
-            Object request = in.readObject();
+            Object request = frameReader.read(codec, null);
             if (!(request instanceof ConnectionRequest)) {
                 closeConnection("Invalid connection request");
                 return;
             }
 
             // Process connection request
-            clientName = ((ConnectionRequest) request).getClientName();
-
-            // Check if name is already in use
-            if (!server.registerClient(clientName, this)) {
-                sendConnectionResponse(false, "Name already in use", server.getConnectedClients());
-                closeConnection("Name already in use");
+            ConnectionRequest connectionRequest = (ConnectionRequest) request;
+            clientName = connectionRequest.getClientName();
+            String invalidName = MessageServer.invalidNameReason(clientName);
+            if (invalidName != null) {
+                server.getMetrics().handshakeRejected();
+                Frames.write(out, codec.encode(new ConnectionResponse(false, invalidName, server.getConnectedClients())));
+                out.flush();
+                closeConnection(invalidName);
                 return;
             }
+            ServerConfig config = server.getConfig();
+            if (connectionRequest.isCompression() && config.isCompression()) {
+                compressor = new FrameCompressor(config.getCompressionThreshold());
+            }
+
+            credit = server.openCredit(this::enqueue);
+            if (credit != null) {
+                credit.open();
+            }
 
-            // Send success response with connected clients list
-            sendConnectionResponse(true, "Connected successfully", server.getConnectedClients());
+            // A returning client picks up its session without a roster snapshot or a join notice
+            boolean resumed = resumeSession(connectionRequest);
+            if (!resumed) {
+                replay = server.openSession(clientName, this, this::enqueue);
+                // Check if name is already in use
+                if (!server.registerClient(clientName, this, replay)) {
+                    replay = null;
+                    // Not registered, so nothing else writes to this client: answer directly
+                    Frames.write(out, codec.encode(new ConnectionResponse(false, "Name already in use", server.getConnectedClients())));
+                    out.flush();
+                    closeConnection("Name already in use");
+                    return;
+                }
+            }
+            finishHandshake();
+            startWriter();
 
-            // Announce new client to all clients
-            server.broadcast(new Message("SERVER", "ALL", clientName + " has joined the chat."), null);
+            if (!resumed) {
+                // Send success response with a versioned snapshot of the connected clients
+                server.sendRoster(this, "Connected successfully");
+            }
+            server.deliverBacklog(this);
+
+            if (!resumed) {
+                // Announce new client to all clients
+                server.broadcast(new Message("SERVER", "ALL", clientName + " has joined the chat."), null);
+            }
+            watchIdle();
 
             // Handle incoming messages
+            CreditWindow credit = this.credit;
+            IdleWheel.Watch idleWatch = this.idleWatch;
+            // Messages routed since this thread last gave way
+            int routed = 0;
             while (running) {
-                Object received = in.readObject();
+                // A client out of credit is not read from until the recipients catch up, which
+                // says nothing about whether it is still there
+                if (credit != null && !credit.hasCredit()) {
+                    if (idleWatch != null) {
+                        idleWatch.hold();
+                    }
+                    if (!credit.awaitCredit()) {
+                        break;
+                    }
+                    if (idleWatch != null) {
+                        idleWatch.release();
+                    }
+                }
+                Object received = frameReader.read(codec, compressor);
+                if (idleWatch != null) {
+                    idleWatch.touch();
+                }
                 if (received instanceof Message) {
                     Message message = (Message) received;
-                    server.handleMessage(message);
+                    MessageAck.Status status = server.handleMessage(this, message, credit);
+                    messagesReceived++;
+                    routed++;
+                    if (credit != null) {
+                        credit.messageReceived();
+                    }
+                    if (status != MessageAck.Status.DELIVERED) {
+                        acknowledge(status);
+                    }
+                } else if (received instanceof RosterRequest) {
+                    server.sendRoster(this, "Client list");
+                } else if (received instanceof HistoryRequest historyRequest) {
+                    server.requestHistory(this, historyRequest);
+                } else if (received instanceof RoomRequest roomRequest) {
+                    if (roomRequest.isJoin()) {
+                        server.joinRoom(this, roomRequest.getRoom());
+                    } else {
+                        server.leaveRoom(this, roomRequest.getRoom());
+                    }
+                } else if (received instanceof Heartbeat heartbeat) {
+                    if (!heartbeat.isReply()) {
+                        enqueue(MessageServer.HEARTBEAT_REPLY);
+                    }
+                } else if (received instanceof DisconnectRequest) {
+                    sessionEnded = true;
+                    break;
+                }
+                // Delivered messages are acknowledged, and credit extended, together once no more
+                // frames are waiting or the client has to wait for credit
+                boolean batchEnd = in.available() == 0 || (credit != null && !credit.hasCredit());
+                if (messagesAcknowledged < messagesReceived && batchEnd) {
+                    acknowledge(MessageAck.Status.DELIVERED);
+                }
+                if (credit != null && batchEnd) {
+                    credit.replenish();
+                }
+                // A client with more queued up lets the other senders route theirs first; virtual
+                // threads are never preempted, so without this one would hold its carrier
+                if (batchEnd) {
+                    routed = 0;
+                } else if (routed >= MessageServer.ROUTING_QUANTUM) {
+                    routed = 0;
+                    Thread.yield();
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Error handling client: " + e.getMessage());
+        } catch (IOException e) {
+            ServerLog.error("Error handling client: " + e.getMessage());
+        } catch (InterruptedException e) {
+            // Closed while waiting for credit
         } finally {
-            server.removeClient(clientName);
-            server.broadcast(new Message("SERVER", "ALL", clientName + " has left the chat."), null);
             closeConnection("Client disconnected");
+            server.clientDisconnected(this, replay, sessionEnded);
+        }
+    }
+
+    // The frames the server sent since the client's count are queued before the writer starts
+    private boolean resumeSession(ConnectionRequest request) {
+        SessionReplay session = server.findSession(request);
+        if (session == null) {
+            return false;
+        }
+        // Set first so frames routed to the client during the handover are counted
+        replay = session;
+        if (server.resumeClient(this, session, request.getFramesReceived(), this::enqueue)) {
+            return true;
         }
+        replay = null;
+        return false;
     }
 
+    // Acknowledges the last message read, and with it every earlier one not acknowledged yet.
+    // Acknowledgements belong to the connection, so a resumed session neither counts nor resends
+    // them.
+    private void acknowledge(MessageAck.Status status) {
+        enqueue(new EncodedFrame(new MessageAck(messagesReceived, status)));
+        messagesAcknowledged = messagesReceived;
+    }
+
+    @Override
     public void sendMessage(Message message) {
+        sendFrame(new EncodedFrame(message));
+    }
+
+    @Override
+    public void sendConnectionResponse(boolean success, String message, List<String> clients) {
+        sendFrame(new EncodedFrame(new ConnectionResponse(success, message, clients)));
+    }
+
+    @Override
+    public void sendFrame(EncodedFrame encodedFrame) {
+        SessionReplay replay = this.replay;
+        if (replay != null) {
+            replay.send(encodedFrame);
+        } else {
+            enqueue(encodedFrame);
+        }
+    }
+
+    private void enqueue(EncodedFrame encodedFrame) {
+        if (!running || codec == null) {
+            return;
+        }
+        ByteBuffer frame;
         try {
-            if (out != null) {
-                out.writeObject(message);
-                out.flush();
-            }
+            frame = encodedFrame.bufferFor(codec, compressor);
         } catch (IOException e) {
-            System.out.println("Error sending message to " + clientName + ": " + e.getMessage());
-            closeConnection("Error sending message");
+            ServerLog.error("Error sending message to " + clientName + ": " + e.getMessage());
+            return;
+        }
+        if (!outbound.offer(frame)) {
+            closeConnection("Outbound queue full");
         }
     }
 
-    public void sendConnectionResponse(boolean success, String message, List<String> clients) {
+    // Drains the outbound queue on a thread of the same kind (platform or virtual) as the reader
+    private void startWriter() {
+        Thread.Builder builder = Thread.currentThread().isVirtual() ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+        writerThread = builder.name("writer-" + clientName).start(this::writeLoop);
+    }
+
+    private void writeLoop() {
         try {
-            out.writeObject(new ConnectionResponse(success, message, clients));
-            out.flush();
+            while (running) {
+                // Everything queued behind the first frame goes out with the same flush
+                frameWriter.writeBatch(outbound.take(), outbound::poll);
+                server.outboundWritten(this);
+                if (outbound.size() == 0) {
+                    server.deliverBacklog(this);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Connection closed
         } catch (IOException e) {
-            System.out.println("Error sending connection response: " + e.getMessage());
+            if (running) {
+                ServerLog.error("Error sending message to " + clientName + ": " + e.getMessage());
+                closeConnection("Error sending message");
+            }
+        }
+    }
+
+    @Override
+    public void disconnect(String reason) {
+        // The reader thread then fails on the closed socket and unregisters the client
+        sessionEnded = true;
+        closeConnection(reason);
+    }
+
+    // A silent client is sent heartbeats and, when it does not answer, dropped like a broken
+    // connection: the reader thread then fails on the closed socket
+    private void watchIdle() {
+        idleWatch = server.watchIdle(() -> enqueue(MessageServer.HEARTBEAT_PROBE),
+                () -> closeConnection("No heartbeat from client"));
+        // Closed by another thread meanwhile
+        if (idleWatch != null && closed.get()) {
+            idleWatch.cancel();
+        }
+    }
+
+    // Registered, resumed or closed: the connection no longer counts against the handshake limit
+    private void finishHandshake() {
+        if (handshake != null) {
+            handshake.done();
         }
     }
 
     private void closeConnection(String reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
         running = false;
+        server.getMetrics().connectionClosed();
+        finishHandshake();
+        if (idleWatch != null) {
+            idleWatch.cancel();
+        }
+        if (credit != null) {
+            credit.close();
+        }
+        if (writerThread != null) {
+            writerThread.interrupt();
+        }
+        outbound.clear();
         try {
             if (in != null) in.close();
             if (out != null) out.close();
             if (clientSocket != null && !clientSocket.isClosed()) clientSocket.close();
         } catch (IOException e) {
-            System.out.println("Error closing connection: " + e.getMessage());
+            ServerLog.error("Error closing connection: " + e.getMessage());
         }
-        System.out.println("Connection closed with " + clientName + ": " + reason);
+        ServerLog.info("Connection closed with " + clientName + ": " + reason);
+    }
+
+    @Override
+    public boolean isCompressionEnabled() {
+        return compressor != null;
     }
 
+    @Override
     public String getClientName() {
         return clientName;
     }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return outbound.size();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return outbound.getDropped();
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return frameWriter != null ? frameWriter.getFramesWritten() : 0;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return frameWriter != null ? frameWriter.getFlushes() : 0;
+    }
 }
@@ -0,0 +1,6 @@
+package io.github.rivon0507.server;
+
+// Outbound queue of one client at the time it was read, as listed by
+// ServerMetricsMXBean.getDeepestOutboundQueues() to point at slow consumers
+public record ClientQueueStats(String clientName, int outboundQueueDepth, long droppedFrames) {
+}
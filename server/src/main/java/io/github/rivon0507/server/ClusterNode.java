@@ -0,0 +1,435 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.NameClaim;
+import io.github.rivon0507.common.NameClaimReply;
+import io.github.rivon0507.common.PresenceUpdate;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cluster mode of a MessageServer: links to the other nodes, the roster of names owned by them and
+ * the claims that keep a name unique across the cluster.
+ * <p>
+ * Every node links to every other one. A new link starts with a snapshot of the names registered
+ * on each side and then carries every local join and leave; both are sent under the server's
+ * roster lock, so a peer sees them in the order they happened. Before a client is registered its
+ * name is claimed: every linked node must grant it, and a grant reserves the name for the claiming
+ * node for a few seconds so no other node can take it meanwhile. Should two nodes still end up
+ * with the same name, the node with the lower id keeps it.
+ * <p>
+ * Links are only kept with nodes that prove they hold the cluster secret (see PeerLink), and
+ * accepted only from the allowed hosts when the configuration lists them.
+ */
+class ClusterNode {
+    private static final long REDIAL_MILLIS = 2000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long CLAIM_TIMEOUT_MILLIS = 2000;
+    private static final long HOLD_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final MessageServer server;
+    private final ServerConfig config;
+    private final String nodeId;
+    // The server's roster lock, guarding local registrations as well as the remote roster
+    private final ReentrantLock rosterLock;
+    private final PresenceTracker presence;
+    private final List<InetSocketAddress> peers = new ArrayList<>();
+    // Resolved from the configured allowed hosts at start; empty lets any host link
+    private final Set<InetAddress> allowedHosts = new HashSet<>();
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final Map<String, String> remoteOwners = new ConcurrentHashMap<>();
+    // Names reserved by a claim in progress, either this node's own or one granted to a peer
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    private final Map<Long, Claim> claims = new ConcurrentHashMap<>();
+    private final AtomicLong claimIds = new AtomicLong();
+    // Node id learned behind each configured address, so the dialer leaves linked nodes alone
+    private final Map<InetSocketAddress, String> dialedNodes = new ConcurrentHashMap<>();
+    // Only touched by the dialer thread
+    private final Map<InetSocketAddress, PeerLink> dialing = new HashMap<>();
+    private long presenceVersion;
+    private ServerSocket serverSocket;
+    private Thread dialer;
+    private volatile boolean running = false;
+
+    ClusterNode(MessageServer server, String nodeId, ReentrantLock rosterLock, PresenceTracker presence) {
+        this.server = server;
+        this.config = server.getConfig();
+        this.nodeId = nodeId;
+        this.rosterLock = rosterLock;
+        this.presence = presence;
+        for (String peer : config.getPeers()) {
+            int colon = peer.lastIndexOf(':');
+            peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+    }
+
+    void start() throws IOException {
+        for (String host : config.getClusterAllowedHosts()) {
+            allowedHosts.addAll(List.of(InetAddress.getAllByName(host)));
+        }
+        InetAddress bindAddress = config.getClusterBindAddress() != null ? InetAddress.getByName(config.getClusterBindAddress()) : null;
+        serverSocket = new ServerSocket(config.getClusterPort(), 50, bindAddress);
+        running = true;
+        Thread.ofPlatform().daemon().name("cluster-acceptor-" + nodeId).start(this::acceptLoop);
+        dialer = Thread.ofPlatform().daemon().name("cluster-dialer-" + nodeId).start(this::dialLoop);
+        ServerLog.info("Cluster node " + nodeId + " listening on " + serverSocket.getLocalSocketAddress()
+                + (peers.isEmpty() ? "" : ", peers " + config.getPeers()));
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error stopping cluster listener: " + e.getMessage());
+        }
+        if (dialer != null) {
+            dialer.interrupt();
+        }
+        for (PeerLink link : links.values()) {
+            link.close("Server stopped");
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!allowedHosts.isEmpty() && !allowedHosts.contains(socket.getInetAddress())) {
+                    ServerLog.error("Cluster link from " + socket.getRemoteSocketAddress() + " rejected: host not allowed");
+                    socket.close();
+                    continue;
+                }
+                PeerLink link = new PeerLink(socket, this, null, config, server.getMetrics());
+                Thread.ofVirtual().name("peer-" + socket.getRemoteSocketAddress()).start(link::run);
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error("Error accepting cluster link: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Keeps a link open to every configured peer, retrying the unreachable ones
+    private void dialLoop() {
+        try {
+            while (running) {
+                for (InetSocketAddress address : peers) {
+                    dial(address);
+                }
+                Thread.sleep(REDIAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // Server stopped
+        }
+    }
+
+    private void dial(InetSocketAddress address) {
+        PeerLink current = dialing.get(address);
+        String known = dialedNodes.get(address);
+        // Also skips an address that turned out to be this node itself
+        if ((current != null && !current.isClosed()) || (known != null && (known.equals(nodeId) || links.containsKey(known)))) {
+            return;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Never connected
+            }
+            return;
+        }
+        PeerLink link = new PeerLink(socket, this, address, config, server.getMetrics());
+        dialing.put(address, link);
+        Thread.ofVirtual().name("peer-" + address).start(link::run);
+    }
+
+    // Called by a link once the other node has introduced itself; false closes the link
+    boolean linkEstablished(PeerLink link) {
+        String remote = link.getNodeId();
+        if (remote.equals(nodeId)) {
+            ServerLog.error("Cluster link rejected: the other end also has node id " + nodeId);
+            return false;
+        }
+        if (link.isDialed()) {
+            dialedNodes.put(link.getDialedAddress(), remote);
+        }
+        PeerLink replaced;
+        rosterLock.lock();
+        try {
+            replaced = links.get(remote);
+            // When both nodes dialed each other, both keep the link dialed by the lower node id
+            if (replaced != null && !replaced.isClosed() && !preferred(link) && preferred(replaced)) {
+                return false;
+            }
+            links.put(remote, link);
+            link.send(new EncodedFrame(new ConnectionResponse(true, nodeId, server.getLocalClientNames(), presenceVersion, false)));
+        } finally {
+            rosterLock.unlock();
+        }
+        if (replaced != null) {
+            replaced.close("Replaced by a new link");
+        }
+        ServerLog.info("Cluster link to " + remote + " established");
+        return true;
+    }
+
+    private boolean preferred(PeerLink link) {
+        String initiator = link.isDialed() ? nodeId : link.getNodeId();
+        return initiator.compareTo(nodeId) <= 0 && initiator.compareTo(link.getNodeId()) <= 0;
+    }
+
+    void linkClosed(PeerLink link) {
+        String remote = link.getNodeId();
+        rosterLock.lock();
+        try {
+            if (!links.remove(remote, link)) {
+                return;
+            }
+            // Its clients are unreachable until the link is back and sends a new snapshot
+            for (Map.Entry<String, String> entry : remoteOwners.entrySet()) {
+                if (entry.getValue().equals(remote)) {
+                    removeOwner(entry.getKey(), remote);
+                }
+            }
+        } finally {
+            rosterLock.unlock();
+        }
+        holds.values().removeIf(hold -> hold.nodeId().equals(remote));
+        for (Claim claim : claims.values()) {
+            claim.reply(remote, true);
+        }
+    }
+
+    void handleFrame(PeerLink link, Object frame) {
+        String remote = link.getNodeId();
+        switch (frame) {
+            case Message message -> server.deliverForwarded(message);
+            case PresenceUpdate update -> applyPresence(remote, update.getJoined(), update.getLeft(), false);
+            case ConnectionResponse snapshot -> applyPresence(remote, snapshot.getConnectedClients(), List.of(), true);
+            case NameClaim claim -> link.send(new EncodedFrame(new NameClaimReply(claim.getClaimId(), grant(remote, claim.getName()))));
+            case NameClaimReply reply -> {
+                Claim claim = claims.get(reply.getClaimId());
+                if (claim != null) {
+                    claim.reply(remote, reply.isGranted());
+                }
+            }
+            default -> ServerLog.error("Unexpected frame from node " + remote + ": " + frame.getClass().getSimpleName());
+        }
+    }
+
+    private void applyPresence(String remote, List<String> joined, List<String> left, boolean snapshot) {
+        List<ClientConnection> conflicts = new ArrayList<>();
+        rosterLock.lock();
+        try {
+            if (snapshot) {
+                // Names left over from an earlier link to the same node
+                Set<String> current = new HashSet<>(joined);
+                for (Map.Entry<String, String> entry : remoteOwners.entrySet()) {
+                    if (entry.getValue().equals(remote) && !current.contains(entry.getKey())) {
+                        removeOwner(entry.getKey(), remote);
+                    }
+                }
+            }
+            for (String name : left) {
+                removeOwner(name, remote);
+            }
+            for (String name : joined) {
+                holds.computeIfPresent(name, (_, hold) -> hold.nodeId().equals(remote) ? null : hold);
+                ClientConnection local = server.getLocalClient(name);
+                if (local != null) {
+                    // Registered on both nodes despite the claims, e.g. across a broken link
+                    if (remote.compareTo(nodeId) > 0) {
+                        continue;
+                    }
+                    conflicts.add(local);
+                }
+                if (remoteOwners.put(name, remote) == null && local == null) {
+                    presence.joined(name, 0);
+                }
+            }
+        } finally {
+            rosterLock.unlock();
+        }
+        for (ClientConnection local : conflicts) {
+            ServerLog.info("Disconnecting " + local.getClientName() + ": name also registered on node " + remote);
+            local.disconnect("Name registered on node " + remote);
+        }
+    }
+
+    // Called under the roster lock
+    private void removeOwner(String name, String remote) {
+        if (remoteOwners.remove(name, remote) && server.getLocalClient(name) == null) {
+            presence.left(name);
+        }
+    }
+
+    private boolean grant(String remote, String name) {
+        String owner = remoteOwners.get(name);
+        if (server.getLocalClient(name) != null || (owner != null && !owner.equals(remote))) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Hold granted = new Hold(remote, now + HOLD_NANOS);
+        return holds.compute(name, (_, hold) ->
+                hold == null || hold.expired(now) || hold.nodeId().equals(remote) ? granted : hold) == granted;
+    }
+
+    /**
+     * Reserves a name for a client about to register on this node. Blocks until every linked node
+     * has answered, for at most a couple of seconds, so it must not run on an event loop. A claim
+     * that succeeds must be followed by {@link #joined} or {@link #release}.
+     */
+    boolean claim(String name) {
+        if (remoteOwners.containsKey(name) || server.getLocalClient(name) != null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Hold own = new Hold(nodeId, now + HOLD_NANOS);
+        if (holds.compute(name, (_, hold) -> hold == null || hold.expired(now) ? own : hold) != own) {
+            return false;
+        }
+
+        List<PeerLink> targets = new ArrayList<>();
+        for (PeerLink link : links.values()) {
+            if (!link.isClosed()) {
+                targets.add(link);
+            }
+        }
+        Claim claim = new Claim(claimIds.incrementAndGet(), targets);
+        claims.put(claim.id, claim);
+        boolean granted;
+        try {
+            EncodedFrame frame = new EncodedFrame(new NameClaim(claim.id, name));
+            for (PeerLink link : targets) {
+                link.send(frame);
+            }
+            granted = claim.await(CLAIM_TIMEOUT_MILLIS) && !remoteOwners.containsKey(name);
+        } finally {
+            claims.remove(claim.id);
+        }
+        if (!granted) {
+            release(name);
+        }
+        return granted;
+    }
+
+    void release(String name) {
+        holds.computeIfPresent(name, (_, hold) -> hold.nodeId().equals(nodeId) ? null : hold);
+    }
+
+    // Called under the roster lock once the claimed name is registered locally
+    void joined(String name) {
+        release(name);
+        publish(new PresenceUpdate(++presenceVersion, List.of(name), List.of()));
+    }
+
+    // Called under the roster lock
+    void left(String name) {
+        publish(new PresenceUpdate(++presenceVersion, List.of(), List.of(name)));
+    }
+
+    private void publish(PresenceUpdate update) {
+        EncodedFrame frame = new EncodedFrame(update);
+        for (PeerLink link : links.values()) {
+            link.send(frame);
+        }
+    }
+
+    // Sends a private message to the node its recipient is registered on; false when none is
+    boolean forward(Message message) {
+        String owner = remoteOwners.get(message.getDestination());
+        PeerLink link = owner != null ? links.get(owner) : null;
+        if (link == null) {
+            return false;
+        }
+        link.send(new EncodedFrame(message));
+        server.getMetrics().messageForwarded();
+        return true;
+    }
+
+    // Hands a broadcast to every other node once; each fans it out to its own clients
+    void broadcast(EncodedFrame frame) {
+        for (PeerLink link : links.values()) {
+            link.send(frame);
+            server.getMetrics().messageForwarded();
+        }
+    }
+
+    boolean isRemote(String name) {
+        return remoteOwners.containsKey(name);
+    }
+
+    // Live view of the names registered on other nodes
+    Set<String> getRemoteClients() {
+        return remoteOwners.keySet();
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    private record Hold(String nodeId, long expiresAt) {
+        boolean expired(long now) {
+            return now - expiresAt > 0;
+        }
+    }
+
+    // Answers still expected for one claim; a node that goes away counts as granting it
+    private static final class Claim {
+        private final long id;
+        private final Set<String> pending = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean denied = false;
+
+        Claim(long id, List<PeerLink> targets) {
+            this.id = id;
+            for (PeerLink link : targets) {
+                pending.add(link.getNodeId());
+            }
+        }
+
+        void reply(String node, boolean granted) {
+            if (!granted) {
+                denied = true;
+            }
+            if (pending.remove(node) && (denied || pending.isEmpty())) {
+                done.countDown();
+            }
+        }
+
+        boolean await(long timeoutMillis) {
+            try {
+                return (pending.isEmpty() || done.await(timeoutMillis, TimeUnit.MILLISECONDS)) && !denied;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.FlowCredit;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// The credit of one connection: the client may send messages up to the granted limit, which moves
+// a window ahead once half of it is used, but not while a recipient of the client's messages is
+// backed up (see FlowControl). The connection stops reading from a client out of credit, so a
+// client ignoring its limit only stalls itself.
+class CreditWindow {
+    private final int window;
+    // Queues a grant on the connection; grants belong to it and are never replayed
+    private final Consumer<EncodedFrame> grants;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition granted = lock.newCondition();
+    // Guarded by lock, like the fields below
+    private long received;
+    private long limit;
+    // Backed up recipients this client waits on
+    private int stalls;
+    private boolean closed;
+
+    CreditWindow(int window, Consumer<EncodedFrame> grants) {
+        this.window = window;
+        this.grants = grants;
+        this.limit = window;
+    }
+
+    // The first grant, queued before the handshake response so the client has it before sending
+    void open() {
+        grants.accept(new EncodedFrame(new FlowCredit(window)));
+    }
+
+    void messageReceived() {
+        lock.lock();
+        try {
+            received++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasCredit() {
+        lock.lock();
+        try {
+            return received < limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Extends the limit once half the window is used and no recipient is backed up. Called after
+    // each batch of frames read and whenever a recipient catches up.
+    void replenish() {
+        long newLimit;
+        lock.lock();
+        try {
+            if (closed || stalls > 0 || limit - received > window / 2) {
+                return;
+            }
+            newLimit = received + window;
+            limit = newLimit;
+            granted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        grants.accept(new EncodedFrame(new FlowCredit(newLimit)));
+    }
+
+    void stall() {
+        lock.lock();
+        try {
+            stalls++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unstall() {
+        lock.lock();
+        try {
+            stalls--;
+        } finally {
+            lock.unlock();
+        }
+        replenish();
+    }
+
+    // Blocks a reading thread while the client is out of credit; false once the connection closed
+    boolean awaitCredit() throws InterruptedException {
+        lock.lock();
+        try {
+            while (received >= limit && !closed) {
+                granted.await();
+            }
+            return !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            granted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.FrameCompressor;
+import io.github.rivon0507.common.WireCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// A frame addressed to many connections, encoded at most once per codec and compressed at most
+// once per codec. Recipients get read-only views of the same bytes, so fan-out costs only the writes.
+public final class EncodedFrame {
+    private final Object object;
+    private volatile Encoding encodings;
+
+    public EncodedFrame(Object object) {
+        this.object = object;
+    }
+
+    public Object getObject() {
+        return object;
+    }
+
+    public ByteBuffer bufferFor(WireCodec codec) throws IOException {
+        return bufferFor(codec, null);
+    }
+
+    // Each call returns an independent view; the underlying bytes are shared and never modified.
+    // A null compressor means the connection did not negotiate compression.
+    public ByteBuffer bufferFor(WireCodec codec, FrameCompressor compressor) throws IOException {
+        boolean compressed = compressor != null;
+        ByteBuffer plain = null;
+        for (Encoding encoding = encodings; encoding != null; encoding = encoding.next()) {
+            if (encoding.codec() == codec) {
+                if (encoding.compressed() == compressed) {
+                    return encoding.buffer().asReadOnlyBuffer();
+                }
+                if (!encoding.compressed()) {
+                    plain = encoding.buffer();
+                }
+            }
+        }
+        if (plain == null) {
+            plain = codec.encode(object);
+            if (compressed) {
+                encodings = new Encoding(codec, false, plain, encodings);
+            }
+        }
+        // The compressor hands back the plain frame when compression would not pay off
+        ByteBuffer buffer = compressed ? compressor.compress(plain) : plain;
+        // Racing encoders may overwrite each other's entry; that only costs a redundant encode
+        encodings = new Encoding(codec, compressed, buffer, encodings);
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private record Encoding(WireCodec codec, boolean compressed, ByteBuffer buffer, Encoding next) {
+    }
+}
@@ -0,0 +1,10 @@
+package io.github.rivon0507.server;
+
+public enum EngineType {
+    // One blocking ClientHandler per connection on a cached thread pool
+    THREADED,
+    // One blocking ClientHandler per connection, each on its own virtual thread
+    VIRTUAL,
+    // A few selector event loops multiplexing all connections
+    NIO
+}
@@ -0,0 +1,105 @@
+package io.github.rivon0507.server;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Which senders wait for which recipients. A sender whose message leaves a recipient's outbound
+// queue over half full gets no more credit until that queue is back under a quarter full or the
+// recipient is gone; the hysteresis keeps a busy recipient from flapping its senders. A recipient
+// still backed up after the stall timeout has stopped reading: it no longer holds anyone back
+// until it catches up, and its overflow policy applies meanwhile.
+class FlowControl {
+    private final int highWater;
+    private final int lowWater;
+    private final long stallTimeoutMillis;
+    private final ServerMetrics metrics;
+    // The sets are only touched inside compute() and after remove(), so the map's locking covers them
+    private final Map<ClientConnection, Set<CreditWindow>> waiting = new ConcurrentHashMap<>();
+    private final Set<ClientConnection> stuck = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "credit-stalls");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    FlowControl(int outboundQueueCapacity, long stallTimeoutMillis, ServerMetrics metrics) {
+        this.highWater = Math.max(1, outboundQueueCapacity / 2);
+        this.lowWater = outboundQueueCapacity / 4;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.metrics = metrics;
+    }
+
+    // After a message of the sender was queued for the recipient
+    void queued(ClientConnection recipient, CreditWindow sender) {
+        if (recipient.getOutboundQueueDepth() < highWater || stuck.contains(recipient)) {
+            return;
+        }
+        boolean[] added = new boolean[1];
+        Set<CreditWindow> created = new HashSet<>();
+        Set<CreditWindow> current = waiting.compute(recipient, (_, senders) -> {
+            senders = senders != null ? senders : created;
+            added[0] = senders.add(sender);
+            return senders;
+        });
+        if (!added[0]) {
+            return;
+        }
+        sender.stall();
+        metrics.creditStalled();
+        if (current == created) {
+            try {
+                scheduler.schedule(() -> timedOut(recipient, created), stallTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                release(recipient);
+                return;
+            }
+        }
+        // The recipient may have caught up before the sender was added
+        written(recipient);
+    }
+
+    // After the recipient wrote a batch of frames
+    void written(ClientConnection recipient) {
+        if (recipient.getOutboundQueueDepth() > lowWater) {
+            return;
+        }
+        stuck.remove(recipient);
+        if (waiting.containsKey(recipient)) {
+            release(recipient);
+        }
+    }
+
+    // Releases the senders waiting on a recipient that is gone
+    void removed(ClientConnection recipient) {
+        stuck.remove(recipient);
+        release(recipient);
+    }
+
+    // Only the senders of the stall that timed out; one started since has its own timeout
+    private void timedOut(ClientConnection recipient, Set<CreditWindow> senders) {
+        if (!waiting.remove(recipient, senders)) {
+            return;
+        }
+        stuck.add(recipient);
+        ServerLog.info("Client " + recipient.getClientName() + " is not keeping up, its senders are no longer held back");
+        senders.forEach(CreditWindow::unstall);
+    }
+
+    private void release(ClientConnection recipient) {
+        Set<CreditWindow> senders = waiting.remove(recipient);
+        if (senders != null) {
+            senders.forEach(CreditWindow::unstall);
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
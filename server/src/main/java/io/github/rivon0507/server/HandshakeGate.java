@@ -0,0 +1,87 @@
+package io.github.rivon0507.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bounds the connections still in their handshake and gives each a deadline. Past the bound a new
+// connection is refused as soon as it is accepted, and one that does not finish its handshake in
+// time, e.g. a half-open connection that never sends anything, is closed. A reconnect storm is
+// then shed at the door instead of holding a thread or a buffer per connection indefinitely.
+class HandshakeGate {
+    private final int maxPending;
+    private final long timeoutMillis;
+    private final ServerMetrics metrics;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "handshake-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    HandshakeGate(int maxPending, long timeoutMillis, ServerMetrics metrics) {
+        this.maxPending = maxPending;
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = metrics;
+    }
+
+    // Null when too many handshakes are in progress; the caller then closes the connection
+    Handshake admit() {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            metrics.connectionRefused();
+            return null;
+        }
+        return new Handshake();
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // The handshake of one admitted connection. Its slot is given back once, by whichever comes
+    // first of done() and the deadline.
+    class Handshake {
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile ScheduledFuture<?> deadline;
+
+        // expired runs, on the deadline thread, unless done() is called in time
+        void startDeadline(Runnable expired) {
+            try {
+                deadline = scheduler.schedule(() -> {
+                    if (finish()) {
+                        metrics.handshakeTimedOut();
+                        expired.run();
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        // Called once the client is registered, or when the connection closes before that;
+        // false when the deadline passed first
+        boolean done() {
+            if (!finish()) {
+                return false;
+            }
+            ScheduledFuture<?> deadline = this.deadline;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            return true;
+        }
+
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            return true;
+        }
+    }
+}
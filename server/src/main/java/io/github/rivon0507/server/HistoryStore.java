@@ -0,0 +1,397 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.WireCodec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Message history with one index per conversation: each pair of clients, plus the broadcast
+ * channel.
+ * <p>
+ * Messages are appended to segment files as binary-encoded frames. Each conversation keeps the
+ * file positions of its messages, and a message's offset is its index in that list. The latest
+ * messages of recently used conversations are also kept in memory, so scrollback near the tail is
+ * served without I/O; the least recently used tails are evicted beyond the configured number of
+ * conversations. Older pages are read from disk in offset order, which is also file order.
+ * <p>
+ * The indexes are rebuilt by scanning the segments at startup. Once the segments exceed the
+ * retained bytes, the oldest is deleted along with the index entries pointing into it, so the
+ * files and the indexes stay bounded; a conversation keeps its offsets, starting later.
+ */
+public class HistoryStore {
+    public static final int MAX_PAGE = 200;
+    // Messages kept in memory per cached conversation
+    private static final int TAIL_MESSAGES = 256;
+    private static final String SUFFIX = ".history";
+
+    private final Path directory;
+    private final int segmentSize;
+    // Including the active one, never fewer than two
+    private final int maxSegments;
+    // A ReentrantLock rather than synchronized, which would pin the carrier of a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private final Map<String, Tail> tails;
+    // Read without the lock: segments are only ever added, and records never change once written
+    private final Map<Long, FileChannel> segments = new ConcurrentHashMap<>();
+    private long activeId = -1;
+    private FileChannel active;
+    private long activeSize;
+    private boolean closed;
+
+    public HistoryStore(Path directory, int segmentSize, int cachedConversations, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.clamp(maxBytes / segmentSize, 2, Integer.MAX_VALUE);
+        this.tails = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tail> eldest) {
+                return size() > cachedConversations;
+            }
+        };
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    // The same key for both participants; the broadcast channel and each room have their own
+    public static String conversationKey(String client, String peer) {
+        if ("ALL".equals(peer) || Message.isRoomName(peer)) {
+            return peer;
+        }
+        return client.compareTo(peer) < 0 ? client + '\0' + peer : peer + '\0' + client;
+    }
+
+    private static String conversationKey(Message message) {
+        return conversationKey(message.getSender(), message.getDestination());
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(id, channel);
+            activeId = id;
+            active = channel;
+            activeSize = scan(id, channel);
+        }
+        if (active == null) {
+            roll();
+        }
+        expire();
+    }
+
+    // Indexes every complete record of a segment and returns the length of that valid prefix
+    private long scan(long id, FileChannel channel) throws IOException {
+        long position = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 64 * 1024));
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < 0 || length > Frames.MAX_FRAME_LENGTH) {
+                    throw new StreamCorruptedException("Invalid record length " + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (WireCodec.BINARY.decode(ByteBuffer.wrap(payload)) instanceof Message message) {
+                    conversations.computeIfAbsent(conversationKey(message), _ -> new Conversation()).add(pack(id, position));
+                }
+                position += Frames.HEADER_LENGTH + length;
+            }
+        } catch (EOFException e) {
+            // End of the segment, or a record torn by a crash
+        } catch (IOException e) {
+            ServerLog.error("History segment " + id + " is corrupt at " + position + ", ignoring the rest: " + e.getMessage());
+        }
+        if (position < channel.size()) {
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    public void record(Message message) throws IOException {
+        ByteBuffer frame = WireCodec.BINARY.encode(message);
+        String key = conversationKey(message);
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (activeSize > 0 && activeSize + frame.remaining() > segmentSize) {
+                roll();
+            }
+            long position = activeSize;
+            while (frame.hasRemaining()) {
+                activeSize += active.write(frame, activeSize);
+            }
+            Conversation conversation = conversations.computeIfAbsent(key, _ -> new Conversation());
+            conversation.add(pack(activeId, position));
+            // A conversation being written to is a hot one
+            Tail tail = tails.get(key);
+            if (tail == null) {
+                tails.put(key, new Tail(conversation.count() - 1, List.of(message)));
+            } else {
+                tail.add(message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns up to limit messages of a conversation whose offsets are below beforeOffset, oldest
+     * first, together with the offset of the first one.
+     */
+    public Page page(String key, long beforeOffset, int limit) throws IOException {
+        limit = Math.clamp(limit, 1, MAX_PAGE);
+        long start;
+        long diskEnd;
+        long[] positions;
+        List<Message> cached;
+        lock.lock();
+        try {
+            Conversation conversation = conversations.get(key);
+            if (conversation == null) {
+                return new Page(0, List.of());
+            }
+            long end = Math.clamp(beforeOffset, 0, conversation.count());
+            if (end <= conversation.firstOffset) {
+                // Nothing earlier is retained
+                return new Page(0, List.of());
+            }
+            start = Math.max(conversation.firstOffset, end - limit);
+            Tail tail = tails.get(key);
+            long tailStart = tail != null ? tail.startOffset : end;
+            diskEnd = Math.clamp(tailStart, start, end);
+            positions = Arrays.copyOfRange(conversation.positions, (int) (start - conversation.firstOffset),
+                    (int) (diskEnd - conversation.firstOffset));
+            cached = tail != null && end > diskEnd ? tail.range(diskEnd, end) : List.of();
+            if (positions.length == 0) {
+                return new Page(start, cached);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Older than the cached tail: read outside the lock, in file order
+        List<Message> messages = new ArrayList<>(positions.length + cached.size());
+        for (long position : positions) {
+            messages.add(read(position));
+        }
+        warm(key, start, messages);
+        messages.addAll(cached);
+        return new Page(start, messages);
+    }
+
+    // Extends or creates the cached tail with messages just read from disk when they join it
+    private void warm(String key, long start, List<Message> messages) {
+        lock.lock();
+        try {
+            Conversation conversation = conversations.get(key);
+            // Gone, or moved past these messages, when retention dropped their segment meanwhile
+            if (conversation == null || start < conversation.firstOffset) {
+                return;
+            }
+            Tail tail = tails.get(key);
+            long end = start + messages.size();
+            if (tail != null && tail.startOffset == end) {
+                tail.prepend(messages);
+            } else if (tail == null && end == conversation.count()) {
+                tails.put(key, new Tail(start, messages));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message read(long packed) throws IOException {
+        FileChannel channel = segments.get(packed >>> 32);
+        if (channel == null) {
+            throw new IOException("History segment " + (packed >>> 32) + " was dropped");
+        }
+        long position = packed & 0xFFFF_FFFFL;
+        ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_LENGTH);
+        readFully(channel, header, position);
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+        readFully(channel, payload, position + Frames.HEADER_LENGTH);
+        if (!(WireCodec.BINARY.decode(payload.flip()) instanceof Message message)) {
+            throw new StreamCorruptedException("History record is not a message");
+        }
+        return message;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated history record");
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        long id = activeId + 1;
+        FileChannel channel = FileChannel.open(segmentPath(id),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(id, channel);
+        activeId = id;
+        active = channel;
+        activeSize = 0;
+        expire();
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%016d%s", id, SUFFIX));
+    }
+
+    // Deletes the oldest segments beyond the retained ones and forgets the messages they held.
+    // Called with the lock held; a page being read from a deleted segment fails with an IOException.
+    private void expire() throws IOException {
+        while (segments.size() > maxSegments) {
+            long oldest = Collections.min(segments.keySet());
+            segments.remove(oldest).close();
+            Files.deleteIfExists(segmentPath(oldest));
+            // Positions are in file order, so a conversation loses a prefix of its messages
+            conversations.values().removeIf(conversation -> !conversation.dropBefore(oldest + 1));
+            tails.entrySet().removeIf(entry -> {
+                Conversation conversation = conversations.get(entry.getKey());
+                return conversation == null || !entry.getValue().dropBefore(conversation.firstOffset);
+            });
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error closing history: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long pack(long segmentId, long position) {
+        return segmentId << 32 | position;
+    }
+
+    public record Page(long startOffset, List<Message> messages) {
+    }
+
+    // File positions of a conversation's retained messages, indexed by offset - firstOffset
+    private static final class Conversation {
+        private long[] positions = new long[8];
+        private int size;
+        // Offset of positions[0]; the messages before it went with a dropped segment
+        private long firstOffset;
+
+        long count() {
+            return firstOffset + size;
+        }
+
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        // Forgets the messages in segments before segmentId; false when none are left
+        boolean dropBefore(long segmentId) {
+            int dropped = 0;
+            while (dropped < size && positions[dropped] >>> 32 < segmentId) {
+                dropped++;
+            }
+            if (dropped > 0) {
+                size -= dropped;
+                firstOffset += dropped;
+                System.arraycopy(positions, dropped, positions, 0, size);
+            }
+            return size > 0;
+        }
+    }
+
+    // The last messages of a conversation, offsets [startOffset, startOffset + size)
+    private static final class Tail {
+        private final ArrayDeque<Message> messages = new ArrayDeque<>();
+        private long startOffset;
+
+        Tail(long startOffset, List<Message> messages) {
+            this.startOffset = startOffset;
+            this.messages.addAll(messages);
+            trim();
+        }
+
+        void add(Message message) {
+            messages.addLast(message);
+            trim();
+        }
+
+        // Adds older messages in front, keeping the newest when full
+        void prepend(List<Message> older) {
+            int room = TAIL_MESSAGES - messages.size();
+            for (int i = older.size() - 1; i >= 0 && room > 0; i--, room--) {
+                messages.addFirst(older.get(i));
+                startOffset--;
+            }
+        }
+
+        List<Message> range(long from, long to) {
+            List<Message> range = new ArrayList<>((int) (to - from));
+            Iterator<Message> iterator = messages.iterator();
+            for (long offset = startOffset; offset < to && iterator.hasNext(); offset++) {
+                Message message = iterator.next();
+                if (offset >= from) {
+                    range.add(message);
+                }
+            }
+            return range;
+        }
+
+        // Forgets the messages before offset; false when none are left
+        boolean dropBefore(long offset) {
+            while (startOffset < offset && !messages.isEmpty()) {
+                messages.removeFirst();
+                startOffset++;
+            }
+            return !messages.isEmpty();
+        }
+
+        private void trim() {
+            while (messages.size() > TAIL_MESSAGES) {
+                messages.removeFirst();
+                startOffset++;
+            }
+        }
+    }
+}
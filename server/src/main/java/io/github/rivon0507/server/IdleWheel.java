@@ -0,0 +1,220 @@
+package io.github.rivon0507.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches registered connections for silence with a hashed timing wheel. Each watch sits in the
+ * slot of its next deadline: the tick its connection falls silent for an interval, or reaches the
+ * idle timeout once a heartbeat went unanswered. A connection's first read in a tick records the
+ * tick and hands the watch to the wheel thread, which moves it to its new slot; further reads in
+ * the same tick do nothing.
+ * <p>
+ * The wheel is sized to span the idle timeout, so every watch in a slot is due when the wheel
+ * reaches it and a tick costs the watches read from since the last one plus the ones that fell
+ * due, not the whole roster. Moving a watch is O(1): each slot is an intrusive doubly linked list.
+ * A held connection, one the server stopped reading from, is taken off the wheel until released.
+ * There is one timer thread for all connections.
+ */
+class IdleWheel {
+    // Resolution of the deadlines: a silent connection is probed and reaped at most this fraction
+    // of an interval late
+    private static final int TICKS_PER_INTERVAL = 8;
+    // Longer timeouts make the ticks coarser rather than the wheel larger
+    private static final int MAX_WHEEL_SIZE = 1 << 16;
+
+    private final long intervalTicks;
+    private final long timeoutTicks;
+    private final ServerMetrics metrics;
+    // The first watch of each slot, null when empty; only touched by the wheel thread
+    private final Watch[] slots;
+    private final int mask;
+    // Watches started, read from, held, released or cancelled since the last tick
+    private final Queue<Watch> changed = new ConcurrentLinkedQueue<>();
+    // Advanced by the wheel thread only
+    private volatile long tick;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "idle-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    IdleWheel(long intervalMillis, long timeoutMillis, ServerMetrics metrics) {
+        this(intervalMillis, timeoutMillis, metrics, true);
+    }
+
+    // Without the timer, tests move the wheel on themselves by calling advance() once per tick
+    IdleWheel(long intervalMillis, long timeoutMillis, ServerMetrics metrics, boolean timer) {
+        long tickMillis = Math.max(Math.max(1, intervalMillis / TICKS_PER_INTERVAL),
+                Math.ceilDiv(timeoutMillis, MAX_WHEEL_SIZE - 1));
+        this.intervalTicks = Math.max(1, intervalMillis / tickMillis);
+        // A connection is always sent a heartbeat, and given a tick to answer it, before it is closed
+        this.timeoutTicks = Math.max(intervalTicks + 1, Math.ceilDiv(timeoutMillis, tickMillis));
+        this.metrics = metrics;
+        // Larger than the longest deadline, so a slot never holds a watch due on a later turn
+        int size = Integer.highestOneBit((int) timeoutTicks) << 1;
+        this.slots = new Watch[size];
+        this.mask = size - 1;
+        if (timer) {
+            scheduler.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Starts watching a registered connection: probe sends it a heartbeat, expired closes it
+    Watch watch(Runnable probe, Runnable expired) {
+        Watch watch = new Watch(probe, expired);
+        watch.changed();
+        return watch;
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // Runs one tick; called by the timer thread, or by tests running the wheel without it
+    void advance() {
+        long now = tick + 1;
+        tick = now;
+        Watch watch;
+        while ((watch = changed.poll()) != null) {
+            // Cleared first: a read from here on queues the watch again
+            watch.queued.set(false);
+            unlink(watch);
+            if (!watch.cancelled && !watch.held) {
+                link(watch, now, dueTick(watch));
+            }
+        }
+        int slot = (int) (now & mask);
+        Watch next = slots[slot];
+        slots[slot] = null;
+        while ((watch = next) != null) {
+            next = watch.next;
+            watch.next = null;
+            watch.prev = null;
+            watch.slot = -1;
+            try {
+                check(watch, now);
+            } catch (RuntimeException e) {
+                // A failure must not cancel the timer for every other connection
+                ServerLog.error("Error checking idle connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void check(Watch watch, long now) {
+        // Off the wheel until it is released or read from
+        if (watch.cancelled || watch.held) {
+            return;
+        }
+        long lastActive = watch.lastActive;
+        long silent = now - lastActive;
+        if (silent < intervalTicks) {
+            // Read from in this tick, after its move was handled
+            link(watch, now, dueTick(watch));
+        } else if (silent < timeoutTicks) {
+            // One heartbeat per silence; a client that answers and falls silent again gets another
+            if (watch.probedAt <= lastActive) {
+                watch.probedAt = now;
+                watch.probe.run();
+            }
+            link(watch, now, lastActive + timeoutTicks);
+        } else {
+            watch.cancelled = true;
+            metrics.idleConnectionReaped();
+            watch.expired.run();
+        }
+    }
+
+    // The idle timeout once a heartbeat is waiting for an answer, the end of the interval otherwise
+    private long dueTick(Watch watch) {
+        long lastActive = watch.lastActive;
+        return watch.probedAt > lastActive ? lastActive + timeoutTicks : lastActive + intervalTicks;
+    }
+
+    private void link(Watch watch, long now, long dueTick) {
+        int slot = (int) ((now + Math.max(1, dueTick - now)) & mask);
+        Watch first = slots[slot];
+        watch.slot = slot;
+        watch.next = first;
+        if (first != null) {
+            first.prev = watch;
+        }
+        slots[slot] = watch;
+    }
+
+    private void unlink(Watch watch) {
+        if (watch.slot < 0) {
+            return;
+        }
+        if (watch.prev != null) {
+            watch.prev.next = watch.next;
+        } else {
+            slots[watch.slot] = watch.next;
+        }
+        if (watch.next != null) {
+            watch.next.prev = watch.prev;
+        }
+        watch.prev = null;
+        watch.next = null;
+        watch.slot = -1;
+    }
+
+    // The idle state of one connection
+    final class Watch {
+        private final Runnable probe;
+        private final Runnable expired;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private volatile long lastActive = tick;
+        private volatile boolean held;
+        private volatile boolean cancelled;
+        // Only touched by the wheel thread; slot is -1 while the watch is off the wheel
+        private Watch prev;
+        private Watch next;
+        private int slot = -1;
+        private long probedAt = -1;
+
+        private Watch(Runnable probe, Runnable expired) {
+            this.probe = probe;
+            this.expired = expired;
+        }
+
+        // Called after reading from the connection; only the first read of a tick moves the watch
+        void touch() {
+            long now = tick;
+            if (lastActive != now) {
+                lastActive = now;
+                changed();
+            }
+        }
+
+        // Called when the server stops reading from the connection, e.g. while it waits for credit
+        void hold() {
+            held = true;
+            changed();
+        }
+
+        // Called when the server reads from the connection again
+        void release() {
+            held = false;
+            lastActive = tick;
+            changed();
+        }
+
+        // Called when the connection closes
+        void cancel() {
+            cancelled = true;
+            changed();
+        }
+
+        // Hands the watch to the wheel thread, once however often it changes before the next tick
+        private void changed() {
+            if (queued.compareAndSet(false, true)) {
+                changed.add(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.Frames;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// One memory-mapped file of the offline journal. A record is a state byte, an 8-byte sequence
+// number, the 8-byte time it was first stored in epoch millis and a frame; records never move,
+// delivering or expiring one only flips its state byte in place. Guarded by the journal's lock.
+class JournalSegment {
+    static final int RECORD_HEADER_LENGTH = 1 + 2 * Long.BYTES;
+    static final byte END = 0;
+    static final byte PENDING = 1;
+    static final byte DELIVERED = 2;
+
+    private final long id;
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private int liveRecords;
+    private long liveBytes;
+
+    private JournalSegment(long id, Path file, MappedByteBuffer buffer) {
+        this.id = id;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    // Maps a new segment of the given size, or an existing one at its current size when size is 0
+    static JournalSegment open(long id, Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long length = size > 0 ? size : channel.size();
+            // The mapping stays valid after the channel is closed
+            return new JournalSegment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+        }
+    }
+
+    static Path fileFor(Path directory, long id) {
+        return directory.resolve(String.format("%016d.journal", id));
+    }
+
+    long getId() {
+        return id;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    void setWritePosition(int writePosition) {
+        this.writePosition = writePosition;
+    }
+
+    int remaining() {
+        return buffer.capacity() - writePosition;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    int getLiveRecords() {
+        return liveRecords;
+    }
+
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    byte stateAt(int offset) {
+        return buffer.get(offset);
+    }
+
+    long sequenceAt(int offset) {
+        return buffer.getLong(offset + 1);
+    }
+
+    long storedAt(int offset) {
+        return buffer.getLong(offset + 1 + Long.BYTES);
+    }
+
+    // Length of the frame stored at offset, header included
+    int frameLengthAt(int offset) {
+        return Frames.HEADER_LENGTH + buffer.getInt(offset + RECORD_HEADER_LENGTH);
+    }
+
+    // A read-only view of bytes already written, valid for as long as the segment is mapped
+    ByteBuffer slice(int offset, int length) {
+        return buffer.slice(offset, length).asReadOnlyBuffer();
+    }
+
+    // The state is written last, so a record torn by a crash reads as the end of the segment
+    int append(long sequence, long storedAt, ByteBuffer frame) {
+        int offset = writePosition;
+        int length = frame.remaining();
+        buffer.putLong(offset + 1, sequence);
+        buffer.putLong(offset + 1 + Long.BYTES, storedAt);
+        buffer.put(offset + RECORD_HEADER_LENGTH, frame, frame.position(), length);
+        buffer.put(offset, PENDING);
+        writePosition += RECORD_HEADER_LENGTH + length;
+        countLive(RECORD_HEADER_LENGTH + length);
+        return offset;
+    }
+
+    void countLive(int recordLength) {
+        liveRecords++;
+        liveBytes += recordLength;
+    }
+
+    void markDelivered(int offset, int recordLength) {
+        buffer.put(offset, DELIVERED);
+        liveRecords--;
+        liveBytes -= recordLength;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.rivon0507.server;
+
+public enum LogLevel {
+    // Per-message routing lines; off in production
+    DEBUG,
+    // Connections, registrations and lifecycle events
+    INFO,
+    ERROR
+}
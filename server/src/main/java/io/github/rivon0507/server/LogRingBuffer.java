@@ -0,0 +1,80 @@
+package io.github.rivon0507.server;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded lock-free queue of log lines with many producers and a single consumer.
+ * <p>
+ * Each slot carries a sequence number telling producers and the consumer whose turn it is, so a
+ * producer claims a slot with one CAS on the tail and never waits for the consumer. When the ring
+ * is full the line is dropped and counted instead: a slow UI must not stall the server threads.
+ */
+public class LogRingBuffer {
+    private final int mask;
+    private final AtomicReferenceArray<String> lines;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    // Only the consumer moves the head
+    private long head;
+
+    public LogRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        mask = capacity - 1;
+        lines = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public boolean offer(String line) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long gap = sequences.get(index) - position;
+            if (gap == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    lines.set(index, line);
+                    // Publishes the line to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (gap < 0) {
+                // The consumer has not freed this slot yet
+                dropped.increment();
+                return false;
+            }
+            // Another producer claimed the slot first: retry with the new tail
+        }
+    }
+
+    // Consumer side: moves up to max published lines into the target list
+    public int drainTo(List<String> target, int max) {
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            target.add(lines.get(index));
+            lines.set(index, null);
+            // Hands the slot back to the producers for the next lap
+            sequences.set(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    // Lines dropped since the last call, for the consumer to report once
+    public long takeDropped() {
+        return dropped.sumThenReset();
+    }
+}
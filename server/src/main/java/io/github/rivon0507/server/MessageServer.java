@@ -1,116 +1,951 @@
 package io.github.rivon0507.server;
 
+import io.github.rivon0507.common.ConnectionRequest;
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.Heartbeat;
+import io.github.rivon0507.common.HistoryRequest;
+import io.github.rivon0507.common.HistoryResponse;
 import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.MessageAck;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class MessageServer {
+    // Messages a connection routes in a row before the engine lets other senders' connections take
+    // a turn, so a chatty client cannot monopolize the routing threads
+    static final int ROUTING_QUANTUM = 32;
+    // Clients listed by the per-client queue view of the metrics
+    static final int DEEPEST_QUEUES = 20;
+    // Threads reading history pages from disk, whatever the number of clients asking
+    static final int HISTORY_READERS = 4;
+    // Messages waiting for the history writer; beyond it, while the disk stalls, they go unrecorded
+    static final int HISTORY_BACKLOG = 8192;
+    // Shared by every connection, so each codec encodes them once
+    static final EncodedFrame HEARTBEAT_PROBE = new EncodedFrame(new Heartbeat(false));
+    static final EncodedFrame HEARTBEAT_REPLY = new EncodedFrame(new Heartbeat(true));
+
     private final int port;
-    private ServerSocket serverSocket;
-    private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private final ExecutorService pool = Executors.newCachedThreadPool();
-    private boolean running = false;
+    private final ServerConfig config;
+    private final Map<String, ClientConnection> clients = new ConcurrentHashMap<>();
+    // A ReentrantLock rather than synchronized, which would pin the carrier of a virtual thread.
+    // Only taken in cluster mode, where every join and leave goes to the other nodes in one order.
+    private final ReentrantLock rosterLock = new ReentrantLock();
+    // Running alone, a name's registrations and removals only need to be ordered among themselves:
+    // its joins and leaves then reach the presence tracker in the order the client map saw them.
+    // Names hash to one of these, so clients logging in at once rarely wait on each other.
+    private final ReentrantLock[] nameLocks = new ReentrantLock[64];
+    // Rebuilt by the first snapshot after a presence delta, shared by the others until the next
+    private volatile RosterView rosterView;
+    private final PresenceTracker presence;
+    private final RoomRegistry rooms = new RoomRegistry();
+    // Resolves the session ids clients address messages with, without hashing names
+    private final SessionTable sessions = new SessionTable();
+    // Null unless clients may resume their session after losing the connection
+    private final ResumableSessions resumable;
+    // Null when flow control is off
+    private final FlowControl flow;
+    // Null when no sender is rate limited
+    private final RateLimits limits;
+    // Null when heartbeats are off
+    private final IdleWheel idle;
+    private final ServerMetrics metrics = new ServerMetrics(this::getOutboundQueueDepth, this::getDeepestOutboundQueues);
+    private ObjectName metricsName;
+    private volatile OfflineJournal journal;
+    private volatile HistoryStore history;
+    // Set with the history; one request per connection is queued or running at a time
+    private volatile ExecutorService historyReaders;
+    private final Set<ClientConnection> historyRequests = ConcurrentHashMap.newKeySet();
+    // Set with the history; appends each message in the order it was routed
+    private volatile ExecutorService historyWriter;
+    // Set in cluster mode, null when this server runs alone
+    private volatile ClusterNode cluster;
+    private ServerEngine engine;
+    private volatile boolean running = false;
 
     public MessageServer(int port) {
+        this(port, new ServerConfig());
+    }
+
+    public MessageServer(int port, ServerConfig config) {
         this.port = port;
+        this.config = config;
+        this.presence = new PresenceTracker(this, config.getPresenceCoalesceMillis());
+        this.resumable = config.getResumeGraceMillis() > 0
+                ? new ResumableSessions(config.getResumeGraceMillis(), config.getResumeBufferFrames()) : null;
+        this.flow = config.getCreditWindow() > 0
+                ? new FlowControl(config.getOutboundQueueCapacity(), config.getCreditStallTimeoutMillis(), metrics) : null;
+        this.limits = RateLimits.of(config);
+        this.idle = config.getHeartbeatIntervalMillis() > 0
+                ? new IdleWheel(config.getHeartbeatIntervalMillis(), config.getIdleTimeoutMillis(), metrics) : null;
+        for (int i = 0; i < nameLocks.length; i++) {
+            nameLocks[i] = new ReentrantLock();
+        }
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
     }
 
     public void start() {
+        ServerLog.setLevel(config.getLogLevel());
+        engine = createEngine();
+        openJournal();
+        openHistory();
+        openCluster();
+        registerMetrics();
         try {
-            serverSocket = new ServerSocket(port);
             running = true;
-            System.out.println("Server started on port " + port);
-
-            while (running) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                pool.execute(clientHandler);
-            }
+            engine.start();
         } catch (IOException e) {
             if (running) {
-                System.out.println("Server error: " + e.getMessage());
+                ServerLog.error("Server error: " + e.getMessage());
             }
         } finally {
             stop();
         }
     }
 
+    private ServerEngine createEngine() {
+        return switch (config.getEngine()) {
+            case THREADED -> new ThreadedServerEngine(port, this, false);
+            case VIRTUAL -> new ThreadedServerEngine(port, this, true);
+            case NIO -> new NioServerEngine(port, this, config.getEventLoopThreads());
+        };
+    }
+
     public void stop() {
+        // Also releases the background threads of a server that was never started
+        presence.shutdown();
+        if (resumable != null) {
+            resumable.shutdown();
+        }
+        if (flow != null) {
+            flow.shutdown();
+        }
+        if (idle != null) {
+            idle.shutdown();
+        }
+        if (!running) {
+            return;
+        }
         running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+        if (engine != null) {
+            engine.stop();
+        }
+        unregisterMetrics();
+        if (cluster != null) {
+            cluster.stop();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (historyReaders != null) {
+            historyReaders.shutdownNow();
+        }
+        if (historyWriter != null) {
+            // Records what was routed before the stop
+            historyWriter.shutdown();
+            try {
+                historyWriter.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            pool.shutdown();
+        }
+        if (history != null) {
+            history.close();
+        }
+        ServerLog.info("Server stopped");
+    }
+
+    private void openJournal() {
+        if (config.getJournalDir() == null) {
+            return;
+        }
+        try {
+            journal = new OfflineJournal(Path.of(config.getJournalDir()), config.getJournalSegmentBytes(),
+                    config.getJournalTtlMillis(), config.getJournalMaxPerRecipient(), config.getJournalMaxBytes(), metrics);
         } catch (IOException e) {
-            System.out.println("Error stopping server: " + e.getMessage());
+            ServerLog.error("Error opening journal, messages to offline clients will be rejected: " + e.getMessage());
+        }
+    }
+
+    private void openHistory() {
+        if (config.getHistoryDir() == null) {
+            return;
+        }
+        try {
+            history = new HistoryStore(Path.of(config.getHistoryDir()), config.getHistorySegmentBytes(),
+                    config.getHistoryCachedConversations(), config.getHistoryMaxBytes());
+            historyReaders = Executors.newFixedThreadPool(HISTORY_READERS, runnable -> {
+                Thread thread = new Thread(runnable, "history-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            historyWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HISTORY_BACKLOG),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "history-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } catch (IOException e) {
+            ServerLog.error("Error opening history, messages will not be kept: " + e.getMessage());
+        }
+    }
+
+    private void openCluster() {
+        if (config.getClusterPort() == 0) {
+            return;
+        }
+        if (config.getClusterSecret() == null) {
+            ServerLog.error("Cluster mode needs a cluster secret shared by every node, running alone");
+            return;
+        }
+        String nodeId = config.getNodeId() != null ? config.getNodeId() : "node-" + port;
+        ClusterNode node = new ClusterNode(this, nodeId, rosterLock, presence);
+        try {
+            node.start();
+            cluster = node;
+        } catch (IOException e) {
+            ServerLog.error("Error starting cluster node, running alone: " + e.getMessage());
+        }
+    }
+
+    public boolean isClustered() {
+        return cluster != null;
+    }
+
+    private void registerMetrics() {
+        try {
+            metricsName = new ObjectName("io.github.rivon0507:type=MessageServer,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            ServerLog.error("Error registering metrics: " + e.getMessage());
+            metricsName = null;
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (metricsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            ServerLog.error("Error unregistering metrics: " + e.getMessage());
+        }
+        metricsName = null;
+    }
+
+    public boolean registerClient(String clientName, ClientConnection handler) {
+        return registerClient(clientName, handler, null);
+    }
+
+    // In cluster mode this waits for the other nodes to grant the name, see ClusterNode.claim().
+    // replay comes from openSession(), null when the session cannot be resumed.
+    boolean registerClient(String clientName, ClientConnection handler, SessionReplay replay) {
+        // Before any lock: hashing a null name to its shard would throw
+        if (invalidNameReason(clientName) != null) {
+            metrics.handshakeRejected();
+            return false;
         }
-        System.out.println("Server stopped");
+        // A client that lost its connection and registers anew instead of resuming replaces its
+        // old session, which would otherwise hold the name until the grace period ends
+        ResumableSessions resumable = this.resumable;
+        SessionReplay detached = resumable != null ? resumable.findDetached(clientName) : null;
+        if (detached != null) {
+            ClientConnection previous = detached.getOwner();
+            if (previous != null && resumable.end(detached, previous)) {
+                clientLeft(previous);
+            }
+        }
+        ClusterNode cluster = this.cluster;
+        // Outside the roster lock, which the replies from the other nodes need
+        if (cluster != null && !cluster.claim(clientName)) {
+            metrics.handshakeRejected();
+            return false;
+        }
+        ReentrantLock lock = lockFor(clientName);
+        lock.lock();
+        try {
+            OfflineJournal journal = this.journal;
+            if (journal != null) {
+                journal.addRecipient(clientName);
+                // Before the put, so messages routed to the new client queue behind its backlog.
+                // Harmless when the name turns out to be taken: its client drains the backlog.
+                journal.startReplay(clientName);
+            }
+            if (clients.putIfAbsent(clientName, handler) != null) {
+                if (cluster != null) {
+                    cluster.release(clientName);
+                }
+                metrics.handshakeRejected();
+                return false;
+            }
+            int sessionId = sessions.add(handler);
+            if (replay != null) {
+                resumable.add(replay);
+            }
+            if (journal != null) {
+                // Again after it: a message journaled in between saw no client and started nothing
+                journal.startReplay(clientName);
+            }
+            if (cluster != null) {
+                cluster.joined(clientName);
+            }
+            presence.joined(clientName, sessionId);
+        } finally {
+            lock.unlock();
+        }
+        metrics.handshakeCompleted();
+        ServerLog.info("Client registered: " + clientName);
+        return true;
     }
 
-    public synchronized boolean registerClient(String clientName, ClientHandler handler) {
-        if (clients.containsKey(clientName)) {
+    // Why no client may register under the name, null when it is acceptable. Checked by the engines
+    // before anything else of the handshake, so the client is told what is wrong with it.
+    static String invalidNameReason(String clientName) {
+        if (clientName == null || clientName.isBlank()) {
+            return "A name is required";
+        }
+        if (Message.isRoomName(clientName)) {
+            return "Names cannot start with " + Message.ROOM_PREFIX;
+        }
+        // Taken by broadcasts and server notices
+        if ("ALL".equalsIgnoreCase(clientName) || "SERVER".equalsIgnoreCase(clientName)) {
+            return "Name is reserved";
+        }
+        return null;
+    }
+
+    // Returns false when the client is not registered with this connection, e.g. after resuming
+    // its session on another one
+    public boolean removeClient(ClientConnection handler) {
+        String clientName = handler.getClientName();
+        if (clientName == null) {
             return false;
         }
-        clients.put(clientName, handler);
-        System.out.println("Client registered: " + clientName);
-        broadcastClientList();
+        ReentrantLock lock = lockFor(clientName);
+        lock.lock();
+        try {
+            if (!clients.remove(clientName, handler)) {
+                return false;
+            }
+            sessions.remove(handler);
+            rooms.leaveAll(clientName);
+            if (limits != null) {
+                limits.remove(handler);
+            }
+            ClusterNode cluster = this.cluster;
+            if (cluster != null) {
+                cluster.left(clientName);
+            }
+            // A name taken over by another node after a conflict stays in the roster
+            if (cluster == null || !cluster.isRemote(clientName)) {
+                presence.left(clientName);
+            }
+        } finally {
+            lock.unlock();
+        }
+        ServerLog.info("Client removed: " + clientName);
         return true;
     }
 
-    public synchronized void removeClient(String clientName) {
-        clients.remove(clientName);
-        System.out.println("Client removed: " + clientName);
-        broadcastClientList();
+    // The roster lock in cluster mode, else the lock of the name's shard
+    private ReentrantLock lockFor(String clientName) {
+        if (cluster != null) {
+            return rosterLock;
+        }
+        int hash = clientName.hashCode();
+        return nameLocks[(hash ^ (hash >>> 16)) & (nameLocks.length - 1)];
+    }
+
+    // A session that can be resumed on a new connection, null when resumption is off
+    SessionReplay openSession(String clientName, ClientConnection handler, Consumer<EncodedFrame> transport) {
+        ResumableSessions resumable = this.resumable;
+        return resumable != null ? resumable.open(clientName, handler, transport) : null;
     }
 
+    // The session a reconnecting client asks to resume, null when unknown or expired
+    SessionReplay findSession(ConnectionRequest request) {
+        ResumableSessions resumable = this.resumable;
+        if (resumable == null || request.getResumeToken() == 0 || request.getClientName() == null) {
+            return null;
+        }
+        return resumable.find(request.getClientName(), request.getResumeToken());
+    }
+
+    /**
+     * Moves a session to the client's new connection, which must already send its frames through
+     * replay: a response without a roster snapshot goes out first, then the frames the client
+     * missed. Returns false when the session cannot be resumed; the client then registers as
+     * usual.
+     */
+    boolean resumeClient(ClientConnection handler, SessionReplay replay, long framesReceived,
+                         Consumer<EncodedFrame> transport) {
+        String clientName = replay.getClientName();
+        ClientConnection previous;
+        ReentrantLock lock = lockFor(clientName);
+        lock.lock();
+        try {
+            previous = replay.getOwner();
+            if (previous == null || clients.get(clientName) != previous) {
+                return false;
+            }
+            // Same session id, nothing else of the roster changed for the client
+            EncodedFrame response = new EncodedFrame(new ConnectionResponse(true, "Session resumed", null, 0,
+                    handler.isCompressionEnabled(), sessions.idOf(previous), null, replay.getToken()));
+            boolean resumed = replay.resume(handler, transport, framesReceived, response, () -> {
+                clients.put(clientName, handler);
+                sessions.replace(previous, handler);
+                rooms.replace(clientName, handler);
+                if (limits != null) {
+                    limits.replace(previous, handler);
+                }
+            });
+            if (!resumed) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // The client may have given up on a connection the server still thinks is alive
+        previous.disconnect("Session resumed on a new connection");
+        metrics.sessionResumed();
+        ServerLog.info("Client resumed: " + clientName);
+        return true;
+    }
+
+    /**
+     * Called by the engines when the connection of a client closes. Unless the session ended on
+     * purpose, a resumable one keeps the client registered for the grace period; otherwise the
+     * client leaves now.
+     */
+    void clientDisconnected(ClientConnection handler, SessionReplay replay, boolean ended) {
+        if (flow != null) {
+            flow.removed(handler);
+        }
+        ResumableSessions resumable = this.resumable;
+        if (replay != null && resumable != null) {
+            if (!ended && resumable.detach(replay, handler, () -> clientLeft(handler))) {
+                ServerLog.info("Holding session of " + handler.getClientName() + " for "
+                        + config.getResumeGraceMillis() + " ms");
+                return;
+            }
+            resumable.end(replay, handler);
+        }
+        clientLeft(handler);
+    }
+
+    // The credit of a new connection, null when flow control is off
+    CreditWindow openCredit(Consumer<EncodedFrame> grants) {
+        return flow != null ? new CreditWindow(config.getCreditWindow(), grants) : null;
+    }
+
+    // Starts watching a registered connection for silence, null when heartbeats are off. probe
+    // queues HEARTBEAT_PROBE; expired closes the connection as dropped, so a resumable session
+    // waits for the client like after any other network failure.
+    IdleWheel.Watch watchIdle(Runnable probe, Runnable expired) {
+        return idle != null ? idle.watch(probe, expired) : null;
+    }
+
+    // Called by the connections after each batch of frames written, to release the senders
+    // waiting for them to catch up
+    void outboundWritten(ClientConnection handler) {
+        if (flow != null) {
+            flow.written(handler);
+        }
+    }
+
+    private void queued(ClientConnection recipient, CreditWindow credit) {
+        if (credit != null) {
+            flow.queued(recipient, credit);
+        }
+    }
+
+    private void clientLeft(ClientConnection handler) {
+        if (removeClient(handler)) {
+            broadcast(new Message("SERVER", "ALL", handler.getClientName() + " has left the chat."), null);
+        }
+    }
+
+    // Pushes a full roster snapshot to every client; joins and leaves normally travel as deltas
     public void broadcastClientList() {
-        List<String> connectedClients = getConnectedClients();
+        broadcast(new EncodedFrame(rosterSnapshot("Client list updated", false, 0, 0)));
+    }
+
+    // Sends a full roster snapshot to one client, at handshake or when it reports a version gap.
+    // The first one also tells the client whether its compression offer was accepted.
+    public void sendRoster(ClientConnection handler, String message) {
+        ResumableSessions resumable = this.resumable;
+        long resumeToken = resumable != null ? resumable.tokenOf(handler) : 0;
+        handler.sendFrame(new EncodedFrame(rosterSnapshot(message, handler.isCompressionEnabled(),
+                sessions.idOf(handler), resumeToken)));
+    }
+
+    // Also carries the session id of every local client, the directory clients address messages with
+    private ConnectionResponse rosterSnapshot(String message, boolean compression, int sessionId, long resumeToken) {
+        RosterView view = rosterView();
+        return new ConnectionResponse(true, message, view.names(), view.version(), compression, sessionId, view.ids(), resumeToken);
+    }
+
+    /**
+     * The roster as of the current presence version. A view stays good until the next delta is
+     * published: whatever changed since it was built is in that delta, which reaches every client
+     * registered before it goes out, and applying a change already in the view does nothing. So
+     * during a login storm the roster is gathered once per coalescing window, not once per client.
+     */
+    private RosterView rosterView() {
+        // Version first: the list read afterwards includes at least every change up to it
+        long version = presence.getVersion();
+        RosterView view = rosterView;
+        if (view != null && view.version() == version) {
+            return view;
+        }
+        List<String> names = new ArrayList<>(clients.size());
+        List<ClientConnection> handlers = new ArrayList<>(clients.size());
         clients.forEach((name, handler) -> {
-            handler.sendConnectionResponse(true, "Client list updated", connectedClients);
+            names.add(name);
+            handlers.add(handler);
         });
+        ClusterNode cluster = this.cluster;
+        if (cluster != null) {
+            for (String name : cluster.getRemoteClients()) {
+                if (!clients.containsKey(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        // Clients of other cluster nodes have no id here and are addressed by name
+        int[] ids = new int[names.size()];
+        for (int i = 0; i < handlers.size(); i++) {
+            ids[i] = sessions.idOf(handlers.get(i));
+        }
+        view = new RosterView(version, Collections.unmodifiableList(names), ids);
+        rosterView = view;
+        return view;
+    }
+
+    // Shared by the snapshots sent to many clients, so never modified once built
+    private record RosterView(long version, List<String> names, int[] ids) {
     }
 
-    public synchronized List<String> getConnectedClients() {
+    long getOutboundQueueDepth() {
+        long depth = 0;
+        for (ClientConnection handler : clients.values()) {
+            depth += handler.getOutboundQueueDepth();
+        }
+        return depth;
+    }
+
+    // The DEEPEST_QUEUES clients with the most frames queued, deepest first
+    List<ClientQueueStats> getDeepestOutboundQueues() {
+        Comparator<ClientQueueStats> depth = Comparator.comparingInt(ClientQueueStats::outboundQueueDepth)
+                .thenComparingLong(ClientQueueStats::droppedFrames);
+        // Keeps the deepest ones seen so far, the shallowest of them at the head
+        PriorityQueue<ClientQueueStats> deepest = new PriorityQueue<>(DEEPEST_QUEUES + 1, depth);
+        clients.forEach((name, handler) -> {
+            deepest.add(new ClientQueueStats(name, handler.getOutboundQueueDepth(), handler.getDroppedFrames()));
+            if (deepest.size() > DEEPEST_QUEUES) {
+                deepest.poll();
+            }
+        });
+        List<ClientQueueStats> sorted = new ArrayList<>(deepest);
+        sorted.sort(depth.reversed());
+        return sorted;
+    }
+
+    public List<String> getConnectedClients() {
+        // clients is a ConcurrentHashMap, so copying its key set needs no lock
+        List<String> names = new ArrayList<>(clients.keySet());
+        ClusterNode cluster = this.cluster;
+        if (cluster != null) {
+            for (String name : cluster.getRemoteClients()) {
+                if (!clients.containsKey(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    // Clients registered on this node only, whatever the cluster holds
+    List<String> getLocalClientNames() {
         return new ArrayList<>(clients.keySet());
     }
 
-    public void handleMessage(Message message) {
-        System.out.println("Message from " + message.getSender() + " to " + 
-                          (message.isBroadcast() ? "ALL" : message.getDestination()));
+    ClientConnection getLocalClient(String clientName) {
+        return clients.get(clientName);
+    }
 
+    public MessageAck.Status handleMessage(ClientConnection handler, Message message) {
+        return handleMessage(handler, message, null);
+    }
+
+    // Routes a message from a client; the returned status is acknowledged to the sender. credit is
+    // the sender's, held back when a recipient is backed up; null without flow control. A message
+    // over the sender's rate limit is rejected. The sender is the client registered on handler,
+    // whatever name or session id the message itself carries.
+    MessageAck.Status handleMessage(ClientConnection handler, Message message, CreditWindow credit) {
+        long start = System.nanoTime();
+        message = stamp(handler, message);
+        if (message == null) {
+            return MessageAck.Status.REJECTED;
+        }
+        if (ServerLog.isEnabled(LogLevel.DEBUG)) {
+            ServerLog.debug("Message from " + message.getSender() + " to " +
+                    (message.isBroadcast() ? "ALL" : message.getDestination()));
+        }
+        if (limits != null && !limits.tryAcquire(handler)) {
+            throttled(handler);
+            return MessageAck.Status.REJECTED;
+        }
+
+        MessageAck.Status status;
+        if (message.isBroadcast()) {
+            broadcast(message, message.getSender(), credit);
+            remember(message);
+            status = MessageAck.Status.DELIVERED;
+        } else if (message.isRoom()) {
+            status = sendToRoom(message, credit);
+        } else {
+            status = sendPrivate(message, false, credit);
+        }
+        metrics.messageRouted(message.isBroadcast() || message.isRoom(), System.nanoTime() - start);
+        return status;
+    }
+
+    // The sender hears about it at most once a second, with the count refused since it last did
+    private void throttled(ClientConnection handler) {
+        metrics.messageThrottled();
+        long refused = limits.refusedToReport(handler);
+        if (refused == 0) {
+            return;
+        }
+        int rate = limits.rateOf(handler);
+        String name = handler.getClientName();
+        ServerLog.info("Throttling " + name + ", over its limit of " + rate + " messages per second");
+        handler.sendMessage(new Message("SERVER", name, "Error: you are sending more than " + rate + " messages per second; "
+                + refused + (refused == 1 ? " message" : " messages") + " rejected, slow down."));
+    }
+
+    // The message as sent by the client registered on handler, so a client cannot speak for another
+    // by naming it, or giving its session id, as the sender; null when the connection is not
+    // registered or the recipient cannot be resolved
+    private Message stamp(ClientConnection handler, Message message) {
+        String name = handler.getClientName();
+        if (name == null || clients.get(name) != handler) {
+            metrics.deliveryFailed();
+            return null;
+        }
+        int senderId = sessions.idOf(handler);
+        if (message.getDestination() == null) {
+            return resolve(handler, name, senderId, message);
+        }
+        if (name.equals(message.getSender()) && message.getSenderId() == senderId) {
+            return message;
+        }
+        return new Message(name, message.getDestination(), message.getContent(), senderId, message.getDestinationId());
+    }
+
+    // Fills in the recipient of a message addressed by session id; null when it cannot be delivered
+    private Message resolve(ClientConnection sender, String senderName, int senderId, Message message) {
+        String destination = "ALL";
+        if (message.getDestinationId() != Message.ALL_ID) {
+            ClientConnection recipient = sessions.get(message.getDestinationId());
+            if (recipient == null) {
+                metrics.deliveryFailed();
+                sender.sendMessage(new Message("SERVER", senderName, "Error: the recipient is no longer connected."));
+                return null;
+            }
+            destination = recipient.getClientName();
+        }
+        return new Message(senderName, destination, message.getContent(), senderId, message.getDestinationId());
+    }
+
+    // A message routed here by another cluster node. It reaches this node's clients only and is
+    // never forwarded again, so it cannot loop between nodes.
+    void deliverForwarded(Message message) {
         if (message.isBroadcast()) {
-            broadcast(message, message.getSender());
+            broadcastLocal(new EncodedFrame(message), message.getSender(), null);
+            // Join and leave notices are not part of the conversation
+            if (!"SERVER".equals(message.getSender())) {
+                remember(message);
+            }
+        } else if (message.isRoom()) {
+            roomLocal(new EncodedFrame(message), message.getDestination(), message.getSender(), null);
+            remember(message);
         } else {
-            // Send to specific client
-            ClientHandler recipient = clients.get(message.getDestination());
-            if (recipient != null) {
-                recipient.sendMessage(message);
-            } else {
-                // Send error back to sender if destination client doesn't exist
-                ClientHandler sender = clients.get(message.getSender());
-                if (sender != null) {
-                    sender.sendMessage(new Message("SERVER", message.getSender(), 
-                                      "Error: Client '" + message.getDestination() + "' not found."));
+            sendPrivate(message, true, null);
+        }
+    }
+
+    private MessageAck.Status sendPrivate(Message message, boolean forwarded, CreditWindow credit) {
+        String destination = message.getDestination();
+        // Addressed by session id, the recipient is an array read away
+        ClientConnection recipient = message.getDestinationId() > 0
+                ? sessions.get(message.getDestinationId()) : clients.get(destination);
+        OfflineJournal journal = this.journal;
+        if (recipient != null && (journal == null || !journal.isReplaying(destination))) {
+            recipient.sendMessage(message);
+            queued(recipient, credit);
+            remember(message);
+            return MessageAck.Status.DELIVERED;
+        }
+        ClusterNode cluster = this.cluster;
+        if (!forwarded && recipient == null && cluster != null && cluster.forward(message)) {
+            remember(message);
+            return MessageAck.Status.DELIVERED;
+        }
+        OfflineJournal.Result stored = journal != null ? store(journal, message) : null;
+        if (stored == OfflineJournal.Result.STORED) {
+            remember(message);
+            if (recipient == null) {
+                notifySender(message, "Client '" + destination + "' is offline, the message will be delivered when they connect.");
+            }
+            // The recipient may have registered while the message was being journaled
+            ClientConnection registered = clients.get(destination);
+            if (registered != null) {
+                journal.startReplay(destination);
+                deliverBacklog(registered);
+            }
+            return MessageAck.Status.STORED;
+        }
+        metrics.deliveryFailed();
+        if (stored == OfflineJournal.Result.FULL) {
+            notifySender(message, "Error: too many messages are waiting for '" + destination + "', try again later.");
+            return MessageAck.Status.REJECTED;
+        }
+        // Send error back to sender if destination client doesn't exist
+        notifySender(message, "Error: Client '" + destination + "' not found.");
+        return MessageAck.Status.REJECTED;
+    }
+
+    private MessageAck.Status sendToRoom(Message message, CreditWindow credit) {
+        String room = message.getDestination();
+        // The registered name of the sending connection, see stamp()
+        if (!rooms.isMember(room, message.getSender())) {
+            metrics.deliveryFailed();
+            notifySender(message, "Error: join " + room + " before sending to it.");
+            return MessageAck.Status.REJECTED;
+        }
+        // Each node has its own members of the room, so other nodes get one copy each
+        EncodedFrame frame = new EncodedFrame(message);
+        ClusterNode cluster = this.cluster;
+        if (cluster != null) {
+            cluster.broadcast(frame);
+        }
+        roomLocal(frame, room, message.getSender(), credit);
+        remember(message);
+        return MessageAck.Status.DELIVERED;
+    }
+
+    private void roomLocal(EncodedFrame frame, String room, String excludeClient, CreditWindow credit) {
+        long start = System.nanoTime();
+        for (ClientConnection member : rooms.members(room)) {
+            if (!member.getClientName().equals(excludeClient)) {
+                member.sendFrame(frame);
+                queued(member, credit);
+            }
+        }
+        metrics.fanOutCompleted(System.nanoTime() - start);
+    }
+
+    public void joinRoom(ClientConnection handler, String room) {
+        String name = handler.getClientName();
+        if (!Message.isRoomName(room) || room.length() == Message.ROOM_PREFIX.length()) {
+            handler.sendMessage(new Message("SERVER", name, "Error: room names start with " + Message.ROOM_PREFIX + "."));
+        } else if (clients.get(name) == handler) {
+            boolean joined = rooms.join(room, handler);
+            handler.sendMessage(new Message("SERVER", name, joined ? "Joined " + room + "." : "Already in " + room + "."));
+        }
+    }
+
+    public void leaveRoom(ClientConnection handler, String room) {
+        String name = handler.getClientName();
+        boolean left = room != null && rooms.leave(room, name);
+        handler.sendMessage(new Message("SERVER", name, left ? "Left " + room + "." : "Error: not in " + room + "."));
+    }
+
+    // Null when the journal failed to write the message
+    private OfflineJournal.Result store(OfflineJournal journal, Message message) {
+        try {
+            OfflineJournal.Result result = journal.append(message);
+            if (result == OfflineJournal.Result.STORED) {
+                metrics.messageStored();
+            }
+            return result;
+        } catch (IOException e) {
+            ServerLog.error("Error journaling message for " + message.getDestination() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Adds a delivered or journaled message to the conversation history, when it is kept. The
+    // write happens on the history writer thread, so routing never waits for the disk.
+    private void remember(Message message) {
+        HistoryStore history = this.history;
+        ExecutorService writer = this.historyWriter;
+        if (history == null || writer == null) {
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    history.record(message);
+                } catch (IOException e) {
+                    ServerLog.error("Error recording history: " + e.getMessage());
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopping, or the disk is too far behind
+            ServerLog.debug("History message not recorded: writer backlog full");
+        }
+    }
+
+    /**
+     * Called by the engines for each history request of a client. Pages are read by the few history
+     * reader threads, one request per connection at a time, and each request counts against the
+     * client's rate limit like a message. A request refused for either reason is answered with an
+     * empty page that leaves the client where it was.
+     */
+    public void requestHistory(ClientConnection handler, HistoryRequest request) {
+        ExecutorService readers = this.historyReaders;
+        if (readers == null) {
+            sendHistory(handler, request);
+            return;
+        }
+        if (limits != null && !limits.tryAcquire(handler)) {
+            throttled(handler);
+            refuseHistory(handler, request);
+            return;
+        }
+        if (!historyRequests.add(handler)) {
+            handler.sendMessage(new Message("SERVER", handler.getClientName(), "Error: wait for the history already requested."));
+            refuseHistory(handler, request);
+            return;
+        }
+        try {
+            readers.execute(() -> {
+                try {
+                    sendHistory(handler, request);
+                } finally {
+                    historyRequests.remove(handler);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The server is stopping
+            historyRequests.remove(handler);
+        }
+    }
+
+    private void refuseHistory(ClientConnection handler, HistoryRequest request) {
+        handler.sendFrame(new EncodedFrame(new HistoryResponse(request.getPeer(), request.getBeforeOffset(), List.of())));
+    }
+
+    // Answers with a page of the conversation between the client and the requested peer; an empty
+    // page when history is off
+    void sendHistory(ClientConnection handler, HistoryRequest request) {
+        HistoryStore history = this.history;
+        HistoryStore.Page page = new HistoryStore.Page(0, List.of());
+        // A room's history is only shown to its members
+        if (history != null && request.getPeer() != null && handler.getClientName() != null
+                && (!Message.isRoomName(request.getPeer()) || rooms.isMember(request.getPeer(), handler.getClientName()))) {
+            try {
+                String key = HistoryStore.conversationKey(handler.getClientName(), request.getPeer());
+                page = history.page(key, request.getBeforeOffset(), request.getLimit());
+            } catch (IOException e) {
+                ServerLog.error("Error reading history: " + e.getMessage());
             }
         }
+        handler.sendFrame(new EncodedFrame(new HistoryResponse(request.getPeer(), page.startOffset(), page.messages())));
+    }
+
+    private void notifySender(Message message, String notice) {
+        Message reply = new Message("SERVER", message.getSender(), notice);
+        ClientConnection sender = clients.get(message.getSender());
+        ClusterNode cluster = this.cluster;
+        if (sender != null) {
+            sender.sendMessage(reply);
+        } else if (cluster != null) {
+            // The sender is on the node that forwarded the message
+            cluster.forward(reply);
+        }
+    }
+
+    /**
+     * Queues the next part of a client's journaled backlog, up to half its outbound queue.
+     * Connections call this once they are registered and again whenever their outbound queue has
+     * drained, so a large backlog is streamed without overflowing the queue.
+     */
+    public void deliverBacklog(ClientConnection handler) {
+        OfflineJournal journal = this.journal;
+        String name = handler.getClientName();
+        if (journal == null || name == null || !journal.isReplaying(name) || clients.get(name) != handler) {
+            return;
+        }
+        int limit = Math.max(1, config.getOutboundQueueCapacity() / 2);
+        journal.replay(name, message -> {
+            if (handler.getOutboundQueueDepth() >= limit) {
+                return false;
+            }
+            handler.sendMessage(message);
+            metrics.messageReplayed();
+            return true;
+        });
+    }
+
+    void broadcast(EncodedFrame frame) {
+        long start = System.nanoTime();
+        clients.forEach((name, handler) -> handler.sendFrame(frame));
+        metrics.fanOutCompleted(System.nanoTime() - start);
     }
 
     public void broadcast(Message message, String excludeClient) {
+        broadcast(message, excludeClient, null);
+    }
+
+    private void broadcast(Message message, String excludeClient, CreditWindow credit) {
+        // Encoded once, then every recipient writes the same bytes; other nodes get one copy each
+        EncodedFrame frame = new EncodedFrame(message);
+        ClusterNode cluster = this.cluster;
+        if (cluster != null) {
+            cluster.broadcast(frame);
+        }
+        broadcastLocal(frame, excludeClient, credit);
+    }
+
+    private void broadcastLocal(EncodedFrame frame, String excludeClient, CreditWindow credit) {
+        long start = System.nanoTime();
         clients.forEach((name, handler) -> {
             if (excludeClient == null || !name.equals(excludeClient)) {
-                handler.sendMessage(message);
+                handler.sendFrame(frame);
+                queued(handler, credit);
             }
         });
+        metrics.fanOutCompleted(System.nanoTime() - start);
     }
 }
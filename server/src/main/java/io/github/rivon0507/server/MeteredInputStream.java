@@ -0,0 +1,34 @@
+package io.github.rivon0507.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Counts the bytes read from a socket. Sits below the buffering layer so it is hit once per
+// socket read rather than once per frame field.
+class MeteredInputStream extends FilterInputStream {
+    private final ServerMetrics metrics;
+
+    MeteredInputStream(InputStream in, ServerMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            metrics.bytesRead(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0) {
+            metrics.bytesRead(count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.rivon0507.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Counts the bytes written to a socket, below the buffering layer like MeteredInputStream
+class MeteredOutputStream extends FilterOutputStream {
+    private final ServerMetrics metrics;
+
+    MeteredOutputStream(OutputStream out, ServerMetrics metrics) {
+        super(out);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        metrics.bytesWritten(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write byte by byte
+        out.write(b, off, len);
+        metrics.bytesWritten(len);
+    }
+}
@@ -0,0 +1,487 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.ConnectionRequest;
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.DisconnectRequest;
+import io.github.rivon0507.common.FrameCompressor;
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.Heartbeat;
+import io.github.rivon0507.common.HistoryRequest;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.MessageAck;
+import io.github.rivon0507.common.RoomRequest;
+import io.github.rivon0507.common.RosterRequest;
+import io.github.rivon0507.common.WireCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Non-blocking counterpart of ClientHandler. All I/O and state changes happen on the owning
+// event loop; other threads only enqueue frames and ask the loop to flush.
+class NioClientConnection implements ClientConnection {
+    private static final int INITIAL_READ_BUFFER_SIZE = 8 * 1024;
+    // Frames handed to a single gathering write
+    private static final int MAX_GATHERED_FRAMES = 64;
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final MessageServer server;
+    private final OutboundQueue outbound;
+    // Admitted by the engine's HandshakeGate; done once the client is registered or the connection closes
+    private final HandshakeGate.Handshake handshake;
+    // Set once registered, null when heartbeats are off
+    private IdleWheel.Watch idleWatch;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    // Frames taken off the queue for the current gathering write, [batchStart, batchEnd) still
+    // pending; once taken they are never visible to DROP_OLDEST
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHERED_FRAMES];
+    private int batchStart;
+    private int batchEnd;
+    private volatile long framesWritten;
+    private volatile long writeCalls;
+    private volatile WireCodec codec;
+    // Set at handshake when both sides agreed to compression, null otherwise
+    private volatile FrameCompressor compressor;
+    private volatile String clientName;
+    private volatile boolean closed = false;
+    private boolean registered = false;
+    // Set while a cluster name claim runs off the loop; reading is paused until it completes
+    private boolean handshakePending = false;
+    private String closeAfterFlush;
+    // Messages read from the client and the sequence number last acknowledged; only the loop
+    // touches them
+    private long messagesReceived;
+    private long messagesAcknowledged;
+    // Records and counts the frames sent when the session can be resumed, null otherwise
+    private volatile SessionReplay replay;
+    // The client said goodbye or the server closed the session, so it is not kept for resuming
+    private volatile boolean sessionEnded;
+    // Null when flow control is off; reading is paused while the client is out of credit
+    private CreditWindow credit;
+    private boolean readPaused;
+    // Set once a turn routed its quota of messages; the rest of the read buffer waits until the
+    // other connections of the loop have had theirs
+    private boolean yielded;
+
+    NioClientConnection(NioEventLoop loop, SocketChannel channel, SelectionKey key, MessageServer server,
+                        HandshakeGate.Handshake handshake) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.server = server;
+        this.handshake = handshake;
+        ServerConfig config = server.getConfig();
+        // Blocking would stall a whole event loop, so BLOCK degrades to DROP_OLDEST here; see
+        // ServerConfig.getResumeGraceMillis() for the other exception
+        OverflowPolicy policy = config.getResumeGraceMillis() > 0 ? OverflowPolicy.DISCONNECT
+                : config.getOverflowPolicy() == OverflowPolicy.BLOCK ? OverflowPolicy.DROP_OLDEST : config.getOverflowPolicy();
+        this.outbound = new OutboundQueue(config.getOutboundQueueCapacity(), policy, 0, server.getMetrics());
+        server.getMetrics().connectionOpened();
+    }
+
+    void handleRead() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            ServerLog.error("Error handling client: " + e.getMessage());
+            close("Client disconnected");
+            return;
+        }
+        if (read < 0) {
+            close("Client disconnected");
+            return;
+        }
+        server.getMetrics().bytesRead(read);
+        if (idleWatch != null) {
+            idleWatch.touch();
+        }
+        processFrames();
+    }
+
+    // Handles every complete frame in the read buffer
+    private void processFrames() {
+        readBuffer.flip();
+        try {
+            // The client opens with the id of the codec it will use for every frame
+            if (codec == null && readBuffer.hasRemaining()) {
+                codec = WireCodec.forId(readBuffer.get());
+                if (codec == null) {
+                    close("Unsupported codec");
+                    return;
+                }
+            }
+            long turnStart = messagesReceived;
+            ByteBuffer payload;
+            while (codec != null && !closed && !handshakePending && !readPaused && !yielded && closeAfterFlush == null && (payload = Frames.next(readBuffer, compressor)) != null) {
+                handleFrame(codec.decode(payload));
+                if (messagesReceived - turnStart >= MessageServer.ROUTING_QUANTUM && !closed) {
+                    yielded = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    // Queued behind the keys already selected, so their connections go first
+                    loop.execute(this::nextTurn);
+                }
+            }
+            // One acknowledgement covers every delivered message of the batch
+            if (messagesAcknowledged < messagesReceived && !closed) {
+                acknowledge(MessageAck.Status.DELIVERED);
+            }
+            if (credit != null && !closed) {
+                credit.replenish();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error handling client: " + e.getMessage());
+            close("Client disconnected");
+            return;
+        } catch (RuntimeException e) {
+            // Also reached from tasks the loop runs for this connection, so it closes itself here
+            ServerLog.error("Error handling client " + clientName + ": " + e);
+            close("Internal server error");
+            return;
+        }
+        readBuffer.compact();
+
+        // A frame larger than the buffer: grow it, Frames.next() has already bounded the length. A
+        // buffer full of frames left for later is not one.
+        if (!readBuffer.hasRemaining() && !readPaused && !yielded) {
+            ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    // Acknowledges the last message read, and with it every earlier one not acknowledged yet.
+    // Acknowledgements belong to the connection, so a resumed session neither counts nor resends
+    // them.
+    private void acknowledge(MessageAck.Status status) {
+        enqueue(new EncodedFrame(new MessageAck(messagesReceived, status)));
+        messagesAcknowledged = messagesReceived;
+    }
+
+    // Queues a grant of credit, from any thread, and resumes reading on the loop
+    private void grant(EncodedFrame frame) {
+        enqueue(frame);
+        loop.execute(this::resumeReading);
+    }
+
+    private void resumeReading() {
+        if (closed || !readPaused || !credit.hasCredit()) {
+            return;
+        }
+        readPaused = false;
+        if (idleWatch != null) {
+            idleWatch.release();
+        }
+        if (!yielded) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            // Frames read before reading was paused
+            processFrames();
+        }
+    }
+
+    private void nextTurn() {
+        if (closed || !yielded) {
+            return;
+        }
+        yielded = false;
+        if (!readPaused && !handshakePending) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        processFrames();
+    }
+
+    void handleWrite() {
+        flush();
+    }
+
+    private void handleFrame(Object frame) {
+        if (!registered) {
+            if (!(frame instanceof ConnectionRequest request)) {
+                close("Invalid connection request");
+                return;
+            }
+
+            clientName = request.getClientName();
+            String invalidName = MessageServer.invalidNameReason(clientName);
+            if (invalidName != null) {
+                server.getMetrics().handshakeRejected();
+                sendConnectionResponse(false, invalidName, server.getConnectedClients());
+                closeAfterFlush = invalidName;
+                return;
+            }
+            ServerConfig config = server.getConfig();
+            if (request.isCompression() && config.isCompression()) {
+                compressor = new FrameCompressor(config.getCompressionThreshold());
+            }
+            credit = server.openCredit(this::grant);
+            if (credit != null) {
+                credit.open();
+            }
+            // A returning client picks up its session without a roster snapshot or a join notice
+            SessionReplay session = server.findSession(request);
+            if (session != null) {
+                // Set first so frames routed to the client during the handover are counted
+                replay = session;
+                if (server.resumeClient(this, session, request.getFramesReceived(), this::enqueue)) {
+                    registered = true;
+                    handshake.done();
+                    watchIdle();
+                    server.deliverBacklog(this);
+                    return;
+                }
+                replay = null;
+            }
+            if (!server.isClustered()) {
+                completeHandshake(register());
+                return;
+            }
+            // Claiming the name waits on the other cluster nodes, which must not stall this loop
+            handshakePending = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            Thread.ofVirtual().start(() -> {
+                boolean accepted = register();
+                loop.execute(() -> {
+                    handshakePending = false;
+                    if (closed) {
+                        if (accepted) {
+                            server.clientDisconnected(this, replay, true);
+                        }
+                        return;
+                    }
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    completeHandshake(accepted);
+                    // Frames the client sent while the claim was running
+                    processFrames();
+                });
+            });
+        } else if (frame instanceof Message message) {
+            MessageAck.Status status = server.handleMessage(this, message, credit);
+            messagesReceived++;
+            if (status != MessageAck.Status.DELIVERED) {
+                acknowledge(status);
+            }
+            if (credit != null) {
+                credit.messageReceived();
+                if (!credit.hasCredit()) {
+                    // Left in the read buffer and the socket until the recipients catch up; not
+                    // reading from the client says nothing about whether it is still there
+                    readPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    if (idleWatch != null) {
+                        idleWatch.hold();
+                    }
+                }
+            }
+        } else if (frame instanceof RosterRequest) {
+            server.sendRoster(this, "Client list");
+        } else if (frame instanceof HistoryRequest request) {
+            // Older pages come from disk, read by the server's history readers off this loop
+            server.requestHistory(this, request);
+        } else if (frame instanceof RoomRequest request) {
+            if (request.isJoin()) {
+                server.joinRoom(this, request.getRoom());
+            } else {
+                server.leaveRoom(this, request.getRoom());
+            }
+        } else if (frame instanceof Heartbeat heartbeat) {
+            if (!heartbeat.isReply()) {
+                enqueue(MessageServer.HEARTBEAT_REPLY);
+            }
+        } else if (frame instanceof DisconnectRequest) {
+            sessionEnded = true;
+            close("Client disconnected");
+        }
+    }
+
+    // Safe off the loop: the roster response is only queued
+    private boolean register() {
+        replay = server.openSession(clientName, this, this::enqueue);
+        if (!server.registerClient(clientName, this, replay)) {
+            replay = null;
+            return false;
+        }
+        // Queued right away so it stays ahead of messages routed to the new client
+        server.sendRoster(this, "Connected successfully");
+        return true;
+    }
+
+    private void completeHandshake(boolean accepted) {
+        if (!accepted) {
+            sendConnectionResponse(false, "Name already in use", server.getConnectedClients());
+            closeAfterFlush = "Name already in use";
+            return;
+        }
+        registered = true;
+        handshake.done();
+        watchIdle();
+        server.deliverBacklog(this);
+        server.broadcast(new Message("SERVER", "ALL", clientName + " has joined the chat."), null);
+    }
+
+    // A silent client is sent heartbeats and, when it does not answer, dropped like a broken
+    // connection
+    private void watchIdle() {
+        idleWatch = server.watchIdle(() -> enqueue(MessageServer.HEARTBEAT_PROBE),
+                () -> loop.execute(() -> close("No heartbeat from client")));
+    }
+
+    @Override
+    public void disconnect(String reason) {
+        sessionEnded = true;
+        loop.execute(() -> close(reason));
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+        sendFrame(new EncodedFrame(message));
+    }
+
+    @Override
+    public void sendConnectionResponse(boolean success, String message, List<String> clients) {
+        sendFrame(new EncodedFrame(new ConnectionResponse(success, message, clients)));
+    }
+
+    @Override
+    public void sendFrame(EncodedFrame encodedFrame) {
+        SessionReplay replay = this.replay;
+        if (replay != null) {
+            replay.send(encodedFrame);
+        } else {
+            enqueue(encodedFrame);
+        }
+    }
+
+    private void enqueue(EncodedFrame encodedFrame) {
+        if (closed) {
+            return;
+        }
+        ByteBuffer frame;
+        try {
+            frame = encodedFrame.bufferFor(codec, compressor);
+        } catch (IOException e) {
+            ServerLog.error("Error sending message to " + clientName + ": " + e.getMessage());
+            return;
+        }
+        if (!outbound.offer(frame)) {
+            loop.execute(() -> close("Outbound queue full"));
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        // Cleared before draining so frames enqueued meanwhile schedule another flush
+        flushScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        try {
+            // Everything queued since the last flush leaves in as few gathering writes as possible
+            while (batchStart < batchEnd || fillBatch()) {
+                server.getMetrics().bytesWritten(channel.write(batch, batchStart, batchEnd - batchStart));
+                writeCalls++;
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                    framesWritten++;
+                }
+                server.outboundWritten(this);
+                if (batchStart < batchEnd) {
+                    // Socket buffer is full, resume when the selector reports it writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (registered) {
+                server.deliverBacklog(this);
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error sending message to " + clientName + ": " + e.getMessage());
+            close("Error sending message");
+            return;
+        }
+        if (closeAfterFlush != null) {
+            close(closeAfterFlush);
+        }
+    }
+
+    private boolean fillBatch() {
+        batchStart = 0;
+        batchEnd = 0;
+        ByteBuffer frame;
+        while (batchEnd < batch.length && (frame = outbound.poll()) != null) {
+            batch[batchEnd++] = frame;
+        }
+        return batchEnd > 0;
+    }
+
+    void close(String reason) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        server.getMetrics().connectionClosed();
+        handshake.done();
+        if (idleWatch != null) {
+            idleWatch.cancel();
+        }
+        if (credit != null) {
+            credit.close();
+        }
+        outbound.clear();
+        Arrays.fill(batch, null);
+        batchStart = 0;
+        batchEnd = 0;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ServerLog.error("Error closing connection: " + e.getMessage());
+        }
+
+        if (registered) {
+            server.clientDisconnected(this, replay, sessionEnded);
+        }
+        ServerLog.info("Connection closed with " + clientName + ": " + reason);
+    }
+
+    @Override
+    public boolean isCompressionEnabled() {
+        return compressor != null;
+    }
+
+    @Override
+    public String getClientName() {
+        return clientName;
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return outbound.size() + (batchEnd - batchStart);
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return outbound.getDropped();
+    }
+}
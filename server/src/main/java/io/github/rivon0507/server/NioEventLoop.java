@@ -0,0 +1,134 @@
+package io.github.rivon0507.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// A single selector thread that owns a subset of the NIO engine's connections
+class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final MessageServer server;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    NioEventLoop(String name, MessageServer server) throws IOException {
+        this.selector = Selector.open();
+        this.server = server;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    // Runs the task on this loop's thread; safe to call from any thread
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    void register(SocketChannel channel, HandshakeGate.Handshake handshake) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioClientConnection connection = new NioClientConnection(this, channel, key, server, handshake);
+                key.attach(connection);
+                handshake.startDeadline(() -> connection.disconnect("Handshake timed out"));
+            } catch (IOException | RuntimeException e) {
+                ServerLog.error("Error registering client: " + e.getMessage());
+                handshake.done();
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // Tasks queued from this thread did not wake the selector, so don't block on them
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientConnection connection = (NioClientConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.handleRead();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.handleWrite();
+                        }
+                    } catch (RuntimeException e) {
+                        // A bug handling one client must not take the loop and its other clients down
+                        ServerLog.error("Error handling client " + connection.getClientName() + ": " + e);
+                        closeAfterError(connection, key);
+                    }
+                }
+                runTasks();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Event loop error: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioClientConnection connection) {
+                    connection.close("Server stopped");
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                ServerLog.error("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Connections close themselves when their own tasks fail, see NioClientConnection
+                ServerLog.error("Event loop task failed: " + e);
+            }
+        }
+    }
+
+    // Closes a connection whose handler failed, dropping the socket even when closing fails too
+    private static void closeAfterError(NioClientConnection connection, SelectionKey key) {
+        try {
+            connection.close("Internal server error");
+        } catch (RuntimeException e) {
+            ServerLog.error("Error closing connection: " + e);
+            key.cancel();
+            closeQuietly((SocketChannel) key.channel());
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.rivon0507.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Accepts on a few threads and spreads connections round-robin over a fixed set of selector event
+// loops, so the number of threads no longer grows with the number of clients.
+public class NioServerEngine implements ServerEngine {
+    private final int port;
+    private final MessageServer server;
+    private final int eventLoopThreads;
+    private final HandshakeGate handshakes;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] loops;
+    private volatile boolean running = false;
+
+    public NioServerEngine(int port, MessageServer server, int eventLoopThreads) {
+        this.port = port;
+        this.server = server;
+        this.eventLoopThreads = eventLoopThreads;
+        ServerConfig config = server.getConfig();
+        this.handshakes = new HandshakeGate(config.getMaxPendingHandshakes(), config.getHandshakeTimeoutMillis(), server.getMetrics());
+    }
+
+    @Override
+    public void start() throws IOException {
+        ServerConfig config = server.getConfig();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), config.getAcceptBacklog());
+
+        loops = new NioEventLoop[eventLoopThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("nio-event-loop-" + i, server);
+            loops[i].start();
+        }
+        running = true;
+        ServerLog.info("Server started on port " + port + " (NIO, " + loops.length + " event loops)");
+
+        // The calling thread is one of the acceptors
+        for (int i = 1; i < config.getAcceptorThreads(); i++) {
+            Thread.ofPlatform().daemon().name("acceptor-" + i).start(() -> {
+                try {
+                    acceptLoop();
+                } catch (IOException e) {
+                    if (running) {
+                        ServerLog.error("Error accepting connections: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        acceptLoop();
+    }
+
+    private void acceptLoop() throws IOException {
+        while (running) {
+            SocketChannel channel = serverChannel.accept();
+            HandshakeGate.Handshake handshake = handshakes.admit();
+            if (handshake == null) {
+                refuse(channel);
+                continue;
+            }
+            try {
+                ServerLog.info("New client connected: " + channel.socket().getInetAddress().getHostAddress());
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                // Reset by the client already; not worth stopping the acceptor for
+                handshake.done();
+                refuse(channel);
+                continue;
+            }
+            loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel, handshake);
+        }
+    }
+
+    // Resets the connection rather than closing it gracefully, so it leaves nothing behind
+    private static void refuse(SocketChannel channel) {
+        try {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            channel.close();
+        } catch (IOException ignored) {
+            // Already gone
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error stopping server: " + e.getMessage());
+        }
+        if (loops != null) {
+            for (NioEventLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+        }
+        handshakes.shutdown();
+    }
+}
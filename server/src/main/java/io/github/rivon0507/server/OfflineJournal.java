@@ -0,0 +1,437 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.Message;
+import io.github.rivon0507.common.WireCodec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Store-and-forward journal for private messages whose recipient is offline.
+ * <p>
+ * Messages are appended, binary-encoded, to memory-mapped segment files and indexed in memory by
+ * recipient. When the recipient connects, its backlog is replayed oldest first in chunks and each
+ * replayed record is marked delivered in place. A segment is deleted once nothing in it is
+ * pending, and sealed segments that are mostly delivered are compacted by copying their pending
+ * records forward. The journal therefore only grows with the undelivered backlog, and every write
+ * is an append to the active segment.
+ * <p>
+ * Only clients that have registered with this server before get messages journaled, so sending to
+ * made-up names stores nothing; their names are kept in a file of their own. Each recipient has
+ * at most maxPerRecipient messages waiting and the pending records at most maxBytes in all. A
+ * message waiting longer than the TTL expires: it is skipped on replay, and every roll expires
+ * the whole journal before compacting, so its segments are freed like delivered ones. As sealed
+ * segments are compacted once less than a quarter of them is pending, the files stay within
+ * about four times maxBytes plus the active segment. Refused and expired messages are counted in
+ * the server metrics.
+ * <p>
+ * The index is rebuilt from the segment files at startup. Delivery is at most once: a record is
+ * marked delivered as soon as it is queued for its recipient. A sealed segment is flushed to disk
+ * by a background thread, so rolling never waits for the disk on the thread routing the message.
+ */
+public class OfflineJournal {
+    private static final String SUFFIX = ".journal";
+    private static final String RECIPIENTS_FILE = "recipients";
+    // Sealed segments with less than this share of pending bytes are compacted
+    private static final int COMPACT_LIVE_PERCENT = 25;
+    // How long close() waits for the sealed segments still being flushed
+    private static final long FLUSH_TIMEOUT_SECONDS = 5;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long ttlMillis;
+    private final int maxPerRecipient;
+    private final long maxBytes;
+    private final ServerMetrics metrics;
+    // Clients that have registered with this server at some point, the only ones journaled for
+    private final Set<String> recipients = ConcurrentHashMap.newKeySet();
+    // Guarded by lock
+    private final DataOutputStream recipientsOut;
+    // A ReentrantLock rather than synchronized, which would pin the carrier of a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ArrayDeque<Entry>> pending = new HashMap<>();
+    // Recipients that are online but still have a backlog; their new messages queue behind it
+    private final Set<String> replaying = ConcurrentHashMap.newKeySet();
+    private final List<JournalSegment> sealed = new ArrayList<>();
+    // Forces sealed segments to disk in the order they were sealed
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private JournalSegment active;
+    private long nextSequence;
+    private boolean closed;
+
+    // What append() did with a message
+    public enum Result {
+        STORED,
+        // The recipient never registered with this server
+        UNKNOWN_RECIPIENT,
+        // The recipient has maxPerRecipient messages waiting, or the journal holds maxBytes
+        FULL
+    }
+
+    public OfflineJournal(Path directory, int segmentSize, long ttlMillis, int maxPerRecipient, long maxBytes,
+                          ServerMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.ttlMillis = ttlMillis;
+        this.maxPerRecipient = maxPerRecipient;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+        Files.createDirectories(directory);
+        recoverRecipients();
+        recover();
+        recipientsOut = new DataOutputStream(Files.newOutputStream(directory.resolve(RECIPIENTS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    private void recoverRecipients() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(RECIPIENTS_FILE))))) {
+            while (true) {
+                recipients.add(in.readUTF());
+            }
+        } catch (NoSuchFileException | EOFException e) {
+            // No recipient yet, or the end of the file
+        } catch (UTFDataFormatException e) {
+            ServerLog.error("Journal recipients file is corrupt, ignoring the rest: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called when a client registers: from now on private messages to it are journaled while it is
+     * offline. Writes its name down the first time only.
+     */
+    public void addRecipient(String name) {
+        if (recipients.contains(name)) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed || !recipients.add(name)) {
+                return;
+            }
+            recipientsOut.writeUTF(name);
+            recipientsOut.flush();
+        } catch (IOException e) {
+            // Still journaled for until the server restarts
+            ServerLog.error("Error recording journal recipient " + name + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            JournalSegment segment = JournalSegment.open(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file, 0);
+            scan(segment);
+            if (active != null) {
+                retire(active);
+            }
+            active = segment;
+        }
+        if (active == null) {
+            active = JournalSegment.open(0, JournalSegment.fileFor(directory, 0), segmentSize);
+        }
+        // Compaction may have copied records forward, so file order is not message order
+        for (ArrayDeque<Entry> queue : pending.values()) {
+            List<Entry> entries = new ArrayList<>(queue);
+            entries.sort(Comparator.comparingLong(Entry::sequence));
+            queue.clear();
+            queue.addAll(entries);
+        }
+        expire(System.currentTimeMillis());
+        int backlog = pending.values().stream().mapToInt(ArrayDeque::size).sum();
+        if (backlog > 0) {
+            ServerLog.info("Journal recovered " + backlog + " undelivered messages for " + pending.size() + " recipients");
+        }
+    }
+
+    private void scan(JournalSegment segment) {
+        int offset = 0;
+        while (offset + JournalSegment.RECORD_HEADER_LENGTH + Frames.HEADER_LENGTH <= segment.capacity()) {
+            byte state = segment.stateAt(offset);
+            if (state == JournalSegment.END) {
+                break;
+            }
+            int recordLength = JournalSegment.RECORD_HEADER_LENGTH + segment.frameLengthAt(offset);
+            if ((state != JournalSegment.PENDING && state != JournalSegment.DELIVERED)
+                    || recordLength < JournalSegment.RECORD_HEADER_LENGTH + Frames.HEADER_LENGTH
+                    || offset + recordLength > segment.capacity()) {
+                ServerLog.error("Journal segment " + segment.getId() + " is corrupt at offset " + offset + ", ignoring the rest");
+                break;
+            }
+            long sequence = segment.sequenceAt(offset);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (state == JournalSegment.PENDING) {
+                Entry entry = new Entry(segment, offset, recordLength, sequence, segment.storedAt(offset));
+                try {
+                    Message message = decode(entry);
+                    pending.computeIfAbsent(message.getDestination(), _ -> new ArrayDeque<>()).add(entry);
+                    recipients.add(message.getDestination());
+                    segment.countLive(recordLength);
+                } catch (IOException e) {
+                    ServerLog.error("Skipping unreadable journal record: " + e.getMessage());
+                }
+            }
+            offset += recordLength;
+        }
+        segment.setWritePosition(offset);
+    }
+
+    // Journals a message for its offline recipient, unless the recipient is unknown or over a cap
+    public Result append(Message message) throws IOException {
+        String recipient = message.getDestination();
+        if (!recipients.contains(recipient)) {
+            metrics.journalRejected();
+            return Result.UNKNOWN_RECIPIENT;
+        }
+        ByteBuffer frame = WireCodec.BINARY.encode(message);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            long now = System.currentTimeMillis();
+            int recordLength = JournalSegment.RECORD_HEADER_LENGTH + frame.remaining();
+            ArrayDeque<Entry> queue = pending.get(recipient);
+            if (queue != null) {
+                expire(recipient, queue, now);
+            }
+            if ((queue != null && queue.size() >= maxPerRecipient) || liveBytes() + recordLength > maxBytes) {
+                metrics.journalRejected();
+                return Result.FULL;
+            }
+            if (active.remaining() < recordLength) {
+                roll(recordLength, now);
+            }
+            long sequence = nextSequence++;
+            int offset = active.append(sequence, now, frame);
+            pending.computeIfAbsent(recipient, _ -> new ArrayDeque<>())
+                    .add(new Entry(active, offset, recordLength, sequence, now));
+            return Result.STORED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called when the recipient comes online: from now on its new messages go through the journal
+    // until the backlog has been replayed
+    public void startReplay(String recipient) {
+        lock.lock();
+        try {
+            if (pending.containsKey(recipient)) {
+                replaying.add(recipient);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isReplaying(String recipient) {
+        return replaying.contains(recipient);
+    }
+
+    /**
+     * Hands the recipient's pending messages, oldest first, to the sink for as long as it accepts
+     * them, marking each accepted one delivered. Returns true while more are pending; emptying the
+     * backlog ends the replay.
+     */
+    public boolean replay(String recipient, Predicate<Message> sink) {
+        lock.lock();
+        try {
+            ArrayDeque<Entry> queue = pending.get(recipient);
+            if (queue != null) {
+                expire(recipient, queue, System.currentTimeMillis());
+            }
+            while (queue != null && !queue.isEmpty()) {
+                Entry entry = queue.peek();
+                try {
+                    if (!sink.test(decode(entry))) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    ServerLog.error("Skipping unreadable journal record: " + e.getMessage());
+                }
+                discard(queue.poll());
+            }
+            if (queue == null || queue.isEmpty()) {
+                pending.remove(recipient);
+                replaying.remove(recipient);
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            if (!closed) {
+                closed = true;
+                active.force();
+                recipientsOut.close();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error closing journal recipients file: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                ServerLog.error("Timed out flushing journal segments");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void roll(int minimumSize, long now) throws IOException {
+        JournalSegment previous = active;
+        active = JournalSegment.open(previous.getId() + 1, JournalSegment.fileFor(directory, previous.getId() + 1),
+                Math.max(segmentSize, minimumSize));
+        retire(previous);
+        if (sealed.contains(previous)) {
+            flush(previous);
+        }
+        expire(now);
+        compact();
+    }
+
+    // Only the records' state bytes change once a segment is sealed, and forcing the mapping while
+    // they do is safe, so the flusher needs no lock
+    private void flush(JournalSegment segment) {
+        flusher.execute(() -> {
+            try {
+                segment.force();
+            } catch (RuntimeException e) {
+                ServerLog.error("Error flushing journal segment " + segment.getId() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // Drops every message past the TTL, so compaction finds their segments freed
+    private void expire(long now) {
+        for (Map.Entry<String, ArrayDeque<Entry>> recipient : List.copyOf(pending.entrySet())) {
+            expire(recipient.getKey(), recipient.getValue(), now);
+        }
+    }
+
+    // Queues are in the order messages were stored, so the expired ones are at the head
+    private void expire(String recipient, ArrayDeque<Entry> queue, long now) {
+        while (!queue.isEmpty() && now - queue.peek().storedAt() > ttlMillis) {
+            discard(queue.poll());
+            metrics.journalExpired();
+        }
+        if (queue.isEmpty()) {
+            pending.remove(recipient);
+            replaying.remove(recipient);
+        }
+    }
+
+    // Marks a record no longer pending, deleting its sealed segment once nothing in it is
+    private void discard(Entry entry) {
+        entry.segment().markDelivered(entry.offset(), entry.length());
+        if (entry.segment() != active && entry.segment().getLiveRecords() == 0) {
+            sealed.remove(entry.segment());
+            delete(entry.segment());
+        }
+    }
+
+    private long liveBytes() {
+        long bytes = active.getLiveBytes();
+        for (JournalSegment segment : sealed) {
+            bytes += segment.getLiveBytes();
+        }
+        return bytes;
+    }
+
+    private void retire(JournalSegment segment) {
+        if (segment.getLiveRecords() == 0) {
+            delete(segment);
+        } else {
+            sealed.add(segment);
+        }
+    }
+
+    // Copies the pending records of mostly delivered segments into the active one, keeping each
+    // recipient's order, then drops the old files
+    private void compact() {
+        for (JournalSegment segment : List.copyOf(sealed)) {
+            if (segment.getLiveBytes() * 100 >= (long) segment.capacity() * COMPACT_LIVE_PERCENT
+                    || segment.getLiveBytes() > active.remaining()) {
+                continue;
+            }
+            for (ArrayDeque<Entry> queue : pending.values()) {
+                for (int i = queue.size(); i > 0; i--) {
+                    Entry entry = queue.poll();
+                    if (entry.segment() == segment) {
+                        int headerLength = JournalSegment.RECORD_HEADER_LENGTH;
+                        ByteBuffer frame = segment.slice(entry.offset() + headerLength, entry.length() - headerLength);
+                        int offset = active.append(entry.sequence(), entry.storedAt(), frame);
+                        segment.markDelivered(entry.offset(), entry.length());
+                        entry = new Entry(active, offset, entry.length(), entry.sequence(), entry.storedAt());
+                    }
+                    queue.add(entry);
+                }
+            }
+            sealed.remove(segment);
+            delete(segment);
+        }
+    }
+
+    private void delete(JournalSegment segment) {
+        try {
+            segment.delete();
+        } catch (IOException e) {
+            ServerLog.error("Error deleting journal segment " + segment.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private static Message decode(Entry entry) throws IOException {
+        int payloadOffset = entry.offset() + JournalSegment.RECORD_HEADER_LENGTH + Frames.HEADER_LENGTH;
+        int payloadLength = entry.length() - JournalSegment.RECORD_HEADER_LENGTH - Frames.HEADER_LENGTH;
+        if (!(WireCodec.BINARY.decode(entry.segment().slice(payloadOffset, payloadLength)) instanceof Message message)) {
+            throw new StreamCorruptedException("Journal record is not a message");
+        }
+        return message;
+    }
+
+    private record Entry(JournalSegment segment, int offset, int length, long sequence, long storedAt) {
+    }
+}
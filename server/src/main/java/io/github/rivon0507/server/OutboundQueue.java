@@ -0,0 +1,82 @@
+package io.github.rivon0507.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded queue of encoded frames waiting to be written to one client
+class OutboundQueue {
+    private final BlockingQueue<ByteBuffer> queue;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final LongAdder dropped = new LongAdder();
+    private final ServerMetrics metrics;
+
+    OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis, ServerMetrics metrics) {
+        // Linked rather than array-backed so idle clients don't hold a full-capacity array each
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.metrics = metrics;
+    }
+
+    // Returns false when the policy asks for the slow client to be disconnected
+    boolean offer(ByteBuffer frame) {
+        if (queue.offer(frame)) {
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST -> {
+                while (!queue.offer(frame)) {
+                    if (queue.poll() != null) {
+                        drop();
+                    }
+                }
+                return true;
+            }
+            case DISCONNECT -> {
+                drop();
+                return false;
+            }
+            case BLOCK -> {
+                try {
+                    if (!queue.offer(frame, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        drop();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop();
+                }
+                return true;
+            }
+            default -> throw new IllegalStateException("Unknown overflow policy: " + policy);
+        }
+    }
+
+    private void drop() {
+        dropped.increment();
+        metrics.deliveryFailed();
+    }
+
+    ByteBuffer take() throws InterruptedException {
+        return queue.take();
+    }
+
+    ByteBuffer poll() {
+        return queue.poll();
+    }
+
+    void clear() {
+        queue.clear();
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.rivon0507.server;
+
+// What a client's outbound queue does when a new frame arrives and the queue is full
+public enum OverflowPolicy {
+    // Discard the oldest queued frame to make room
+    DROP_OLDEST,
+    // Close the connection of the slow client
+    DISCONNECT,
+    // Wait up to the configured timeout for room, then discard the new frame
+    BLOCK
+}
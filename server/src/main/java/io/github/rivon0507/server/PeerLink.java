@@ -0,0 +1,194 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.FrameReader;
+import io.github.rivon0507.common.FrameWriter;
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.PeerHello;
+import io.github.rivon0507.common.PeerProof;
+import io.github.rivon0507.common.WireCodec;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Server-to-server connection to one other cluster node. Both sides open with a PeerHello carrying
+// their node id and a random challenge, and answer the other's challenge with a PeerProof keyed
+// with the cluster secret; a side that cannot prove it holds the secret is dropped before it can
+// claim names or forward messages. The link then carries roster changes, name claims and forwarded
+// messages, all in the binary codec. Like ClientHandler, other threads only enqueue and one
+// writer thread owns the stream.
+class PeerLink {
+    private static final WireCodec CODEC = WireCodec.BINARY;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int NONCE_BYTES = 32;
+    // How long the other side has to prove itself before the link is dropped
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Socket socket;
+    private final ClusterNode cluster;
+    // The configured address this link was dialed to, null when it was accepted
+    private final InetSocketAddress dialedAddress;
+    private final SecretKeySpec secret;
+    private final OutboundQueue outbound;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private DataOutputStream out;
+    private FrameWriter frameWriter;
+    private volatile String nodeId;
+    private Thread writerThread;
+
+    PeerLink(Socket socket, ClusterNode cluster, InetSocketAddress dialedAddress, ServerConfig config, ServerMetrics metrics) {
+        this.socket = socket;
+        this.cluster = cluster;
+        this.dialedAddress = dialedAddress;
+        this.secret = new SecretKeySpec(config.getClusterSecret().getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        // A peer too slow to keep up would leave the rosters diverged, so it is dropped and redialed
+        this.outbound = new OutboundQueue(config.getOutboundQueueCapacity() * 4, OverflowPolicy.DISCONNECT, 0, metrics);
+    }
+
+    // Runs the handshake and then reads until the link closes; called on the link's own thread
+    void run() {
+        try {
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            FrameReader reader = new FrameReader(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+            frameWriter = new FrameWriter(out, cluster.getConfig().getMaxFlushDelayMicros() * 1000);
+
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            byte[] nonce = new byte[NONCE_BYTES];
+            RANDOM.nextBytes(nonce);
+            Frames.write(out, CODEC.encode(new PeerHello(cluster.getNodeId(), nonce)));
+            out.flush();
+            if (!(reader.read(CODEC, null) instanceof PeerHello hello) || hello.getNodeId() == null
+                    || hello.getNonce() == null || hello.getNonce().length != NONCE_BYTES) {
+                close("Invalid cluster handshake");
+                return;
+            }
+            Frames.write(out, CODEC.encode(new PeerProof(mac(cluster.getNodeId(), hello.getNonce(), nonce))));
+            out.flush();
+            if (!(reader.read(CODEC, null) instanceof PeerProof proof) || proof.getMac() == null
+                    || !MessageDigest.isEqual(proof.getMac(), mac(hello.getNodeId(), nonce, hello.getNonce()))) {
+                ServerLog.error("Cluster link from " + socket.getRemoteSocketAddress() + " rejected: wrong cluster secret");
+                close("Authentication failed");
+                return;
+            }
+            socket.setSoTimeout(0);
+            nodeId = hello.getNodeId();
+            writerThread = Thread.ofVirtual().name("peer-writer-" + nodeId).start(this::writeLoop);
+            if (!cluster.linkEstablished(this)) {
+                close("Duplicate link");
+                return;
+            }
+
+            while (!closed.get()) {
+                cluster.handleFrame(this, reader.read(CODEC, null));
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                ServerLog.error("Error on cluster link to " + (nodeId != null ? nodeId : socket.getRemoteSocketAddress()) + ": " + e.getMessage());
+            }
+        } finally {
+            close("Link closed");
+        }
+    }
+
+    /**
+     * What node prover answers to a challenge: a MAC over its node id, the challenge and its own
+     * challenge. Both challenges are fresh for every link, so a proof seen on one link is useless on
+     * another, and the prover's id keeps a node's own proof from being reflected back to it.
+     */
+    private byte[] mac(String prover, byte[] challenge, byte[] proverNonce) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            byte[] id = prover.getBytes(StandardCharsets.UTF_8);
+            mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(id.length).array());
+            mac.update(id);
+            mac.update(challenge);
+            mac.update(proverNonce);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // Every JDK provides HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void send(EncodedFrame encodedFrame) {
+        if (closed.get()) {
+            return;
+        }
+        ByteBuffer frame;
+        try {
+            frame = encodedFrame.bufferFor(CODEC);
+        } catch (IOException e) {
+            ServerLog.error("Error sending to node " + nodeId + ": " + e.getMessage());
+            return;
+        }
+        if (!outbound.offer(frame)) {
+            close("Outbound queue full");
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed.get()) {
+                frameWriter.writeBatch(outbound.take(), outbound::poll);
+            }
+        } catch (InterruptedException e) {
+            // Link closed
+        } catch (IOException e) {
+            if (!closed.get()) {
+                ServerLog.error("Error sending to node " + nodeId + ": " + e.getMessage());
+                close("Error sending");
+            }
+        }
+    }
+
+    void close(String reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (writerThread != null) {
+            writerThread.interrupt();
+        }
+        outbound.clear();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            ServerLog.error("Error closing cluster link: " + e.getMessage());
+        }
+        if (nodeId != null) {
+            cluster.linkClosed(this);
+            ServerLog.info("Cluster link to " + nodeId + " closed: " + reason);
+        }
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    // Id of the node at the other end, null until the handshake completes
+    String getNodeId() {
+        return nodeId;
+    }
+
+    InetSocketAddress getDialedAddress() {
+        return dialedAddress;
+    }
+
+    boolean isDialed() {
+        return dialedAddress != null;
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.PresenceUpdate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Collects joins and leaves for a short window and publishes them as one versioned delta.
+// Within a window the pending sets always describe the final state of every touched name, so a
+// delta can be applied on top of any snapshot taken at or after its base version.
+class PresenceTracker {
+    private final MessageServer server;
+    private final long coalesceMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Joined names with their session ids, 0 for clients of other cluster nodes
+    private final Map<String, Integer> joined = new LinkedHashMap<>();
+    private final Set<String> left = new LinkedHashSet<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long version = 0;
+    private boolean flushScheduled = false;
+
+    PresenceTracker(MessageServer server, long coalesceMillis) {
+        this.server = server;
+        this.coalesceMillis = coalesceMillis;
+    }
+
+    // Version of the last published delta; every change up to it is visible in the client map
+    long getVersion() {
+        return version;
+    }
+
+    void joined(String clientName, int sessionId) {
+        lock.lock();
+        try {
+            joined.put(clientName, sessionId);
+            scheduleFlush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void left(String clientName) {
+        lock.lock();
+        try {
+            // A name that joined within this window simply never appears
+            if (joined.remove(clientName) == null) {
+                left.add(clientName);
+            }
+            scheduleFlush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled && !scheduler.isShutdown()) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs on the single scheduler thread, so deltas are broadcast in version order
+    private void flush() {
+        PresenceUpdate update;
+        lock.lock();
+        try {
+            flushScheduled = false;
+            if (joined.isEmpty() && left.isEmpty()) {
+                return;
+            }
+            int[] joinedIds = new int[joined.size()];
+            int i = 0;
+            for (int sessionId : joined.values()) {
+                joinedIds[i++] = sessionId;
+            }
+            update = new PresenceUpdate(version + 1, new ArrayList<>(joined.keySet()), new ArrayList<>(left), joinedIds);
+            joined.clear();
+            left.clear();
+            version = update.getVersion();
+        } finally {
+            lock.unlock();
+        }
+        server.broadcast(new EncodedFrame(update));
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.rivon0507.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The message rate each client may sit at: the limit configured for its name, or else the global
+// one. Buckets belong to the registered connection, never to a name a message claims, so a client
+// cannot spend another's tokens or dodge its own limit. A bucket is created with the client's first
+// message, handed over when its session resumes on a new connection, and dropped when it leaves.
+class RateLimits {
+    private final int defaultRate;
+    private final int burst;
+    private final Map<String, Integer> rates;
+    private final Map<ClientConnection, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private RateLimits(int defaultRate, int burst, Map<String, Integer> rates) {
+        this.defaultRate = defaultRate;
+        this.burst = burst;
+        this.rates = rates;
+    }
+
+    // Null when no client is limited
+    static RateLimits of(ServerConfig config) {
+        boolean limited = config.getRateLimit() > 0 || config.getRateLimits().values().stream().anyMatch(rate -> rate > 0);
+        return limited ? new RateLimits(config.getRateLimit(), config.getRateBurst(), config.getRateLimits()) : null;
+    }
+
+    // Messages a second the client may send, 0 when it is not limited
+    int rateOf(ClientConnection handler) {
+        return rates.getOrDefault(handler.getClientName(), defaultRate);
+    }
+
+    boolean tryAcquire(ClientConnection handler) {
+        int rate = rateOf(handler);
+        if (rate == 0) {
+            return true;
+        }
+        return buckets.computeIfAbsent(handler, key -> new TokenBucket(rate, burst)).tryTake();
+    }
+
+    // Messages of the client refused since it was last told, 0 when it was told too recently
+    long refusedToReport(ClientConnection handler) {
+        TokenBucket bucket = buckets.get(handler);
+        return bucket != null ? bucket.refusedToReport() : 0;
+    }
+
+    // Keeps the tokens of a session resumed on a new connection
+    void replace(ClientConnection previous, ClientConnection handler) {
+        TokenBucket bucket = buckets.remove(previous);
+        if (bucket != null) {
+            buckets.put(handler, bucket);
+        }
+    }
+
+    void remove(ClientConnection handler) {
+        buckets.remove(handler);
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.rivon0507.server;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Sessions a client may resume with the token it was given at handshake. When the connection
+// of one drops, the client stays registered for the grace period with its name, session id and
+// rooms, and the frames sent to it are recorded; a client that comes back in time picks up where
+// it left off. Otherwise it leaves as if it had disconnected.
+class ResumableSessions {
+    private final long graceMillis;
+    private final int bufferFrames;
+    private final SecureRandom random = new SecureRandom();
+    // A name has at most one session
+    private final Map<String, SessionReplay> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ResumableSessions(long graceMillis, int bufferFrames) {
+        this.graceMillis = graceMillis;
+        this.bufferFrames = bufferFrames;
+    }
+
+    // A session for a client about to register; it can be resumed once added
+    SessionReplay open(String clientName, ClientConnection owner, Consumer<EncodedFrame> transport) {
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0);
+        return new SessionReplay(token, clientName, bufferFrames, owner, transport);
+    }
+
+    void add(SessionReplay replay) {
+        sessions.put(replay.getClientName(), replay);
+    }
+
+    // Null unless the token is the one given to the client holding the name
+    SessionReplay find(String clientName, long token) {
+        SessionReplay replay = sessions.get(clientName);
+        return replay != null && replay.getToken() == token ? replay : null;
+    }
+
+    // The token to hand to a client, 0 when its session cannot be resumed
+    long tokenOf(ClientConnection handler) {
+        SessionReplay replay = handler.getClientName() != null ? sessions.get(handler.getClientName()) : null;
+        return replay != null && replay.getOwner() == handler ? replay.getToken() : 0;
+    }
+
+    // The session of a client whose connection dropped, if it is waiting to be resumed
+    SessionReplay findDetached(String clientName) {
+        SessionReplay replay = sessions.get(clientName);
+        return replay != null && replay.isDetached() ? replay : null;
+    }
+
+    /**
+     * Keeps the session of a dropped connection for the grace period; expired runs if the client
+     * does not come back in time. Returns false when another connection already took the session
+     * over.
+     */
+    boolean detach(SessionReplay replay, ClientConnection handler, Runnable expired) {
+        ScheduledFuture<?> expiry;
+        try {
+            expiry = scheduler.schedule(() -> {
+                if (end(replay, handler)) {
+                    expired.run();
+                }
+            }, graceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            return false;
+        }
+        return replay.detach(handler, expiry);
+    }
+
+    // Returns false when another connection took the session over
+    boolean end(SessionReplay replay, ClientConnection handler) {
+        if (!replay.end(handler)) {
+            return false;
+        }
+        sessions.remove(replay.getClientName(), replay);
+        return true;
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.rivon0507.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Subscription index from room name to member connections. Member arrays are copy-on-write:
+// joins and leaves replace a room's array inside ConcurrentHashMap.compute(), so routing reads
+// one array and iterates it without any lock, however busy the room's membership is.
+class RoomRegistry {
+    private static final ClientConnection[] NO_MEMBERS = new ClientConnection[0];
+
+    private final Map<String, ClientConnection[]> rooms = new ConcurrentHashMap<>();
+    // Rooms each client is in, so a leaving client is taken out of all of them
+    private final Map<String, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    // Returns false when the client is already a member
+    boolean join(String room, ClientConnection member) {
+        String name = member.getClientName();
+        boolean[] added = new boolean[1];
+        rooms.compute(room, (_, members) -> {
+            if (members == null) {
+                added[0] = true;
+                return new ClientConnection[]{member};
+            }
+            if (indexOf(members, name) >= 0) {
+                return members;
+            }
+            ClientConnection[] grown = Arrays.copyOf(members, members.length + 1);
+            grown[members.length] = member;
+            added[0] = true;
+            return grown;
+        });
+        if (added[0]) {
+            memberships.computeIfAbsent(name, _ -> ConcurrentHashMap.newKeySet()).add(room);
+        }
+        return added[0];
+    }
+
+    // Returns false when the client was not a member
+    boolean leave(String room, String name) {
+        boolean removed = remove(room, name);
+        if (removed) {
+            Set<String> joined = memberships.get(name);
+            if (joined != null) {
+                joined.remove(room);
+            }
+        }
+        return removed;
+    }
+
+    void leaveAll(String name) {
+        Set<String> joined = memberships.remove(name);
+        if (joined != null) {
+            for (String room : joined) {
+                remove(room, name);
+            }
+        }
+    }
+
+    // Puts a client's new connection in place of the old one in every room it is in
+    void replace(String name, ClientConnection member) {
+        Set<String> joined = memberships.get(name);
+        if (joined == null) {
+            return;
+        }
+        for (String room : joined) {
+            rooms.computeIfPresent(room, (_, members) -> {
+                int index = indexOf(members, name);
+                if (index < 0) {
+                    return members;
+                }
+                ClientConnection[] replaced = members.clone();
+                replaced[index] = member;
+                return replaced;
+            });
+        }
+    }
+
+    private boolean remove(String room, String name) {
+        boolean[] removed = new boolean[1];
+        // An empty room is dropped from the map
+        rooms.computeIfPresent(room, (_, members) -> {
+            int index = indexOf(members, name);
+            if (index < 0) {
+                return members;
+            }
+            removed[0] = true;
+            if (members.length == 1) {
+                return null;
+            }
+            ClientConnection[] shrunk = new ClientConnection[members.length - 1];
+            System.arraycopy(members, 0, shrunk, 0, index);
+            System.arraycopy(members, index + 1, shrunk, index, members.length - index - 1);
+            return shrunk;
+        });
+        return removed[0];
+    }
+
+    // The returned array is never modified; callers must not modify it either
+    ClientConnection[] members(String room) {
+        ClientConnection[] members = rooms.get(room);
+        return members != null ? members : NO_MEMBERS;
+    }
+
+    boolean isMember(String room, String name) {
+        Set<String> joined = memberships.get(name);
+        return joined != null && joined.contains(room);
+    }
+
+    private static int indexOf(ClientConnection[] members, String name) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].getClientName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
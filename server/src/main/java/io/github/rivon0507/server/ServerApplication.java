@@ -1,28 +1,47 @@
 package io.github.rivon0507.server;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ServerApplication extends Application {
-    private final TextArea logArea = new TextArea();
+    // Server threads only enqueue log lines; the FX thread drains them once per log frame
+    private static final int LOG_BUFFER_CAPACITY = 8192;
+    private static final Duration LOG_FRAME = Duration.millis(50);
+
+    private final LogRingBuffer logBuffer = new LogRingBuffer(LOG_BUFFER_CAPACITY);
+    private final ListView<String> logView = new ListView<>();
+    private final List<String> logBatch = new ArrayList<>();
+    private final StatsPane statsPane = new StatsPane();
     private TextField portField;
+    private ComboBox<EngineType> engineBox;
+    private ComboBox<LogLevel> logLevelBox;
     private Button startButton;
     private Button stopButton;
     private MessageServer server;
     private Thread serverThread;
+    private int logRetainedLines;
 
     public static void main(String[] args) {
         launch(args);
@@ -43,32 +62,55 @@ public class ServerApplication extends Application {
         portField = new TextField("8080");
         portField.setPrefWidth(80);
 
+        Label engineLabel = new Label("Engine:");
+        engineBox = new ComboBox<>();
+        engineBox.getItems().addAll(EngineType.values());
+        ServerConfig defaults = ServerConfig.fromSystemProperties();
+        engineBox.setValue(defaults.getEngine());
+
         startButton = new Button("Start Server");
         stopButton = new Button("Stop Server");
         stopButton.setDisable(true);
 
-        controlPanel.getChildren().addAll(portLabel, portField, startButton, stopButton);
-
-        // Center log area
-        logArea.setEditable(false);
-        logArea.setWrapText(true);
+        controlPanel.getChildren().addAll(portLabel, portField, engineLabel, engineBox, startButton, stopButton);
+
+        // Center log view; a ListView only lays out the visible rows, however many are retained
+        logRetainedLines = defaults.getLogRetainedLines();
+        VBox.setVgrow(logView, Priority.ALWAYS);
+        logLevelBox = new ComboBox<>();
+        logLevelBox.getItems().addAll(LogLevel.values());
+        logLevelBox.setValue(defaults.getLogLevel());
+        ServerLog.setLevel(defaults.getLogLevel());
+        logLevelBox.setOnAction(e -> ServerLog.setLevel(logLevelBox.getValue()));
+        HBox logHeader = new HBox(10, new Label("Server Log:"), new Label("Level:"), logLevelBox);
         VBox logPanel = new VBox(5);
         logPanel.setPadding(new Insets(10));
-        Label logLabel = new Label("Server Log:");
-        logPanel.getChildren().addAll(logLabel, logArea);
+        logPanel.getChildren().addAll(logHeader, logView);
 
         root.setTop(controlPanel);
         root.setCenter(logPanel);
+        root.setRight(statsPane);
+
+        // Refresh the stats pane once per second
+        Timeline statsRefresh = new Timeline(new KeyFrame(Duration.seconds(1),
+                e -> statsPane.update(server != null ? server.getMetrics() : null)));
+        statsRefresh.setCycleCount(Timeline.INDEFINITE);
+        statsRefresh.play();
 
         // Setup actions
         startButton.setOnAction(e -> startServer());
         stopButton.setOnAction(e -> stopServer());
 
-        // Redirect System.out to TextArea
+        // Server lines go straight to the log view, refreshed at a fixed frame rate; anything else
+        // printed, e.g. by a library, is caught through System.out
+        ServerLog.setSink(logBuffer::offer);
         redirectSystemOut();
+        Timeline logRefresh = new Timeline(new KeyFrame(LOG_FRAME, e -> drainLog()));
+        logRefresh.setCycleCount(Timeline.INDEFINITE);
+        logRefresh.play();
 
         // Create scene
-        Scene scene = new Scene(root, 600, 400);
+        Scene scene = new Scene(root, 850, 400);
         primaryStage.setScene(scene);
         primaryStage.show();
 
@@ -86,7 +128,10 @@ public class ServerApplication extends Application {
     private void startServer() {
         try {
             int port = Integer.parseInt(portField.getText().trim());
-            server = new MessageServer(port);
+            ServerConfig config = ServerConfig.fromSystemProperties()
+                    .setEngine(engineBox.getValue())
+                    .setLogLevel(logLevelBox.getValue());
+            server = new MessageServer(port, config);
 
             // Run server in separate thread
             serverThread = new Thread(() -> server.start());
@@ -97,8 +142,9 @@ public class ServerApplication extends Application {
             startButton.setDisable(true);
             stopButton.setDisable(false);
             portField.setDisable(true);
+            engineBox.setDisable(true);
         } catch (NumberFormatException e) {
-            System.out.println("Invalid port number");
+            ServerLog.error("Invalid port number");
         }
     }
 
@@ -112,26 +158,65 @@ public class ServerApplication extends Application {
         startButton.setDisable(false);
         stopButton.setDisable(true);
         portField.setDisable(false);
+        engineBox.setDisable(false);
     }
 
+    // Only stray output of other code comes this way, ServerLog bypasses it
     private void redirectSystemOut() {
+        // PrintStream writes each println under its own lock, so lines arrive whole and in order
         PrintStream printStream = new PrintStream(new OutputStream() {
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
             @Override
             public void write(int b) {
-                appendText(String.valueOf((char) b));
+                write(new byte[]{(byte) b}, 0, 1);
             }
 
+            // Copies the bytes between line breaks in one go
             @Override
             public void write(byte[] b, int off, int len) {
-                appendText(new String(b, off, len));
+                int start = off;
+                for (int i = off; i < off + len; i++) {
+                    if (b[i] == '\n') {
+                        line.write(b, start, i - start);
+                        flushLine();
+                        start = i + 1;
+                    }
+                }
+                line.write(b, start, off + len - start);
             }
-        });
+
+            private void flushLine() {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                logBuffer.offer(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                line.reset();
+            }
+        }, true, StandardCharsets.UTF_8);
 
         System.setOut(printStream);
         System.setErr(printStream);
     }
 
-    private void appendText(String text) {
-        Platform.runLater(() -> logArea.appendText(text));
+    private void drainLog() {
+        logBatch.clear();
+        logBuffer.drainTo(logBatch, LOG_BUFFER_CAPACITY);
+        long dropped = logBuffer.takeDropped();
+        if (dropped > 0) {
+            logBatch.add("[" + dropped + " log lines dropped]");
+        }
+        if (logBatch.isEmpty()) {
+            return;
+        }
+        // One change event per frame instead of one layout per line
+        ObservableList<String> items = logView.getItems();
+        items.addAll(logBatch);
+        if (items.size() > logRetainedLines) {
+            items.remove(0, items.size() - logRetainedLines);
+        }
+        logView.scrollTo(items.size() - 1);
     }
 }
@@ -0,0 +1,651 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.FrameCompressor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ServerConfig {
+    private static final int DEFAULT_MAX_PENDING_HANDSHAKES = 1024;
+    private static final int THREADED_MAX_PENDING_HANDSHAKES = 128;
+
+    private EngineType engine = EngineType.THREADED;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private int acceptorThreads = 2;
+    private int acceptBacklog = 1024;
+    private long handshakeTimeoutMillis = 5000;
+    // 0 for the engine's default, see getMaxPendingHandshakes()
+    private int maxPendingHandshakes;
+    private long heartbeatIntervalMillis = 15_000;
+    private long idleTimeoutMillis = 45_000;
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long overflowBlockTimeoutMillis = 1000;
+    // Flow control is off when 0
+    private int creditWindow = 256;
+    private long creditStallTimeoutMillis = 5000;
+    // Senders are not rate limited unless a global or per-client limit is set
+    private int rateLimit;
+    private int rateBurst = 50;
+    private Map<String, Integer> rateLimits = Map.of();
+    private long presenceCoalesceMillis = 50;
+    private long maxFlushDelayMicros = 1000;
+    private boolean compression = true;
+    private int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD;
+    // Store-and-forward of private messages to offline clients is off unless a directory is set
+    private String journalDir;
+    private int journalSegmentBytes = 8 * 1024 * 1024;
+    private long journalTtlMillis = TimeUnit.DAYS.toMillis(7);
+    private int journalMaxPerRecipient = 1000;
+    private long journalMaxBytes = 256L * 1024 * 1024;
+    // Conversation history is off unless a directory is set
+    private String historyDir;
+    private int historySegmentBytes = 16 * 1024 * 1024;
+    private int historyCachedConversations = 1024;
+    private long historyMaxBytes = 1024L * 1024 * 1024;
+    // Cluster mode is off unless a cluster port is set; the node id defaults to one derived from the port
+    private String nodeId;
+    private int clusterPort;
+    private List<String> peers = List.of();
+    // Nodes prove to each other that they hold it; cluster mode does not start without one
+    private String clusterSecret;
+    // The cluster port listens on every interface unless an address is set
+    private String clusterBindAddress;
+    // Any host holding the secret may link unless this lists the ones that may
+    private List<String> clusterAllowedHosts = List.of();
+    // Session resumption is off unless a grace period is set
+    private long resumeGraceMillis;
+    private int resumeBufferFrames = 1024;
+    private LogLevel logLevel = LogLevel.DEBUG;
+    private int logRetainedLines = 5000;
+
+    // Reads overrides such as -Dsocketmessage.engine=nio from the JVM system properties
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        String engine = System.getProperty("socketmessage.engine");
+        if (engine != null) {
+            config.setEngine(EngineType.valueOf(engine.trim().toUpperCase()));
+        }
+        config.setEventLoopThreads(Integer.getInteger("socketmessage.eventLoopThreads", config.eventLoopThreads));
+        config.setAcceptorThreads(Integer.getInteger("socketmessage.acceptorThreads", config.acceptorThreads));
+        config.setAcceptBacklog(Integer.getInteger("socketmessage.acceptBacklog", config.acceptBacklog));
+        config.setHandshakeTimeoutMillis(Long.getLong("socketmessage.handshakeTimeoutMillis", config.handshakeTimeoutMillis));
+        Integer maxPendingHandshakes = Integer.getInteger("socketmessage.maxPendingHandshakes");
+        if (maxPendingHandshakes != null) {
+            config.setMaxPendingHandshakes(maxPendingHandshakes);
+        }
+        config.setHeartbeatIntervalMillis(Long.getLong("socketmessage.heartbeatIntervalMillis", config.heartbeatIntervalMillis));
+        config.setIdleTimeoutMillis(Long.getLong("socketmessage.idleTimeoutMillis", config.idleTimeoutMillis));
+        config.setOutboundQueueCapacity(Integer.getInteger("socketmessage.outboundQueueCapacity", config.outboundQueueCapacity));
+        String overflowPolicy = System.getProperty("socketmessage.overflowPolicy");
+        if (overflowPolicy != null) {
+            config.setOverflowPolicy(OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase()));
+        }
+        config.setOverflowBlockTimeoutMillis(Long.getLong("socketmessage.overflowBlockTimeoutMillis", config.overflowBlockTimeoutMillis));
+        config.setCreditWindow(Integer.getInteger("socketmessage.creditWindow", config.creditWindow));
+        config.setCreditStallTimeoutMillis(Long.getLong("socketmessage.creditStallTimeoutMillis", config.creditStallTimeoutMillis));
+        config.setRateLimit(Integer.getInteger("socketmessage.rateLimit", config.rateLimit));
+        config.setRateBurst(Integer.getInteger("socketmessage.rateBurst", config.rateBurst));
+        String rateLimits = System.getProperty("socketmessage.rateLimits");
+        if (rateLimits != null) {
+            Map<String, Integer> limits = new HashMap<>();
+            for (String limit : rateLimits.split(",")) {
+                if (limit.isBlank()) {
+                    continue;
+                }
+                int colon = limit.lastIndexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("rate limit must be name:messagesPerSecond, got " + limit.trim());
+                }
+                limits.put(limit.substring(0, colon).trim(), Integer.parseInt(limit.substring(colon + 1).trim()));
+            }
+            config.setRateLimits(limits);
+        }
+        config.setPresenceCoalesceMillis(Long.getLong("socketmessage.presenceCoalesceMillis", config.presenceCoalesceMillis));
+        config.setMaxFlushDelayMicros(Long.getLong("socketmessage.maxFlushDelayMicros", config.maxFlushDelayMicros));
+        String compression = System.getProperty("socketmessage.compression");
+        if (compression != null) {
+            config.setCompression(Boolean.parseBoolean(compression.trim()));
+        }
+        config.setCompressionThreshold(Integer.getInteger("socketmessage.compressionThreshold", config.compressionThreshold));
+        String journalDir = System.getProperty("socketmessage.journalDir");
+        if (journalDir != null && !journalDir.isBlank()) {
+            config.setJournalDir(journalDir.trim());
+        }
+        config.setJournalSegmentBytes(Integer.getInteger("socketmessage.journalSegmentBytes", config.journalSegmentBytes));
+        config.setJournalTtlMillis(Long.getLong("socketmessage.journalTtlMillis", config.journalTtlMillis));
+        config.setJournalMaxPerRecipient(Integer.getInteger("socketmessage.journalMaxPerRecipient", config.journalMaxPerRecipient));
+        config.setJournalMaxBytes(Long.getLong("socketmessage.journalMaxBytes", config.journalMaxBytes));
+        String historyDir = System.getProperty("socketmessage.historyDir");
+        if (historyDir != null && !historyDir.isBlank()) {
+            config.setHistoryDir(historyDir.trim());
+        }
+        config.setHistorySegmentBytes(Integer.getInteger("socketmessage.historySegmentBytes", config.historySegmentBytes));
+        config.setHistoryCachedConversations(Integer.getInteger("socketmessage.historyCachedConversations", config.historyCachedConversations));
+        config.setHistoryMaxBytes(Long.getLong("socketmessage.historyMaxBytes", config.historyMaxBytes));
+        String nodeId = System.getProperty("socketmessage.nodeId");
+        if (nodeId != null && !nodeId.isBlank()) {
+            config.setNodeId(nodeId.trim());
+        }
+        config.setClusterPort(Integer.getInteger("socketmessage.clusterPort", config.clusterPort));
+        String peers = System.getProperty("socketmessage.peers");
+        if (peers != null) {
+            List<String> addresses = new ArrayList<>();
+            for (String peer : peers.split(",")) {
+                if (!peer.isBlank()) {
+                    addresses.add(peer.trim());
+                }
+            }
+            config.setPeers(addresses);
+        }
+        String clusterSecret = System.getProperty("socketmessage.clusterSecret");
+        if (clusterSecret != null && !clusterSecret.isBlank()) {
+            config.setClusterSecret(clusterSecret.trim());
+        }
+        String clusterBindAddress = System.getProperty("socketmessage.clusterBindAddress");
+        if (clusterBindAddress != null && !clusterBindAddress.isBlank()) {
+            config.setClusterBindAddress(clusterBindAddress.trim());
+        }
+        String clusterAllowedHosts = System.getProperty("socketmessage.clusterAllowedHosts");
+        if (clusterAllowedHosts != null) {
+            List<String> hosts = new ArrayList<>();
+            for (String host : clusterAllowedHosts.split(",")) {
+                if (!host.isBlank()) {
+                    hosts.add(host.trim());
+                }
+            }
+            config.setClusterAllowedHosts(hosts);
+        }
+        config.setResumeGraceMillis(Long.getLong("socketmessage.resumeGraceMillis", config.resumeGraceMillis));
+        config.setResumeBufferFrames(Integer.getInteger("socketmessage.resumeBufferFrames", config.resumeBufferFrames));
+        String logLevel = System.getProperty("socketmessage.logLevel");
+        if (logLevel != null) {
+            config.setLogLevel(LogLevel.valueOf(logLevel.trim().toUpperCase()));
+        }
+        config.setLogRetainedLines(Integer.getInteger("socketmessage.logRetainedLines", config.logRetainedLines));
+        return config;
+    }
+
+    public EngineType getEngine() {
+        return engine;
+    }
+
+    public ServerConfig setEngine(EngineType engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public ServerConfig setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("eventLoopThreads must be at least 1");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+        return this;
+    }
+
+    // Threads accepting connections on the listening socket
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public ServerConfig setAcceptorThreads(int acceptorThreads) {
+        if (acceptorThreads < 1) {
+            throw new IllegalArgumentException("acceptorThreads must be at least 1");
+        }
+        this.acceptorThreads = acceptorThreads;
+        return this;
+    }
+
+    // Connections the kernel queues until they are accepted; it may cap this, e.g. at somaxconn
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public ServerConfig setAcceptBacklog(int acceptBacklog) {
+        if (acceptBacklog < 1) {
+            throw new IllegalArgumentException("acceptBacklog must be at least 1");
+        }
+        this.acceptBacklog = acceptBacklog;
+        return this;
+    }
+
+    // How long an accepted connection has to complete its handshake before it is closed
+    public long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    public ServerConfig setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+        if (handshakeTimeoutMillis < 1) {
+            throw new IllegalArgumentException("handshakeTimeoutMillis must be at least 1");
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+        return this;
+    }
+
+    // Connections allowed in their handshake at once; beyond that new ones are closed on accept.
+    // Unless set, lower for the threaded engine: there each handshake waits for the client on a
+    // platform thread of its own, where the virtual and NIO engines only hold a small buffer. The
+    // handshake is not handed to a small pool instead, since a few silent clients blocking its
+    // threads until their deadline would hold up every other login.
+    public int getMaxPendingHandshakes() {
+        if (maxPendingHandshakes > 0) {
+            return maxPendingHandshakes;
+        }
+        return engine == EngineType.THREADED ? THREADED_MAX_PENDING_HANDSHAKES : DEFAULT_MAX_PENDING_HANDSHAKES;
+    }
+
+    public ServerConfig setMaxPendingHandshakes(int maxPendingHandshakes) {
+        if (maxPendingHandshakes < 1) {
+            throw new IllegalArgumentException("maxPendingHandshakes must be at least 1");
+        }
+        this.maxPendingHandshakes = maxPendingHandshakes;
+        return this;
+    }
+
+    // How long a registered client may stay silent before it is sent a heartbeat; 0 turns
+    // heartbeats and idle reaping off
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    public ServerConfig setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+        if (heartbeatIntervalMillis < 0) {
+            throw new IllegalArgumentException("heartbeatIntervalMillis must not be negative");
+        }
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        return this;
+    }
+
+    // How long a client may stay silent, heartbeat unanswered, before its connection is closed as
+    // dead; meant to be a few heartbeat intervals
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public ServerConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 1) {
+            throw new IllegalArgumentException("idleTimeoutMillis must be at least 1");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public ServerConfig setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity < 1) {
+            throw new IllegalArgumentException("outboundQueueCapacity must be at least 1");
+        }
+        this.outboundQueueCapacity = outboundQueueCapacity;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public ServerConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    // Messages a client may send ahead of the server's credit; the server extends it as the
+    // recipients of those messages keep up
+    public int getCreditWindow() {
+        return creditWindow;
+    }
+
+    public ServerConfig setCreditWindow(int creditWindow) {
+        if (creditWindow < 0) {
+            throw new IllegalArgumentException("creditWindow must not be negative");
+        }
+        this.creditWindow = creditWindow;
+        return this;
+    }
+
+    // How long a backed up recipient may hold its senders' credit back before it is deemed stuck
+    public long getCreditStallTimeoutMillis() {
+        return creditStallTimeoutMillis;
+    }
+
+    public ServerConfig setCreditStallTimeoutMillis(long creditStallTimeoutMillis) {
+        if (creditStallTimeoutMillis < 1) {
+            throw new IllegalArgumentException("creditStallTimeoutMillis must be at least 1");
+        }
+        this.creditStallTimeoutMillis = creditStallTimeoutMillis;
+        return this;
+    }
+
+    // Messages a second each client may send on average, 0 for no limit; clients named in
+    // getRateLimits() have their own
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    public ServerConfig setRateLimit(int rateLimit) {
+        if (rateLimit < 0) {
+            throw new IllegalArgumentException("rateLimit must not be negative");
+        }
+        this.rateLimit = rateLimit;
+        return this;
+    }
+
+    // Messages a rate limited client may send at once after being quiet
+    public int getRateBurst() {
+        return rateBurst;
+    }
+
+    public ServerConfig setRateBurst(int rateBurst) {
+        if (rateBurst < 1) {
+            throw new IllegalArgumentException("rateBurst must be at least 1");
+        }
+        this.rateBurst = rateBurst;
+        return this;
+    }
+
+    // Per-client limits by name, overriding getRateLimit(); 0 exempts a client from the global one
+    public Map<String, Integer> getRateLimits() {
+        return rateLimits;
+    }
+
+    public ServerConfig setRateLimits(Map<String, Integer> rateLimits) {
+        for (Map.Entry<String, Integer> limit : rateLimits.entrySet()) {
+            if (limit.getValue() < 0) {
+                throw new IllegalArgumentException("rate limit of " + limit.getKey() + " must not be negative");
+            }
+        }
+        this.rateLimits = Map.copyOf(rateLimits);
+        return this;
+    }
+
+    public long getOverflowBlockTimeoutMillis() {
+        return overflowBlockTimeoutMillis;
+    }
+
+    public ServerConfig setOverflowBlockTimeoutMillis(long overflowBlockTimeoutMillis) {
+        if (overflowBlockTimeoutMillis < 0) {
+            throw new IllegalArgumentException("overflowBlockTimeoutMillis must not be negative");
+        }
+        this.overflowBlockTimeoutMillis = overflowBlockTimeoutMillis;
+        return this;
+    }
+
+    public long getPresenceCoalesceMillis() {
+        return presenceCoalesceMillis;
+    }
+
+    public ServerConfig setPresenceCoalesceMillis(long presenceCoalesceMillis) {
+        if (presenceCoalesceMillis < 0) {
+            throw new IllegalArgumentException("presenceCoalesceMillis must not be negative");
+        }
+        this.presenceCoalesceMillis = presenceCoalesceMillis;
+        return this;
+    }
+
+    public long getMaxFlushDelayMicros() {
+        return maxFlushDelayMicros;
+    }
+
+    public ServerConfig setMaxFlushDelayMicros(long maxFlushDelayMicros) {
+        if (maxFlushDelayMicros < 0) {
+            throw new IllegalArgumentException("maxFlushDelayMicros must not be negative");
+        }
+        this.maxFlushDelayMicros = maxFlushDelayMicros;
+        return this;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public ServerConfig setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public ServerConfig setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compressionThreshold must not be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public String getJournalDir() {
+        return journalDir;
+    }
+
+    public ServerConfig setJournalDir(String journalDir) {
+        this.journalDir = journalDir;
+        return this;
+    }
+
+    public int getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    public ServerConfig setJournalSegmentBytes(int journalSegmentBytes) {
+        if (journalSegmentBytes < 64 * 1024) {
+            throw new IllegalArgumentException("journalSegmentBytes must be at least 64 KiB");
+        }
+        this.journalSegmentBytes = journalSegmentBytes;
+        return this;
+    }
+
+    // How long a journaled message waits for its recipient before it is dropped
+    public long getJournalTtlMillis() {
+        return journalTtlMillis;
+    }
+
+    public ServerConfig setJournalTtlMillis(long journalTtlMillis) {
+        if (journalTtlMillis < 1) {
+            throw new IllegalArgumentException("journalTtlMillis must be at least 1");
+        }
+        this.journalTtlMillis = journalTtlMillis;
+        return this;
+    }
+
+    // Messages that may wait in the journal for one recipient; further ones are rejected
+    public int getJournalMaxPerRecipient() {
+        return journalMaxPerRecipient;
+    }
+
+    public ServerConfig setJournalMaxPerRecipient(int journalMaxPerRecipient) {
+        if (journalMaxPerRecipient < 1) {
+            throw new IllegalArgumentException("journalMaxPerRecipient must be at least 1");
+        }
+        this.journalMaxPerRecipient = journalMaxPerRecipient;
+        return this;
+    }
+
+    // Bytes of messages that may wait in the journal for all recipients together
+    public long getJournalMaxBytes() {
+        return journalMaxBytes;
+    }
+
+    public ServerConfig setJournalMaxBytes(long journalMaxBytes) {
+        if (journalMaxBytes < 64 * 1024) {
+            throw new IllegalArgumentException("journalMaxBytes must be at least 64 KiB");
+        }
+        this.journalMaxBytes = journalMaxBytes;
+        return this;
+    }
+
+    public String getHistoryDir() {
+        return historyDir;
+    }
+
+    public ServerConfig setHistoryDir(String historyDir) {
+        this.historyDir = historyDir;
+        return this;
+    }
+
+    public int getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+
+    public ServerConfig setHistorySegmentBytes(int historySegmentBytes) {
+        if (historySegmentBytes < 64 * 1024) {
+            throw new IllegalArgumentException("historySegmentBytes must be at least 64 KiB");
+        }
+        this.historySegmentBytes = historySegmentBytes;
+        return this;
+    }
+
+    public int getHistoryCachedConversations() {
+        return historyCachedConversations;
+    }
+
+    public ServerConfig setHistoryCachedConversations(int historyCachedConversations) {
+        if (historyCachedConversations < 1) {
+            throw new IllegalArgumentException("historyCachedConversations must be at least 1");
+        }
+        this.historyCachedConversations = historyCachedConversations;
+        return this;
+    }
+
+    public long getHistoryMaxBytes() {
+        return historyMaxBytes;
+    }
+
+    public ServerConfig setHistoryMaxBytes(long historyMaxBytes) {
+        if (historyMaxBytes < 64 * 1024) {
+            throw new IllegalArgumentException("historyMaxBytes must be at least 64 KiB");
+        }
+        this.historyMaxBytes = historyMaxBytes;
+        return this;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ServerConfig setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public ServerConfig setClusterPort(int clusterPort) {
+        if (clusterPort < 0 || clusterPort > 65535) {
+            throw new IllegalArgumentException("clusterPort must be between 0 and 65535");
+        }
+        this.clusterPort = clusterPort;
+        return this;
+    }
+
+    // Cluster addresses of the other nodes, as host:port
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public ServerConfig setPeers(List<String> peers) {
+        for (String peer : peers) {
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0 || colon == peer.length() - 1) {
+                throw new IllegalArgumentException("peer must be host:port, got " + peer);
+            }
+            Integer.parseInt(peer.substring(colon + 1));
+        }
+        this.peers = List.copyOf(peers);
+        return this;
+    }
+
+    // Shared by every node of the cluster, which only links with nodes proving they know it
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public ServerConfig setClusterSecret(String clusterSecret) {
+        if (clusterSecret != null && clusterSecret.length() < 16) {
+            throw new IllegalArgumentException("clusterSecret must be at least 16 characters");
+        }
+        this.clusterSecret = clusterSecret;
+        return this;
+    }
+
+    // Interface the cluster port listens on, null for all of them
+    public String getClusterBindAddress() {
+        return clusterBindAddress;
+    }
+
+    public ServerConfig setClusterBindAddress(String clusterBindAddress) {
+        this.clusterBindAddress = clusterBindAddress;
+        return this;
+    }
+
+    // Hosts other nodes may link from; empty lets any host that holds the secret link
+    public List<String> getClusterAllowedHosts() {
+        return clusterAllowedHosts;
+    }
+
+    public ServerConfig setClusterAllowedHosts(List<String> clusterAllowedHosts) {
+        this.clusterAllowedHosts = List.copyOf(clusterAllowedHosts);
+        return this;
+    }
+
+    // How long a client whose connection dropped stays registered, waiting to resume its session.
+    // While on, a client whose outbound queue overflows is disconnected whatever the overflow
+    // policy, since a dropped frame would throw off the replay; it catches up when it resumes.
+    public long getResumeGraceMillis() {
+        return resumeGraceMillis;
+    }
+
+    public ServerConfig setResumeGraceMillis(long resumeGraceMillis) {
+        if (resumeGraceMillis < 0) {
+            throw new IllegalArgumentException("resumeGraceMillis must not be negative");
+        }
+        this.resumeGraceMillis = resumeGraceMillis;
+        return this;
+    }
+
+    // Frames kept per session for resending to a resuming client; one further behind starts over
+    public int getResumeBufferFrames() {
+        return resumeBufferFrames;
+    }
+
+    public ServerConfig setResumeBufferFrames(int resumeBufferFrames) {
+        if (resumeBufferFrames < 1) {
+            throw new IllegalArgumentException("resumeBufferFrames must be at least 1");
+        }
+        this.resumeBufferFrames = resumeBufferFrames;
+        return this;
+    }
+
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    public ServerConfig setLogLevel(LogLevel logLevel) {
+        this.logLevel = logLevel;
+        return this;
+    }
+
+    public int getLogRetainedLines() {
+        return logRetainedLines;
+    }
+
+    public ServerConfig setLogRetainedLines(int logRetainedLines) {
+        if (logRetainedLines < 1) {
+            throw new IllegalArgumentException("logRetainedLines must be at least 1");
+        }
+        this.logRetainedLines = logRetainedLines;
+        return this;
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.rivon0507.server;
+
+import java.io.IOException;
+
+// Accepts connections and drives client I/O on behalf of a MessageServer
+public interface ServerEngine {
+    // Blocks accepting connections until stop() is called
+    void start() throws IOException;
+
+    void stop();
+}
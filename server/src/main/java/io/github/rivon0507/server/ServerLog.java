@@ -0,0 +1,59 @@
+package io.github.rivon0507.server;
+
+import java.util.function.Consumer;
+
+/**
+ * Level-filtered server logging. The server UI installs a sink that takes each line whole, so
+ * logging threads never contend on the {@link System#out} lock; headless servers have no sink and
+ * print to System.out as before.
+ */
+public final class ServerLog {
+    private static volatile LogLevel level = LogLevel.DEBUG;
+    // Null to print to System.out
+    private static volatile Consumer<String> sink;
+
+    private ServerLog() {
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static void setLevel(LogLevel level) {
+        ServerLog.level = level;
+    }
+
+    // Called by the server UI with its log view's queue; null goes back to System.out
+    public static void setSink(Consumer<String> sink) {
+        ServerLog.sink = sink;
+    }
+
+    // Lets hot paths skip building a line that would be filtered out anyway
+    public static boolean isEnabled(LogLevel candidate) {
+        return candidate.compareTo(level) >= 0;
+    }
+
+    public static void debug(String line) {
+        log(LogLevel.DEBUG, line);
+    }
+
+    public static void info(String line) {
+        log(LogLevel.INFO, line);
+    }
+
+    public static void error(String line) {
+        log(LogLevel.ERROR, line);
+    }
+
+    private static void log(LogLevel lineLevel, String line) {
+        if (!isEnabled(lineLevel)) {
+            return;
+        }
+        Consumer<String> sink = ServerLog.sink;
+        if (sink != null) {
+            sink.accept(line);
+        } else {
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.LatencyHistogram;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Lock-free counters updated on the hot path and read on demand by JMX and the server UI
+public class ServerMetrics implements ServerMetricsMXBean {
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder handshakesCompleted = new LongAdder();
+    private final LongAdder handshakesRejected = new LongAdder();
+    private final LongAdder handshakesTimedOut = new LongAdder();
+    private final LongAdder connectionsRefused = new LongAdder();
+    private final LongAdder idleConnectionsReaped = new LongAdder();
+    private final LongAdder privateMessages = new LongAdder();
+    private final LongAdder broadcastMessages = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder failedDeliveries = new LongAdder();
+    private final LongAdder messagesStored = new LongAdder();
+    private final LongAdder messagesReplayed = new LongAdder();
+    private final LongAdder journalRejected = new LongAdder();
+    private final LongAdder journalExpired = new LongAdder();
+    private final LongAdder messagesForwarded = new LongAdder();
+    private final LongAdder sessionsResumed = new LongAdder();
+    private final LongAdder creditStalls = new LongAdder();
+    private final LongAdder messagesThrottled = new LongAdder();
+    private final LatencyHistogram routingLatency = new LatencyHistogram();
+    private final LatencyHistogram fanOutTime = new LatencyHistogram();
+    // Summed over the connected clients only when read
+    private final LongSupplier outboundQueueDepth;
+    // Gathered from the connected clients only when read
+    private final Supplier<List<ClientQueueStats>> deepestOutboundQueues;
+
+    public ServerMetrics(LongSupplier outboundQueueDepth, Supplier<List<ClientQueueStats>> deepestOutboundQueues) {
+        this.outboundQueueDepth = outboundQueueDepth;
+        this.deepestOutboundQueues = deepestOutboundQueues;
+    }
+
+    void connectionOpened() {
+        connectionsAccepted.increment();
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    void handshakeCompleted() {
+        handshakesCompleted.increment();
+    }
+
+    void handshakeRejected() {
+        handshakesRejected.increment();
+    }
+
+    void handshakeTimedOut() {
+        handshakesTimedOut.increment();
+    }
+
+    void connectionRefused() {
+        connectionsRefused.increment();
+    }
+
+    void idleConnectionReaped() {
+        idleConnectionsReaped.increment();
+    }
+
+    void messageRouted(boolean broadcast, long elapsedNanos) {
+        (broadcast ? broadcastMessages : privateMessages).increment();
+        routingLatency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    void fanOutCompleted(long elapsedNanos) {
+        fanOutTime.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    void bytesRead(long count) {
+        bytesIn.add(count);
+    }
+
+    void bytesWritten(long count) {
+        bytesOut.add(count);
+    }
+
+    void deliveryFailed() {
+        failedDeliveries.increment();
+    }
+
+    void messageStored() {
+        messagesStored.increment();
+    }
+
+    void messageReplayed() {
+        messagesReplayed.increment();
+    }
+
+    void journalRejected() {
+        journalRejected.increment();
+    }
+
+    void journalExpired() {
+        journalExpired.increment();
+    }
+
+    void messageForwarded() {
+        messagesForwarded.increment();
+    }
+
+    void sessionResumed() {
+        sessionsResumed.increment();
+    }
+
+    void creditStalled() {
+        creditStalls.increment();
+    }
+
+    void messageThrottled() {
+        messagesThrottled.increment();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getHandshakesCompleted() {
+        return handshakesCompleted.sum();
+    }
+
+    @Override
+    public long getHandshakesRejected() {
+        return handshakesRejected.sum();
+    }
+
+    @Override
+    public long getHandshakesTimedOut() {
+        return handshakesTimedOut.sum();
+    }
+
+    @Override
+    public long getConnectionsRefused() {
+        return connectionsRefused.sum();
+    }
+
+    @Override
+    public long getIdleConnectionsReaped() {
+        return idleConnectionsReaped.sum();
+    }
+
+    @Override
+    public long getPrivateMessagesRouted() {
+        return privateMessages.sum();
+    }
+
+    @Override
+    public long getBroadcastMessagesRouted() {
+        return broadcastMessages.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getFailedDeliveries() {
+        return failedDeliveries.sum();
+    }
+
+    @Override
+    public long getMessagesStored() {
+        return messagesStored.sum();
+    }
+
+    @Override
+    public long getMessagesReplayed() {
+        return messagesReplayed.sum();
+    }
+
+    @Override
+    public long getJournalRejected() {
+        return journalRejected.sum();
+    }
+
+    @Override
+    public long getJournalExpired() {
+        return journalExpired.sum();
+    }
+
+    @Override
+    public long getMessagesForwarded() {
+        return messagesForwarded.sum();
+    }
+
+    @Override
+    public long getSessionsResumed() {
+        return sessionsResumed.sum();
+    }
+
+    @Override
+    public long getCreditStalls() {
+        return creditStalls.sum();
+    }
+
+    @Override
+    public long getMessagesThrottled() {
+        return messagesThrottled.sum();
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+        return outboundQueueDepth.getAsLong();
+    }
+
+    @Override
+    public List<ClientQueueStats> getDeepestOutboundQueues() {
+        return deepestOutboundQueues.get();
+    }
+
+    @Override
+    public double getRoutingLatencyMeanMicros() {
+        return routingLatency.getMean();
+    }
+
+    @Override
+    public long getRoutingLatencyP99Micros() {
+        return routingLatency.percentile(99);
+    }
+
+    @Override
+    public double getFanOutTimeMeanMicros() {
+        return fanOutTime.getMean();
+    }
+
+    @Override
+    public long getFanOutTimeP99Micros() {
+        return fanOutTime.percentile(99);
+    }
+}
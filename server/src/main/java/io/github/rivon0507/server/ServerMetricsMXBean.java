@@ -0,0 +1,69 @@
+package io.github.rivon0507.server;
+
+import java.util.List;
+
+// Server counters published over JMX as io.github.rivon0507:type=MessageServer,port=<port>
+public interface ServerMetricsMXBean {
+    long getConnectionsAccepted();
+
+    long getActiveConnections();
+
+    long getHandshakesCompleted();
+
+    long getHandshakesRejected();
+
+    // Connections closed because they did not complete their handshake in time
+    long getHandshakesTimedOut();
+
+    // Connections closed as soon as they were accepted because too many handshakes were pending
+    long getConnectionsRefused();
+
+    // Connections closed because the client stayed silent through a heartbeat until the idle timeout
+    long getIdleConnectionsReaped();
+
+    long getPrivateMessagesRouted();
+
+    long getBroadcastMessagesRouted();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getFailedDeliveries();
+
+    // Private messages journaled for an offline recipient, and journaled messages delivered since
+    long getMessagesStored();
+
+    long getMessagesReplayed();
+
+    // Private messages not journaled because their recipient never registered or was over a cap
+    long getJournalRejected();
+
+    // Journaled messages dropped because their recipient did not connect within the TTL
+    long getJournalExpired();
+
+    // Messages handed to another cluster node: private ones to their recipient's node, broadcasts once per node
+    long getMessagesForwarded();
+
+    // Clients that reconnected within the grace period and took their session over
+    long getSessionsResumed();
+
+    // Times a client's credit was held back because a recipient of its messages was backed up
+    long getCreditStalls();
+
+    // Messages rejected because their sender was over its rate limit
+    long getMessagesThrottled();
+
+    long getOutboundQueueDepth();
+
+    // The clients with the most frames queued, deepest first, ties broken by frames dropped
+    List<ClientQueueStats> getDeepestOutboundQueues();
+
+    double getRoutingLatencyMeanMicros();
+
+    long getRoutingLatencyP99Micros();
+
+    double getFanOutTimeMeanMicros();
+
+    long getFanOutTimeP99Micros();
+}
@@ -0,0 +1,148 @@
+package io.github.rivon0507.server;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// The frames sent to one resumable session, counted from its handshake. The client counts the
+// frames it reads the same way, so when it resumes on a new connection the frames after its
+// count are sent again and nothing else is. Only the last frames are kept, which bounds how far
+// behind a client may fall and still resume.
+class SessionReplay {
+    private final long token;
+    private final String clientName;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EncodedFrame[] ring;
+    // Guarded by lock, like the fields below
+    private long framesSent;
+    // Queues a frame on the connection currently serving the session; frames handed to it after
+    // that connection closed are only recorded
+    private Consumer<EncodedFrame> transport;
+    // The registered connection, null once the session ended
+    private ClientConnection owner;
+    // Set while the session has no connection, cancelled when it is resumed
+    private ScheduledFuture<?> expiry;
+
+    SessionReplay(long token, String clientName, int capacity, ClientConnection owner, Consumer<EncodedFrame> transport) {
+        this.token = token;
+        this.clientName = clientName;
+        this.ring = new EncodedFrame[capacity];
+        this.owner = owner;
+        this.transport = transport;
+    }
+
+    long getToken() {
+        return token;
+    }
+
+    String getClientName() {
+        return clientName;
+    }
+
+    // Recording and queueing happen under one lock so frames are counted in the order they are
+    // written, whichever thread sends them
+    void send(EncodedFrame frame) {
+        lock.lock();
+        try {
+            record(frame);
+            transport.accept(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the session to a new connection: response, which is not counted, then the frames
+     * after framesReceived go out on the new transport, and publish runs while frames sent
+     * meanwhile still wait for the lock. Returns false when the session ended, those frames are no
+     * longer kept or the count is not one this session reached.
+     */
+    boolean resume(ClientConnection handler, Consumer<EncodedFrame> transport, long framesReceived,
+                   EncodedFrame response, Runnable publish) {
+        lock.lock();
+        try {
+            long oldest = Math.max(0, framesSent - ring.length);
+            if (owner == null || framesReceived < oldest || framesReceived > framesSent) {
+                return false;
+            }
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+            long missed = framesSent;
+            framesSent = framesReceived;
+            this.owner = handler;
+            this.transport = transport;
+            transport.accept(response);
+            while (framesSent < missed) {
+                EncodedFrame frame = ring[slot(framesSent)];
+                framesSent++;
+                transport.accept(frame);
+            }
+            publish.run();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns false when another connection took over the session in the meantime
+    boolean detach(ClientConnection handler, ScheduledFuture<?> expiry) {
+        lock.lock();
+        try {
+            if (owner != handler) {
+                expiry.cancel(false);
+                return false;
+            }
+            this.expiry = expiry;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ends the session unless another connection took it over; after this it cannot be resumed
+    boolean end(ClientConnection handler) {
+        lock.lock();
+        try {
+            if (owner != handler) {
+                return false;
+            }
+            owner = null;
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ClientConnection getOwner() {
+        lock.lock();
+        try {
+            return owner;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isDetached() {
+        lock.lock();
+        try {
+            return expiry != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(EncodedFrame frame) {
+        ring[slot(framesSent)] = frame;
+        framesSent++;
+    }
+
+    private int slot(long frame) {
+        return (int) (frame % ring.length);
+    }
+}
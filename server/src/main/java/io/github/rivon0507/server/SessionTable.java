@@ -0,0 +1,126 @@
+package io.github.rivon0507.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Session ids of the registered clients and the table that resolves them when routing. An id is
+// a slot index in its low bits and the number of times the slot was reused above them, so the id
+// of a client that left never resolves to the next client given its slot. Lookups are a plain
+// array read; only registration and removal take the lock.
+class SessionTable {
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    // Keeps ids below 2^30, so id + 1 still fits a non-negative varint on the wire
+    private static final int GENERATION_LIMIT = 1 << (30 - SLOT_BITS);
+    private static final int INITIAL_SLOTS = 64;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Replaced by a larger copy under the lock when full
+    private volatile AtomicReferenceArray<Session> slots = new AtomicReferenceArray<>(INITIAL_SLOTS);
+    private int[] generations = new int[INITIAL_SLOTS];
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeCount;
+    private int nextSlot;
+    private final Map<ClientConnection, Integer> ids = new ConcurrentHashMap<>();
+
+    // Returns the new session's id, always positive
+    int add(ClientConnection handler) {
+        lock.lock();
+        try {
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                if (nextSlot > SLOT_MASK) {
+                    throw new IllegalStateException("Too many sessions");
+                }
+                slot = nextSlot++;
+                grow(slot);
+            }
+            int generation = generations[slot] % (GENERATION_LIMIT - 1) + 1;
+            generations[slot] = generation;
+            int id = generation << SLOT_BITS | slot;
+            slots.set(slot, new Session(id, handler));
+            ids.put(handler, id);
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(ClientConnection handler) {
+        Integer id = ids.remove(handler);
+        if (id == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            int slot = id & SLOT_MASK;
+            slots.set(slot, null);
+            if (freeCount == freeSlots.length) {
+                int[] larger = new int[freeSlots.length * 2];
+                System.arraycopy(freeSlots, 0, larger, 0, freeCount);
+                freeSlots = larger;
+            }
+            freeSlots[freeCount++] = slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Hands a session and its id over to the client's new connection when it resumes
+    void replace(ClientConnection previous, ClientConnection handler) {
+        lock.lock();
+        try {
+            Integer id = ids.remove(previous);
+            if (id == null) {
+                return;
+            }
+            ids.put(handler, id);
+            slots.set(id & SLOT_MASK, new Session(id, handler));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Null when the id is unknown or belongs to a client that has left
+    ClientConnection get(int id) {
+        if (id <= 0) {
+            return null;
+        }
+        AtomicReferenceArray<Session> slots = this.slots;
+        int slot = id & SLOT_MASK;
+        if (slot >= slots.length()) {
+            return null;
+        }
+        Session session = slots.get(slot);
+        return session != null && session.id() == id ? session.handler() : null;
+    }
+
+    // 0 when the connection is not registered
+    int idOf(ClientConnection handler) {
+        Integer id = ids.get(handler);
+        return id != null ? id : 0;
+    }
+
+    // Called under the lock
+    private void grow(int slot) {
+        AtomicReferenceArray<Session> current = slots;
+        if (slot < current.length()) {
+            return;
+        }
+        AtomicReferenceArray<Session> larger = new AtomicReferenceArray<>(current.length() * 2);
+        for (int i = 0; i < current.length(); i++) {
+            larger.set(i, current.get(i));
+        }
+        int[] largerGenerations = new int[larger.length()];
+        System.arraycopy(generations, 0, largerGenerations, 0, generations.length);
+        generations = largerGenerations;
+        slots = larger;
+    }
+
+    private record Session(int id, ClientConnection handler) {
+    }
+}
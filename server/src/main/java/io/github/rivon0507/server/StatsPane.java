@@ -0,0 +1,130 @@
+package io.github.rivon0507.server;
+
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+import java.util.List;
+
+// Live view of ServerMetrics, refreshed by ServerApplication once per second
+class StatsPane extends VBox {
+    private final Label activeConnections = new Label();
+    private final Label connectionsAccepted = new Label();
+    private final Label handshakes = new Label();
+    private final Label refusedConnections = new Label();
+    private final Label idleReaped = new Label();
+    private final Label messageRate = new Label();
+    private final Label privateMessages = new Label();
+    private final Label broadcastMessages = new Label();
+    private final Label bytesIn = new Label();
+    private final Label bytesOut = new Label();
+    private final Label failedDeliveries = new Label();
+    private final Label storedMessages = new Label();
+    private final Label journalRefused = new Label();
+    private final Label forwardedMessages = new Label();
+    private final Label resumedSessions = new Label();
+    private final Label creditStalls = new Label();
+    private final Label throttledMessages = new Label();
+    private final Label queueDepth = new Label();
+    private final Label routingLatency = new Label();
+    private final Label fanOutTime = new Label();
+    // The clients with the most frames queued, to find a slow consumer; sortable by any column
+    private final TableView<ClientQueueStats> deepestQueues = new TableView<>();
+    private long previousRouted = -1;
+
+    StatsPane() {
+        super(5);
+        setPadding(new Insets(10));
+        setPrefWidth(260);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(4);
+        addRow(grid, 0, "Active connections:", activeConnections);
+        addRow(grid, 1, "Accepted:", connectionsAccepted);
+        addRow(grid, 2, "Handshakes ok/rejected:", handshakes);
+        addRow(grid, 3, "Refused/timed out:", refusedConnections);
+        addRow(grid, 4, "Idle reaped:", idleReaped);
+        addRow(grid, 5, "Messages/s:", messageRate);
+        addRow(grid, 6, "Private routed:", privateMessages);
+        addRow(grid, 7, "Broadcasts routed:", broadcastMessages);
+        addRow(grid, 8, "Bytes in:", bytesIn);
+        addRow(grid, 9, "Bytes out:", bytesOut);
+        addRow(grid, 10, "Failed deliveries:", failedDeliveries);
+        addRow(grid, 11, "Stored/replayed:", storedMessages);
+        addRow(grid, 12, "Journal rejected/expired:", journalRefused);
+        addRow(grid, 13, "Forwarded to nodes:", forwardedMessages);
+        addRow(grid, 14, "Sessions resumed:", resumedSessions);
+        addRow(grid, 15, "Credit stalls:", creditStalls);
+        addRow(grid, 16, "Throttled messages:", throttledMessages);
+        addRow(grid, 17, "Outbound queued:", queueDepth);
+        addRow(grid, 18, "Routing p99 (us):", routingLatency);
+        addRow(grid, 19, "Fan-out p99 (us):", fanOutTime);
+
+        TableColumn<ClientQueueStats, String> client = new TableColumn<>("Client");
+        client.setCellValueFactory(row -> new ReadOnlyStringWrapper(row.getValue().clientName()));
+        TableColumn<ClientQueueStats, Number> queued = new TableColumn<>("Queued");
+        queued.setCellValueFactory(row -> new ReadOnlyIntegerWrapper(row.getValue().outboundQueueDepth()));
+        TableColumn<ClientQueueStats, Number> dropped = new TableColumn<>("Dropped");
+        dropped.setCellValueFactory(row -> new ReadOnlyLongWrapper(row.getValue().droppedFrames()));
+        deepestQueues.getColumns().addAll(List.of(client, queued, dropped));
+        deepestQueues.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_FIRST_COLUMN);
+        deepestQueues.setPlaceholder(new Label("No clients"));
+        VBox.setVgrow(deepestQueues, Priority.ALWAYS);
+
+        getChildren().addAll(new Label("Server Stats:"), grid, new Label("Deepest outbound queues:"), deepestQueues);
+        update(null);
+    }
+
+    private static void addRow(GridPane grid, int row, String name, Label value) {
+        grid.add(new Label(name), 0, row);
+        grid.add(value, 1, row);
+    }
+
+    // Must be called on the FX thread; null clears the pane
+    void update(ServerMetrics metrics) {
+        if (metrics == null) {
+            previousRouted = -1;
+            for (Label label : new Label[]{activeConnections, connectionsAccepted, handshakes, refusedConnections, idleReaped, messageRate,
+                    privateMessages, broadcastMessages, bytesIn, bytesOut, failedDeliveries, storedMessages, journalRefused, forwardedMessages, resumedSessions, creditStalls, throttledMessages, queueDepth,
+                    routingLatency, fanOutTime}) {
+                label.setText("-");
+            }
+            deepestQueues.getItems().clear();
+            return;
+        }
+
+        long routed = metrics.getPrivateMessagesRouted() + metrics.getBroadcastMessagesRouted();
+        activeConnections.setText(String.valueOf(metrics.getActiveConnections()));
+        connectionsAccepted.setText(String.valueOf(metrics.getConnectionsAccepted()));
+        handshakes.setText(metrics.getHandshakesCompleted() + " / " + metrics.getHandshakesRejected());
+        refusedConnections.setText(metrics.getConnectionsRefused() + " / " + metrics.getHandshakesTimedOut());
+        idleReaped.setText(String.valueOf(metrics.getIdleConnectionsReaped()));
+        messageRate.setText(previousRouted < 0 ? "-" : String.valueOf(routed - previousRouted));
+        privateMessages.setText(String.valueOf(metrics.getPrivateMessagesRouted()));
+        broadcastMessages.setText(String.valueOf(metrics.getBroadcastMessagesRouted()));
+        bytesIn.setText(String.valueOf(metrics.getBytesIn()));
+        bytesOut.setText(String.valueOf(metrics.getBytesOut()));
+        failedDeliveries.setText(String.valueOf(metrics.getFailedDeliveries()));
+        storedMessages.setText(metrics.getMessagesStored() + " / " + metrics.getMessagesReplayed());
+        journalRefused.setText(metrics.getJournalRejected() + " / " + metrics.getJournalExpired());
+        forwardedMessages.setText(String.valueOf(metrics.getMessagesForwarded()));
+        resumedSessions.setText(String.valueOf(metrics.getSessionsResumed()));
+        creditStalls.setText(String.valueOf(metrics.getCreditStalls()));
+        throttledMessages.setText(String.valueOf(metrics.getMessagesThrottled()));
+        queueDepth.setText(String.valueOf(metrics.getOutboundQueueDepth()));
+        routingLatency.setText(String.valueOf(metrics.getRoutingLatencyP99Micros()));
+        fanOutTime.setText(String.valueOf(metrics.getFanOutTimeP99Micros()));
+        deepestQueues.getItems().setAll(metrics.getDeepestOutboundQueues());
+        // Keeps the column the operator sorted by, if any
+        deepestQueues.sort();
+        previousRouted = routed;
+    }
+}
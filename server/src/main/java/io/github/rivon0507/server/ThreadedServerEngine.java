@@ -0,0 +1,87 @@
+package io.github.rivon0507.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class ThreadedServerEngine implements ServerEngine {
+    private final int port;
+    private final MessageServer server;
+    private final ExecutorService pool;
+    private final HandshakeGate handshakes;
+    private ServerSocket serverSocket;
+    private volatile boolean running = false;
+
+    public ThreadedServerEngine(int port, MessageServer server, boolean virtualThreads) {
+        this.port = port;
+        this.server = server;
+        this.pool = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+        ServerConfig config = server.getConfig();
+        this.handshakes = new HandshakeGate(config.getMaxPendingHandshakes(), config.getHandshakeTimeoutMillis(), server.getMetrics());
+    }
+
+    @Override
+    public void start() throws IOException {
+        ServerConfig config = server.getConfig();
+        serverSocket = new ServerSocket(port, config.getAcceptBacklog());
+        running = true;
+        ServerLog.info("Server started on port " + port
+                + (pool instanceof ThreadPoolExecutor ? "" : " (virtual threads)"));
+
+        // The calling thread is one of the acceptors
+        for (int i = 1; i < config.getAcceptorThreads(); i++) {
+            Thread.ofPlatform().daemon().name("acceptor-" + i).start(() -> {
+                try {
+                    acceptLoop();
+                } catch (IOException e) {
+                    if (running) {
+                        ServerLog.error("Error accepting connections: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        acceptLoop();
+    }
+
+    private void acceptLoop() throws IOException {
+        while (running) {
+            Socket clientSocket = serverSocket.accept();
+            HandshakeGate.Handshake handshake = handshakes.admit();
+            if (handshake == null) {
+                refuse(clientSocket);
+                continue;
+            }
+            ServerLog.info("New client connected: " + clientSocket.getInetAddress().getHostAddress());
+            ClientHandler clientHandler = new ClientHandler(clientSocket, server, handshake);
+            handshake.startDeadline(() -> clientHandler.disconnect("Handshake timed out"));
+            pool.execute(clientHandler);
+        }
+    }
+
+    // Resets the connection rather than closing it gracefully, so it leaves nothing behind
+    private static void refuse(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } catch (IOException ignored) {
+            // Already gone
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Error stopping server: " + e.getMessage());
+        }
+        pool.shutdown();
+        handshakes.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.rivon0507.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Admits up to ratePerSecond messages a second on average and up to burst at once. Tokens refill
+// continuously from the time elapsed, so there is no timer to run per client.
+class TokenBucket {
+    // A sender over its limit is told at most this often, however fast it keeps sending
+    private static final long NOTICE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double tokensPerNano;
+    private final int burst;
+    // System.nanoTime outside of tests
+    private final LongSupplier nanoClock;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock, like the fields below
+    private double tokens;
+    private long refilledAt;
+    private long refused;
+    private long noticedAt;
+
+    TokenBucket(int ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(int ratePerSecond, int burst, LongSupplier nanoClock) {
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.nanoClock = nanoClock;
+        this.tokens = burst;
+        this.refilledAt = nanoClock.getAsLong();
+        this.noticedAt = refilledAt - NOTICE_INTERVAL_NANOS;
+    }
+
+    boolean tryTake() {
+        lock.lock();
+        try {
+            long now = nanoClock.getAsLong();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            refused++;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Messages refused since the sender was last told, 0 when it was told too recently
+    long refusedToReport() {
+        lock.lock();
+        try {
+            long now = nanoClock.getAsLong();
+            if (refused == 0 || now - noticedAt < NOTICE_INTERVAL_NANOS) {
+                return 0;
+            }
+            long count = refused;
+            refused = 0;
+            noticedAt = now;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
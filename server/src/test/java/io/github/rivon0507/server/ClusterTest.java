@@ -0,0 +1,120 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two nodes linked over loopback, each with clients of its own
+class ClusterTest {
+    private static final String SECRET = "loopback-cluster-secret";
+    private static final long LINK_TIMEOUT_MILLIS = 10_000;
+
+    private LoopbackServer first;
+    private LoopbackServer second;
+
+    @BeforeEach
+    void startNodes() throws Exception {
+        int firstClusterPort = LoopbackServer.freePort();
+        int secondClusterPort = LoopbackServer.freePort();
+        first = LoopbackServer.start(node("node-a", firstClusterPort, secondClusterPort, SECRET));
+        second = LoopbackServer.start(node("node-b", secondClusterPort, firstClusterPort, SECRET));
+    }
+
+    @AfterEach
+    void stopNodes() throws Exception {
+        second.close();
+        first.close();
+    }
+
+    @Test
+    void deliversPrivateMessagesAcrossNodes() throws Exception {
+        try (TestClient alice = first.connect(); TestClient bob = second.connect()) {
+            assertTrue(alice.login("alice").isSuccess());
+            assertTrue(bob.login("bob").isSuccess());
+            awaitRoster(first, "bob");
+
+            alice.send(new Message("alice", "bob", "hello from a"));
+            Message received = bob.await(Message.class, message -> "hello from a".equals(message.getContent()));
+            assertEquals("alice", received.getSender());
+            assertFalse(received.isBroadcast());
+        }
+    }
+
+    @Test
+    void broadcastsReachEveryNode() throws Exception {
+        try (TestClient alice = first.connect(); TestClient bob = second.connect(); TestClient carol = second.connect()) {
+            assertTrue(alice.login("alice").isSuccess());
+            assertTrue(bob.login("bob").isSuccess());
+            assertTrue(carol.login("carol").isSuccess());
+            awaitRoster(first, "carol");
+
+            bob.send(new Message("bob", "ALL", "hello everyone"));
+            assertTrue(alice.await(Message.class, message -> "hello everyone".equals(message.getContent())).isBroadcast());
+            assertTrue(carol.await(Message.class, message -> "hello everyone".equals(message.getContent())).isBroadcast());
+        }
+    }
+
+    @Test
+    void rejectsNameRegisteredOnTheOtherNode() throws Exception {
+        try (TestClient alice = first.connect(); TestClient impostor = second.connect()) {
+            assertTrue(alice.login("alice").isSuccess());
+            awaitRoster(second, "alice");
+
+            ConnectionResponse response = impostor.login("alice");
+            assertFalse(response.isSuccess());
+            assertEquals(List.of("alice"), first.server().getConnectedClients());
+        }
+    }
+
+    // The HMAC proof fails, so neither node learns the other's clients or takes its messages
+    @Test
+    void refusesNodeWithWrongSecret() throws Exception {
+        try (TestClient alice = first.connect(); TestClient bob = second.connect()) {
+            assertTrue(alice.login("alice").isSuccess());
+            assertTrue(bob.login("bob").isSuccess());
+            awaitRoster(first, "bob");
+        }
+        int intruderClusterPort = LoopbackServer.freePort();
+        try (LoopbackServer intruder = LoopbackServer.start(node("node-c", intruderClusterPort,
+                first.server().getConfig().getClusterPort(), "not-the-cluster-secret"));
+             TestClient mallory = intruder.connect();
+             TestClient alice = first.connect()) {
+            assertTrue(mallory.login("mallory").isSuccess());
+            // The intruder dials as soon as it starts; give the handshake time to fail
+            TestClient.sleep(1000);
+            assertFalse(first.server().getConnectedClients().contains("mallory"));
+            assertFalse(intruder.server().getConnectedClients().contains("bob"));
+            // Its claims are not asked for either: the name stays free on the linked nodes
+            assertTrue(alice.login("mallory").isSuccess());
+        }
+    }
+
+    private static ServerConfig node(String nodeId, int clusterPort, int peerPort, String secret) {
+        return new ServerConfig()
+                .setNodeId(nodeId)
+                .setClusterPort(clusterPort)
+                .setClusterBindAddress("127.0.0.1")
+                .setPeers(List.of("127.0.0.1:" + peerPort))
+                .setClusterSecret(secret);
+    }
+
+    // Waits for a client registered on the other node to show up on this one
+    private static void awaitRoster(LoopbackServer node, String name) throws IOException {
+        long deadline = System.currentTimeMillis() + LINK_TIMEOUT_MILLIS;
+        while (!node.server().getConnectedClients().contains(name)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(name + " never reached node on port " + node.port());
+            }
+            TestClient.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.FlowCredit;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CreditWindowTest {
+    private static final int WINDOW = 10;
+
+    private final List<Long> grants = new ArrayList<>();
+    private final CreditWindow credit = new CreditWindow(WINDOW,
+            frame -> grants.add(((FlowCredit) frame.getObject()).getLimit()));
+
+    @Test
+    void opensWithOneWindow() {
+        credit.open();
+        assertEquals(List.of(10L), grants);
+        receive(WINDOW - 1);
+        assertTrue(credit.hasCredit());
+        receive(1);
+        assertFalse(credit.hasCredit());
+    }
+
+    // Until half the window is used, replenishing grants nothing
+    @Test
+    void movesTheWindowOnceHalfIsUsed() {
+        receive(4);
+        credit.replenish();
+        assertTrue(grants.isEmpty());
+        receive(1);
+        credit.replenish();
+        assertEquals(List.of(15L), grants);
+        receive(9);
+        assertTrue(credit.hasCredit());
+        receive(1);
+        assertFalse(credit.hasCredit());
+    }
+
+    @Test
+    void backedUpRecipientHoldsTheGrant() {
+        receive(WINDOW);
+        credit.stall();
+        credit.stall();
+        credit.replenish();
+        assertTrue(grants.isEmpty());
+        credit.unstall();
+        assertTrue(grants.isEmpty());
+        // The last recipient catching up grants the credit
+        credit.unstall();
+        assertEquals(List.of(20L), grants);
+        assertTrue(credit.hasCredit());
+    }
+
+    @Test
+    void readerWaitsForCredit() throws Exception {
+        receive(WINDOW);
+        AtomicBoolean resumed = new AtomicBoolean();
+        Thread reader = Thread.ofPlatform().start(() -> {
+            try {
+                resumed.set(credit.awaitCredit());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TestClient.sleep(50);
+        assertTrue(reader.isAlive());
+        credit.replenish();
+        reader.join(5000);
+        assertTrue(resumed.get());
+    }
+
+    @Test
+    void closingReleasesAWaitingReader() throws Exception {
+        receive(WINDOW);
+        AtomicBoolean resumed = new AtomicBoolean(true);
+        Thread reader = Thread.ofPlatform().start(() -> {
+            try {
+                resumed.set(credit.awaitCredit());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TestClient.sleep(50);
+        credit.close();
+        reader.join(5000);
+        assertFalse(resumed.get());
+        // A closed window grants nothing more
+        credit.replenish();
+        assertTrue(grants.isEmpty());
+    }
+
+    private void receive(int count) {
+        for (int i = 0; i < count; i++) {
+            credit.messageReceived();
+        }
+    }
+}
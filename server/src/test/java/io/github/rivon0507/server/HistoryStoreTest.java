@@ -0,0 +1,119 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.HistoryRequest;
+import io.github.rivon0507.common.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryStoreTest {
+    // Room for about 20 of the messages below per segment, two segments kept
+    private static final int SEGMENT_SIZE = 20 * 100;
+    private static final long MAX_BYTES = 2 * SEGMENT_SIZE;
+
+    private final Path directory;
+    private HistoryStore store;
+
+    HistoryStoreTest() throws IOException {
+        directory = Files.createTempDirectory("history-test");
+        store = new HistoryStore(directory, SEGMENT_SIZE, 16, MAX_BYTES);
+    }
+
+    @AfterEach
+    void delete() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void pagesBackThroughConversation() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            store.record(message("alice", "bob", i));
+        }
+        String key = HistoryStore.conversationKey("bob", "alice");
+        HistoryStore.Page latest = store.page(key, HistoryRequest.LATEST, 10);
+        assertEquals(20, latest.startOffset());
+        assertEquals(content(20), latest.messages().getFirst().getContent());
+        HistoryStore.Page earlier = store.page(key, latest.startOffset(), 25);
+        assertEquals(0, earlier.startOffset());
+        assertEquals(20, earlier.messages().size());
+    }
+
+    @Test
+    void dropsOldestSegmentBeyondRetention() throws IOException {
+        // Five segments' worth, of which the last two at most are kept
+        for (int i = 0; i < 100; i++) {
+            store.record(message("alice", "bob", i));
+        }
+        assertTrue(segmentFiles() <= 2, segmentFiles() + " segments");
+
+        String key = HistoryStore.conversationKey("alice", "bob");
+        List<Message> retained = readAll(key);
+        assertTrue(retained.size() <= 40 && retained.size() >= 20, retained.size() + " messages");
+        // Offsets are kept: the retained messages are the latest ones, in order
+        assertEquals(content(99), retained.getLast().getContent());
+        assertEquals(content(100 - retained.size()), retained.getFirst().getContent());
+        // Asking before the oldest retained message finds nothing earlier
+        HistoryStore.Page page = store.page(key, 100 - retained.size(), 10);
+        assertEquals(0, page.startOffset());
+        assertEquals(0, page.messages().size());
+    }
+
+    @Test
+    void forgetsConversationsWithNothingRetained() throws IOException {
+        store.record(message("carol", "dave", 0));
+        for (int i = 0; i < 100; i++) {
+            store.record(message("alice", "bob", i));
+        }
+        HistoryStore.Page page = store.page(HistoryStore.conversationKey("carol", "dave"), HistoryRequest.LATEST, 10);
+        assertEquals(0, page.messages().size());
+    }
+
+    @Test
+    void appliesRetentionOnRecovery() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            store.record(message("alice", "bob", i));
+        }
+        store.close();
+        store = new HistoryStore(directory, SEGMENT_SIZE, 16, SEGMENT_SIZE);
+        // Clamped to two segments
+        assertTrue(segmentFiles() <= 2);
+        List<Message> retained = readAll(HistoryStore.conversationKey("alice", "bob"));
+        assertEquals(content(99), retained.getLast().getContent());
+    }
+
+    // Every retained message of the conversation, oldest first, paging back from the latest
+    private List<Message> readAll(String key) throws IOException {
+        HistoryStore.Page page = store.page(key, HistoryRequest.LATEST, HistoryStore.MAX_PAGE);
+        assertTrue(page.messages().size() < HistoryStore.MAX_PAGE, "fits one page");
+        return page.messages();
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static Message message(String sender, String destination, int index) {
+        return new Message(sender, destination, content(index));
+    }
+
+    // About 100 bytes once encoded with the names above
+    private static String content(int index) {
+        return String.format("message %03d ", index) + "x".repeat(74);
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.rivon0507.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IdleWheelTest {
+    // 8 ticks of 100 ms per interval, a timeout of 24 ticks
+    private static final long INTERVAL_MILLIS = 800;
+    private static final long TIMEOUT_MILLIS = 2400;
+
+    private final ServerMetrics metrics = new ServerMetrics(() -> 0, List::of);
+    private final IdleWheel wheel = new IdleWheel(INTERVAL_MILLIS, TIMEOUT_MILLIS, metrics, false);
+    private final AtomicInteger probes = new AtomicInteger();
+    private final AtomicInteger expiries = new AtomicInteger();
+
+    @AfterEach
+    void shutdown() {
+        wheel.shutdown();
+    }
+
+    @Test
+    void probesSilentConnectionAfterInterval() {
+        wheel.watch(probes::incrementAndGet, expiries::incrementAndGet);
+        // Due a whole interval after the tick it was started in
+        advance(7);
+        assertEquals(0, probes.get());
+        advance(1);
+        assertEquals(1, probes.get());
+        assertEquals(0, expiries.get());
+    }
+
+    @Test
+    void expiresConnectionSilentUntilTimeout() {
+        wheel.watch(probes::incrementAndGet, expiries::incrementAndGet);
+        advance(23);
+        assertEquals(0, expiries.get());
+        advance(1);
+        assertEquals(1, probes.get(), "one heartbeat per silence");
+        assertEquals(1, expiries.get());
+        assertEquals(1, metrics.getIdleConnectionsReaped());
+
+        advance(100);
+        assertEquals(1, expiries.get(), "an expired watch is not checked again");
+    }
+
+    @Test
+    void touchKeepsConnectionAlive() {
+        IdleWheel.Watch watch = wheel.watch(probes::incrementAndGet, expiries::incrementAndGet);
+        for (int i = 0; i < 100; i++) {
+            advance(1);
+            watch.touch();
+        }
+        assertEquals(0, probes.get());
+        assertEquals(0, expiries.get());
+    }
+
+    @Test
+    void answeredProbeDefersExpiry() {
+        IdleWheel.Watch watch = wheel.watch(probes::incrementAndGet, expiries::incrementAndGet);
+        advance(8);
+        assertEquals(1, probes.get());
+        // The heartbeat reply counts as traffic: the silence starts over at tick 9
+        advance(1);
+        watch.touch();
+        advance(7);
+        assertEquals(1, probes.get());
+        advance(1);
+        assertEquals(2, probes.get(), "a new silence gets its own heartbeat");
+        advance(15);
+        assertEquals(0, expiries.get());
+        advance(1);
+        assertEquals(1, expiries.get());
+    }
+
+    @Test
+    void holdSuppressesProbesAndExpiry() {
+        IdleWheel.Watch watch = wheel.watch(probes::incrementAndGet, expiries::incrementAndGet);
+        watch.hold();
+        advance(100);
+        assertEquals(0, probes.get());
+        assertEquals(0, expiries.get());
+
+        // Released, the silence counts from the release
+        watch.release();
+        advance(7);
+        assertEquals(0, probes.get());
+        advance(1);
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    void cancelledWatchIsDropped() {
+        IdleWheel.Watch watch = wheel.watch(probes::incrementAndGet, expiries::incrementAndGet);
+        advance(1);
+        watch.cancel();
+        advance(100);
+        assertEquals(0, probes.get());
+        assertEquals(0, expiries.get());
+        assertEquals(0, metrics.getIdleConnectionsReaped());
+    }
+
+    @Test
+    void expiresAfterLongTimeout() {
+        // A timeout of 1000 ticks, which the wheel is sized to span
+        IdleWheel wide = new IdleWheel(INTERVAL_MILLIS, 100_000, metrics, false);
+        try {
+            wide.watch(probes::incrementAndGet, expiries::incrementAndGet);
+            for (int i = 0; i < 999; i++) {
+                wide.advance();
+            }
+            assertEquals(1, probes.get());
+            assertEquals(0, expiries.get());
+            wide.advance();
+            assertEquals(1, expiries.get());
+        } finally {
+            wide.shutdown();
+        }
+    }
+
+    private void advance(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            wheel.advance();
+        }
+    }
+}
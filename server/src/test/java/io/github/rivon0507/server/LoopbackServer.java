@@ -0,0 +1,48 @@
+package io.github.rivon0507.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+// A MessageServer running on a free loopback port in this JVM, stopped by close()
+final class LoopbackServer implements AutoCloseable {
+    private final MessageServer server;
+    private final int port;
+    private final Thread thread;
+
+    private LoopbackServer(MessageServer server, int port) {
+        this.server = server;
+        this.port = port;
+        // start() serves until the server is stopped
+        this.thread = Thread.ofPlatform().daemon().name("loopback-server-" + port).start(server::start);
+    }
+
+    static LoopbackServer start(ServerConfig config) throws IOException {
+        int port = freePort();
+        return new LoopbackServer(new MessageServer(port, config), port);
+    }
+
+    // A port nothing listens on right now; the server binds it shortly after
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    MessageServer server() {
+        return server;
+    }
+
+    int port() {
+        return port;
+    }
+
+    TestClient connect() throws IOException {
+        return TestClient.connect(port);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.stop();
+        thread.join(5000);
+    }
+}
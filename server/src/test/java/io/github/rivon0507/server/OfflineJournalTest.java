@@ -0,0 +1,65 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class OfflineJournalTest {
+    private static final int SEGMENT_SIZE = 1024;
+
+    private Path directory;
+    private final ServerMetrics metrics = new ServerMetrics(() -> 0, List::of);
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // Rolls across several segments, whose flushes run in the background, and reopens them
+    @Test
+    void keepsMessagesAcrossRollsAndRestarts() throws IOException {
+        OfflineJournal journal = open();
+        journal.addRecipient("bob");
+        for (int i = 0; i < 40; i++) {
+            assertEquals(OfflineJournal.Result.STORED, journal.append(new Message("alice", "bob", "message " + i)));
+        }
+        journal.close();
+
+        OfflineJournal reopened = open();
+        try {
+            List<String> replayed = new ArrayList<>();
+            reopened.startReplay("bob");
+            assertFalse(reopened.replay("bob", message -> replayed.add(message.getContent())));
+            assertEquals(40, replayed.size());
+            assertEquals("message 0", replayed.getFirst());
+            assertEquals("message 39", replayed.getLast());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private OfflineJournal open() throws IOException {
+        return new OfflineJournal(directory, SEGMENT_SIZE, 60_000, 1000, 1 << 20, metrics);
+    }
+}
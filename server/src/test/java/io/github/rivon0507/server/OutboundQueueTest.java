@@ -0,0 +1,79 @@
+package io.github.rivon0507.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+    private final ServerMetrics metrics = new ServerMetrics(() -> 0, List::of);
+
+    @Test
+    void dropOldestMakesRoomForTheNewFrame() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, 0, metrics);
+        ByteBuffer first = frame(1);
+        ByteBuffer second = frame(2);
+        ByteBuffer third = frame(3);
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+        assertTrue(queue.offer(third));
+
+        assertEquals(2, queue.size());
+        assertSame(second, queue.poll());
+        assertSame(third, queue.poll());
+        assertEquals(1, queue.getDropped());
+        assertEquals(1, metrics.getFailedDeliveries());
+    }
+
+    @Test
+    void disconnectRefusesTheNewFrame() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DISCONNECT, 0, metrics);
+        ByteBuffer first = frame(1);
+        assertTrue(queue.offer(first));
+        assertFalse(queue.offer(frame(2)));
+
+        assertSame(first, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    void blockWaitsForRoom() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK, 5000, metrics);
+        ByteBuffer first = frame(1);
+        ByteBuffer second = frame(2);
+        assertTrue(queue.offer(first));
+        Thread writer = Thread.ofPlatform().start(() -> {
+            TestClient.sleep(50);
+            queue.poll();
+        });
+        assertTrue(queue.offer(second));
+        writer.join();
+
+        assertSame(second, queue.poll());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void blockDropsTheNewFrameAfterTheTimeout() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK, 20, metrics);
+        ByteBuffer first = frame(1);
+        assertTrue(queue.offer(first));
+        // The connection stays open; only the frame is lost
+        assertTrue(queue.offer(frame(2)));
+
+        assertSame(first, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, queue.getDropped());
+    }
+
+    private static ByteBuffer frame(int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+    }
+}
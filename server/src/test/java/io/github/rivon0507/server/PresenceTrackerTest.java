@@ -0,0 +1,83 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.PresenceUpdate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceTrackerTest {
+    private static final long WINDOW_MILLIS = 50;
+
+    private MessageServer server;
+    private RecordingConnection observer;
+    private PresenceTracker tracker;
+
+    @BeforeEach
+    void register() {
+        // The server's own tracker never flushes during a test, so only this one's deltas arrive
+        server = new MessageServer(0, new ServerConfig().setPresenceCoalesceMillis(60_000));
+        observer = new RecordingConnection("observer");
+        assertTrue(server.registerClient("observer", observer));
+        tracker = new PresenceTracker(server, WINDOW_MILLIS);
+    }
+
+    @AfterEach
+    void stop() {
+        tracker.shutdown();
+        server.stop();
+    }
+
+    @Test
+    void coalescesAWindowIntoOneDelta() throws Exception {
+        tracker.joined("alice", 3);
+        tracker.joined("bob", 4);
+        tracker.left("carol");
+
+        PresenceUpdate update = assertInstanceOf(PresenceUpdate.class, observer.next());
+        assertEquals(1L, update.getVersion());
+        assertEquals(List.of("alice", "bob"), update.getJoined());
+        assertArrayEquals(new int[]{3, 4}, update.getJoinedIds());
+        assertEquals(List.of("carol"), update.getLeft());
+        assertEquals(1L, tracker.getVersion());
+        assertNull(observer.poll());
+    }
+
+    @Test
+    void nameJoiningAndLeavingInOneWindowNeverAppears() throws Exception {
+        tracker.joined("alice", 3);
+        tracker.joined("bob", 4);
+        tracker.left("alice");
+
+        PresenceUpdate update = assertInstanceOf(PresenceUpdate.class, observer.next());
+        assertEquals(List.of("bob"), update.getJoined());
+        assertEquals(List.of(), update.getLeft());
+    }
+
+    @Test
+    void laterWindowsGetTheNextVersion() throws Exception {
+        tracker.joined("alice", 3);
+        assertEquals(1L, assertInstanceOf(PresenceUpdate.class, observer.next()).getVersion());
+
+        tracker.left("alice");
+        PresenceUpdate update = assertInstanceOf(PresenceUpdate.class, observer.next());
+        assertEquals(2L, update.getVersion());
+        assertEquals(List.of("alice"), update.getLeft());
+    }
+
+    @Test
+    void quietWindowPublishesNothing() throws Exception {
+        tracker.joined("alice", 3);
+        tracker.left("alice");
+        // Both cancel out: the flush finds nothing to publish and the version stays
+        assertNull(observer.next());
+        assertEquals(0L, tracker.getVersion());
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.Message;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// A ClientConnection without a socket, keeping what the server sends it
+final class RecordingConnection implements ClientConnection {
+    private final String name;
+    private final BlockingQueue<Object> sent = new LinkedBlockingQueue<>();
+    private volatile String disconnectReason;
+
+    RecordingConnection(String name) {
+        this.name = name;
+    }
+
+    // The next object sent, a message or a frame's object, or null after a second
+    Object next() throws InterruptedException {
+        return sent.poll(1, TimeUnit.SECONDS);
+    }
+
+    // Whatever was sent and not taken yet
+    Object poll() {
+        return sent.poll();
+    }
+
+    String getDisconnectReason() {
+        return disconnectReason;
+    }
+
+    @Override
+    public String getClientName() {
+        return name;
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+        sent.add(message);
+    }
+
+    @Override
+    public void sendConnectionResponse(boolean success, String message, List<String> clients) {
+    }
+
+    @Override
+    public void sendFrame(EncodedFrame frame) {
+        sent.add(frame.getObject());
+    }
+
+    @Override
+    public boolean isCompressionEnabled() {
+        return false;
+    }
+
+    @Override
+    public void disconnect(String reason) {
+        disconnectReason = reason;
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return 0;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return 0;
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return 0;
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return 0;
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.ConnectionResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistrationTest {
+
+    @Test
+    void checksNames() {
+        assertNotNull(MessageServer.invalidNameReason(null));
+        assertNotNull(MessageServer.invalidNameReason(""));
+        assertNotNull(MessageServer.invalidNameReason("  "));
+        assertNotNull(MessageServer.invalidNameReason("ALL"));
+        assertNotNull(MessageServer.invalidNameReason("server"));
+        assertNotNull(MessageServer.invalidNameReason("#general"));
+        assertNull(MessageServer.invalidNameReason("alice"));
+    }
+
+    @Test
+    void rejectsInvalidNamesWithoutLocking() {
+        MessageServer server = new MessageServer(0);
+        try {
+            assertFalse(server.registerClient(null, null));
+            assertFalse(server.registerClient("ALL", null));
+            assertEquals(2, server.getMetrics().getHandshakesRejected());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void threadedEngineAnswersInvalidNames() throws Exception {
+        answersInvalidNames(EngineType.THREADED);
+    }
+
+    @Test
+    void virtualEngineAnswersInvalidNames() throws Exception {
+        answersInvalidNames(EngineType.VIRTUAL);
+    }
+
+    @Test
+    void nioEngineAnswersInvalidNames() throws Exception {
+        answersInvalidNames(EngineType.NIO);
+    }
+
+    @Test
+    void rejectsNameInUse() throws Exception {
+        try (LoopbackServer server = LoopbackServer.start(new ServerConfig().setEngine(EngineType.NIO));
+             TestClient alice = server.connect();
+             TestClient impostor = server.connect()) {
+            assertTrue(alice.login("alice").isSuccess());
+            ConnectionResponse response = impostor.login("alice");
+            assertFalse(response.isSuccess());
+            assertEquals("Name already in use", response.getMessage());
+        }
+    }
+
+    // Refused clients are told why and closed; the engine keeps serving the others
+    private static void answersInvalidNames(EngineType engine) throws Exception {
+        try (LoopbackServer server = LoopbackServer.start(new ServerConfig().setEngine(engine).setEventLoopThreads(1))) {
+            try (TestClient alice = server.connect()) {
+                assertTrue(alice.login("alice").isSuccess());
+                for (String name : new String[]{null, " ", "ALL", "#room"}) {
+                    try (TestClient client = server.connect()) {
+                        ConnectionResponse response = client.login(name);
+                        assertFalse(response.isSuccess(), "name " + name);
+                        assertNotNull(response.getMessage());
+                        assertTrue(client.awaitClosed(), "connection of " + name + " closed");
+                    }
+                }
+                // A later client reaches the same event loop and is served
+                try (TestClient bob = server.connect()) {
+                    assertTrue(bob.login("bob").isSuccess());
+                }
+                assertEquals(4, server.server().getMetrics().getHandshakesRejected());
+            }
+        }
+    }
+}
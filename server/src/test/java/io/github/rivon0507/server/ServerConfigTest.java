@@ -0,0 +1,24 @@
+package io.github.rivon0507.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ServerConfigTest {
+
+    @Test
+    void threadedEngineAdmitsFewerPendingHandshakes() {
+        assertEquals(128, new ServerConfig().setEngine(EngineType.THREADED).getMaxPendingHandshakes());
+        assertEquals(1024, new ServerConfig().setEngine(EngineType.VIRTUAL).getMaxPendingHandshakes());
+        assertEquals(1024, new ServerConfig().setEngine(EngineType.NIO).getMaxPendingHandshakes());
+    }
+
+    @Test
+    void explicitPendingHandshakesApplyToEveryEngine() {
+        ServerConfig config = new ServerConfig().setMaxPendingHandshakes(500);
+        assertEquals(500, config.setEngine(EngineType.THREADED).getMaxPendingHandshakes());
+        assertEquals(500, config.setEngine(EngineType.NIO).getMaxPendingHandshakes());
+        assertThrows(IllegalArgumentException.class, () -> config.setMaxPendingHandshakes(0));
+    }
+}
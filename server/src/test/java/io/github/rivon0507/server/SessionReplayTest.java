@@ -0,0 +1,84 @@
+package io.github.rivon0507.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionReplayTest {
+    private static final int CAPACITY = 4;
+
+    private final RecordingConnection first = new RecordingConnection("alice");
+    private final RecordingConnection second = new RecordingConnection("alice");
+    private final List<Object> firstSent = new ArrayList<>();
+    private final List<Object> secondSent = new ArrayList<>();
+    private final SessionReplay replay = new SessionReplay(42, "alice", CAPACITY, first,
+            frame -> firstSent.add(frame.getObject()));
+
+    // The frames a client missed are sent again after the response, in order
+    @Test
+    void resumesAfterTheFramesTheClientRead() {
+        sendFrames(6);
+        boolean[] published = new boolean[1];
+        assertTrue(replay.resume(second, frame -> secondSent.add(frame.getObject()), 3,
+                new EncodedFrame("response"), () -> published[0] = true));
+
+        assertEquals(List.of("response", "frame 3", "frame 4", "frame 5"), secondSent);
+        assertTrue(published[0]);
+        assertSame(second, replay.getOwner());
+        // Later frames go to the new connection only
+        replay.send(new EncodedFrame("frame 6"));
+        assertEquals("frame 6", secondSent.getLast());
+        assertEquals(6, firstSent.size());
+    }
+
+    @Test
+    void resumesWhenNothingWasMissed() {
+        sendFrames(6);
+        assertTrue(replay.resume(second, frame -> secondSent.add(frame.getObject()), 6,
+                new EncodedFrame("response"), () -> { }));
+        assertEquals(List.of("response"), secondSent);
+    }
+
+    // Only the last CAPACITY frames are kept
+    @Test
+    void refusesCountsOlderThanTheRing() {
+        sendFrames(6);
+        assertFalse(replay.resume(second, frame -> secondSent.add(frame.getObject()), 1,
+                new EncodedFrame("response"), () -> { }));
+        assertTrue(secondSent.isEmpty());
+        assertSame(first, replay.getOwner());
+        assertTrue(replay.resume(second, frame -> secondSent.add(frame.getObject()), 2,
+                new EncodedFrame("response"), () -> { }));
+        assertEquals(5, secondSent.size());
+    }
+
+    @Test
+    void refusesCountsTheSessionNeverReached() {
+        sendFrames(3);
+        assertFalse(replay.resume(second, frame -> secondSent.add(frame.getObject()), 4,
+                new EncodedFrame("response"), () -> { }));
+        assertTrue(secondSent.isEmpty());
+    }
+
+    @Test
+    void refusesAnEndedSession() {
+        sendFrames(2);
+        assertTrue(replay.end(first));
+        assertFalse(replay.resume(second, frame -> secondSent.add(frame.getObject()), 2,
+                new EncodedFrame("response"), () -> { }));
+        // Only the owner ends it
+        assertFalse(replay.end(second));
+    }
+
+    private void sendFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            replay.send(new EncodedFrame("frame " + i));
+        }
+    }
+}
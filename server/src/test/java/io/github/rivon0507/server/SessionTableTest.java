@@ -0,0 +1,94 @@
+package io.github.rivon0507.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionTableTest {
+    private static final int SLOT_MASK = (1 << 20) - 1;
+
+    private final SessionTable table = new SessionTable();
+
+    @Test
+    void resolvesRegisteredClients() {
+        RecordingConnection alice = new RecordingConnection("alice");
+        RecordingConnection bob = new RecordingConnection("bob");
+        int aliceId = table.add(alice);
+        int bobId = table.add(bob);
+
+        assertTrue(aliceId > 0);
+        assertNotEquals(aliceId, bobId);
+        assertSame(alice, table.get(aliceId));
+        assertSame(bob, table.get(bobId));
+        assertEquals(bobId, table.idOf(bob));
+        assertNull(table.get(0));
+        assertNull(table.get(-1));
+        assertNull(table.get(12345));
+    }
+
+    // The slot is reused, but the old id names an older generation of it
+    @Test
+    void idOfAClientThatLeftNeverResolvesToItsSuccessor() {
+        RecordingConnection alice = new RecordingConnection("alice");
+        int aliceId = table.add(alice);
+        table.remove(alice);
+        assertNull(table.get(aliceId));
+        assertEquals(0, table.idOf(alice));
+
+        RecordingConnection bob = new RecordingConnection("bob");
+        int bobId = table.add(bob);
+        assertEquals(aliceId & SLOT_MASK, bobId & SLOT_MASK);
+        assertNotEquals(aliceId, bobId);
+        assertNull(table.get(aliceId));
+        assertSame(bob, table.get(bobId));
+    }
+
+    @Test
+    void generationsStayPositiveAcrossManyReuses() {
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < 3000; i++) {
+            RecordingConnection client = new RecordingConnection("client");
+            int id = table.add(client);
+            assertTrue(id > 0 && id < 1 << 30, "id " + id);
+            seen.add(id);
+            table.remove(client);
+        }
+        // Every generation the slot can hold was used before one came round again
+        assertEquals(1023, seen.size());
+    }
+
+    @Test
+    void resumedSessionKeepsItsId() {
+        RecordingConnection previous = new RecordingConnection("alice");
+        RecordingConnection resumed = new RecordingConnection("alice");
+        int id = table.add(previous);
+        table.replace(previous, resumed);
+
+        assertSame(resumed, table.get(id));
+        assertEquals(id, table.idOf(resumed));
+        assertEquals(0, table.idOf(previous));
+    }
+
+    @Test
+    void growsBeyondItsInitialSlots() {
+        List<RecordingConnection> clients = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            RecordingConnection client = new RecordingConnection("client-" + i);
+            clients.add(client);
+            ids.add(table.add(client));
+        }
+        for (int i = 0; i < clients.size(); i++) {
+            assertSame(clients.get(i), table.get(ids.get(i)));
+        }
+    }
+}
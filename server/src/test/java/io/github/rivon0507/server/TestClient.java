@@ -0,0 +1,99 @@
+package io.github.rivon0507.server;
+
+import io.github.rivon0507.common.ConnectionRequest;
+import io.github.rivon0507.common.ConnectionResponse;
+import io.github.rivon0507.common.Frames;
+import io.github.rivon0507.common.WireCodec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.function.Predicate;
+
+// A bare client speaking the binary codec, for driving a server over loopback
+final class TestClient implements AutoCloseable {
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final WireCodec CODEC = WireCodec.BINARY;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    private TestClient(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = socket.getOutputStream();
+        out.write(CODEC.getId());
+    }
+
+    // Retries until the server listens, which it does shortly after being started
+    static TestClient connect(int port) throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new TestClient(new Socket(InetAddress.getLoopbackAddress(), port));
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                sleep(20);
+            }
+        }
+    }
+
+    // Sends the handshake and returns the server's answer
+    ConnectionResponse login(String name) throws IOException {
+        send(new ConnectionRequest(name));
+        return await(ConnectionResponse.class, response -> true);
+    }
+
+    void send(Object frame) throws IOException {
+        Frames.write(out, CODEC.encode(frame));
+        out.flush();
+    }
+
+    // Reads frames, skipping the others, until one of the type matches; fails after the timeout
+    <T> T await(Class<T> type, Predicate<? super T> matches) throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            Object frame = Frames.read(in, CODEC);
+            if (type.isInstance(frame) && matches.test(type.cast(frame))) {
+                return type.cast(frame);
+            }
+        }
+        throw new SocketTimeoutException("No " + type.getSimpleName() + " received");
+    }
+
+    // True once the server closed the connection, skipping the frames sent before
+    boolean awaitClosed() throws IOException {
+        try {
+            while (true) {
+                Frames.read(in, CODEC);
+            }
+        } catch (EOFException e) {
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
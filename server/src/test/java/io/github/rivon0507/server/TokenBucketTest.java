@@ -0,0 +1,82 @@
+package io.github.rivon0507.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+    private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    @Test
+    void admitsBurstThenRefuses() {
+        TokenBucket bucket = new TokenBucket(10, 5, clock::get);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryTake(), "message " + i + " of the burst");
+        }
+        assertFalse(bucket.tryTake());
+    }
+
+    @Test
+    void refillsWithElapsedTime() {
+        TokenBucket bucket = new TokenBucket(10, 5, clock::get);
+        drain(bucket);
+
+        advance(99);
+        assertFalse(bucket.tryTake(), "a token takes 100 ms at 10 a second");
+        advance(1);
+        assertTrue(bucket.tryTake());
+        assertFalse(bucket.tryTake());
+
+        advance(350);
+        assertTrue(bucket.tryTake());
+        assertTrue(bucket.tryTake());
+        assertTrue(bucket.tryTake());
+        assertFalse(bucket.tryTake());
+    }
+
+    @Test
+    void refillStopsAtBurst() {
+        TokenBucket bucket = new TokenBucket(10, 5, clock::get);
+        drain(bucket);
+        advance(TimeUnit.MINUTES.toMillis(10));
+        assertEquals(5, drain(bucket));
+    }
+
+    @Test
+    void reportsRefusalsAtMostOncePerSecond() {
+        TokenBucket bucket = new TokenBucket(1, 1, clock::get);
+        assertEquals(0, bucket.refusedToReport(), "nothing refused yet");
+        drain(bucket);
+        bucket.tryTake();
+        bucket.tryTake();
+        assertEquals(3, bucket.refusedToReport(), "the first refusals are reported at once");
+
+        advance(500);
+        bucket.tryTake();
+        assertEquals(0, bucket.refusedToReport());
+        advance(499);
+        bucket.tryTake();
+        assertEquals(0, bucket.refusedToReport());
+        advance(1);
+        assertEquals(2, bucket.refusedToReport(), "refusals are kept until they can be reported");
+        assertEquals(0, bucket.refusedToReport());
+    }
+
+    // Takes every token left without letting time pass, returning how many there were
+    private static int drain(TokenBucket bucket) {
+        int taken = 0;
+        while (bucket.tryTake()) {
+            taken++;
+        }
+        return taken;
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}